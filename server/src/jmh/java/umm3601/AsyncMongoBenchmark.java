@@ -0,0 +1,157 @@
+package umm3601;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoDatabase;
+
+import io.javalin.Javalin;
+import umm3601.teams.SubmissionController;
+import umm3601.teams.TeamController;
+
+/**
+ * Compares the blocking controllers with the asynchronous ones (see
+ * `Main.withAsyncControllers`) under load: how many requests a second the
+ * server answers, and how long the slowest of them take.
+ *
+ * Each of the benchmark's threads is a hunter asking for its team's
+ * submissions, or the hunt's teams, over and over. Neither is cached, so
+ * every request goes to Mongo, which has to be running at MONGO_ADDR (as for
+ * the specs). The data goes in a `bench` database that's dropped afterwards.
+ *
+ * Run with `-bm sample` for the latency percentiles only, or `-bm thrpt`
+ * for throughput only.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(AsyncMongoBenchmark.HUNTERS)
+@SuppressWarnings({ "VisibilityModifier" })
+public class AsyncMongoBenchmark {
+
+  // How many hunters send requests at once, each waiting for its answer
+  // before sending the next
+  static final int HUNTERS = 64;
+
+  private static final String DATABASE = "bench";
+  private static final String STARTED_HUNT_ID = "benchHunt";
+  private static final String TEAM_ID = "benchTeam";
+  private static final int TEAMS = 6;
+  private static final int SUBMISSIONS = 20;
+  private static final int OK = 200;
+
+  /** Whether requests go to the asynchronous controllers. */
+  @Param({ "false", "true" })
+  public boolean async;
+
+  private MongoClient mongoClient;
+  private com.mongodb.reactivestreams.client.MongoClient reactiveClient;
+  private MongoDatabase database;
+  private Javalin server;
+  private HttpClient client;
+  private HttpRequest submissions;
+  private HttpRequest teams;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+    MongoConfig mongoConfig = MongoConfig.fromEnv(System.getenv());
+    MongoMetrics mongoMetrics = new MongoMetrics();
+    mongoClient = Server.configureDatabase(mongoAddr, mongoConfig, mongoMetrics);
+    reactiveClient = Server.configureReactiveDatabase(mongoAddr, mongoConfig, mongoMetrics);
+    database = mongoClient.getDatabase(DATABASE);
+    database.drop();
+    addTestData();
+
+    CollectionRegistry collections = new CollectionRegistry(database);
+    SharedServices services = new SharedServices(collections, mongoMetrics);
+    Controller[] controllers = {
+      new SubmissionController(collections, services),
+      new TeamController(collections, services),
+    };
+    if (async) {
+      controllers = Main.withAsyncControllers(new Controller[0], collections, services,
+          new ReactiveCollections(reactiveClient.getDatabase(DATABASE)));
+    }
+    server = Javalin.create();
+    for (Controller controller : controllers) {
+      controller.addRoutes(server);
+    }
+    server.start(0);
+
+    String api = "http://localhost:" + server.port() + (async ? "/api/async" : "/api");
+    client = HttpClient.newHttpClient();
+    submissions = HttpRequest.newBuilder(URI.create(api + "/submissions/team/" + TEAM_ID)).build();
+    teams = HttpRequest.newBuilder(URI.create(api + "/teams/startedHunt/" + STARTED_HUNT_ID)).build();
+  }
+
+  private void addTestData() {
+    List<Document> teamDocuments = new ArrayList<>();
+    for (int i = 1; i <= TEAMS; i++) {
+      teamDocuments.add(new Document("teamName", "Team " + i).append("startedHuntId", STARTED_HUNT_ID));
+    }
+    database.getCollection("teams").insertMany(teamDocuments);
+
+    List<Document> submissionDocuments = new ArrayList<>();
+    for (int i = 1; i <= SUBMISSIONS; i++) {
+      submissionDocuments.add(new Document("taskId", "Task " + i).append("teamId", TEAM_ID)
+          .append("photoPath", "photo" + i + ".jpg"));
+    }
+    database.getCollection("submissions").insertMany(submissionDocuments);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    server.stop();
+    database.drop();
+    mongoClient.close();
+    reactiveClient.close();
+  }
+
+  /**
+   * A hunter lists their team's submissions.
+   *
+   * @return The size of the response, so the work isn't optimized away
+   */
+  @Benchmark
+  public int submissionsByTeam() throws Exception {
+    return send(submissions);
+  }
+
+  /**
+   * A hunter lists the hunt's teams.
+   *
+   * @return The size of the response, so the work isn't optimized away
+   */
+  @Benchmark
+  public int startedHuntTeams() throws Exception {
+    return send(teams);
+  }
+
+  private int send(HttpRequest request) throws Exception {
+    HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+    if (response.statusCode() != OK) {
+      throw new IllegalStateException(request.uri() + " answered " + response.statusCode());
+    }
+    return response.body().length;
+  }
+}
@@ -0,0 +1,108 @@
+package umm3601;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import io.javalin.Javalin;
+
+/**
+ * Compares how long a burst of hunters joining at once takes with requests
+ * on Jetty's platform thread pool and on virtual threads (see
+ * `Server.configureThreads`).
+ *
+ * Each join blocks for about as long as a Mongo round trip, standing in for
+ * the query `StartedHuntController` makes, so this measures how many blocked
+ * requests the server can have at once rather than how fast Mongo is. All
+ * the hunters send their join at the same moment, and a run is done when
+ * every one of them has an answer.
+ *
+ * Every hunter has its own connection, so this needs a limit on open files
+ * of more than twice `hunters` (`ulimit -n 4096`).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@SuppressWarnings({ "VisibilityModifier" })
+public class JoinBurstBenchmark {
+
+  // About what a join's query takes against a database on another machine
+  private static final long MONGO_ROUND_TRIP_MS = 20;
+  private static final int OK = 200;
+
+  /** Whether the server runs requests on virtual threads. */
+  @Param({ "false", "true" })
+  public boolean virtualThreads;
+
+  /** How many hunters join at once. */
+  @Param({ "1000", "2000" })
+  public int hunters;
+
+  private Javalin server;
+  private ExecutorService clientThreads;
+  private HttpClient client;
+  private HttpRequest join;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    server = Javalin.create(config -> Server.configureThreads(config, virtualThreads));
+    server.get("/api/startedHunts/{accessCode}", ctx -> {
+      Thread.sleep(MONGO_ROUND_TRIP_MS);
+      ctx.result("{}");
+    });
+    server.start(0);
+
+    // The client's own threads shouldn't be what limits the burst
+    clientThreads = Executors.newVirtualThreadPerTaskExecutor();
+    client = HttpClient.newBuilder().executor(clientThreads).build();
+    join = HttpRequest.newBuilder(URI.create("http://localhost:" + server.port() + "/api/startedHunts/123456"))
+        .build();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    server.stop();
+    clientThreads.shutdownNow();
+  }
+
+  /**
+   * Every hunter joins at once.
+   *
+   * @return How many joins succeeded, so the work isn't optimized away
+   */
+  @Benchmark
+  public int joinBurst() {
+    List<CompletableFuture<HttpResponse<Void>>> joins = new ArrayList<>(hunters);
+    for (int i = 0; i < hunters; i++) {
+      joins.add(client.sendAsync(join, HttpResponse.BodyHandlers.discarding()));
+    }
+    int succeeded = 0;
+    for (CompletableFuture<HttpResponse<Void>> response : joins) {
+      if (response.join().statusCode() == OK) {
+        succeeded++;
+      }
+    }
+    if (succeeded != hunters) {
+      throw new IllegalStateException("Only " + succeeded + " of " + hunters + " hunters could join");
+    }
+    return succeeded;
+  }
+}
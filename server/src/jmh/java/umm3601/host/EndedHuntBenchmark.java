@@ -0,0 +1,137 @@
+package umm3601.host;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+
+import umm3601.CollectionRegistry;
+import umm3601.JsonBytes;
+import umm3601.SharedServices;
+import umm3601.photos.Rendition;
+import umm3601.startedHunts.StartedHunt;
+
+/**
+ * Times the work of sending a hunt to a host or a hunter that doesn't touch
+ * the database: making the photo URLs of an ended hunt's tasks
+ * (`getEndedHunt`), and turning hunts into JSON (`getStartedHunt` and
+ * `getEndedHunt`).
+ *
+ * None of it reads the database, but making a `HostController` does (for the
+ * access codes in use), so Mongo has to be running at MONGO_ADDR, as for the
+ * specs. Nothing is written to it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@SuppressWarnings({ "VisibilityModifier" })
+public class EndedHuntBenchmark {
+
+  /** How many tasks the hunt has. */
+  @Param({ "10", "50" })
+  public int tasks;
+
+  /** How many teams submitted a photo for each task. */
+  @Param({ "1", "20" })
+  public int photosPerTask;
+
+  private MongoClient mongoClient;
+  private HostController hostController;
+  private StartedHunt startedHunt;
+  private EndedHunt endedHunt;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+    mongoClient = MongoClients.create(MongoClientSettings.builder()
+        .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+        .build());
+    CollectionRegistry collections = new CollectionRegistry(mongoClient.getDatabase("bench"));
+    hostController = new HostController(collections, new SharedServices(collections));
+
+    Hunt hunt = new Hunt();
+    hunt._id = new ObjectId().toHexString();
+    hunt.hostId = new ObjectId().toHexString();
+    hunt.name = "Benchmark hunt";
+    hunt.description = "Find everything on the mall before the bell rings";
+    hunt.numberOfTasks = tasks;
+
+    CompleteHunt completeHunt = new CompleteHunt();
+    completeHunt.hunt = hunt;
+    completeHunt.tasks = new ArrayList<>();
+    for (int i = 0; i < tasks; i++) {
+      Task task = new Task();
+      task._id = new ObjectId().toHexString();
+      task.huntId = hunt._id;
+      task.name = "Task " + i;
+      task.photos = new ArrayList<>();
+      for (int j = 0; j < photosPerTask; j++) {
+        // Photos are named after the SHA-256 of their contents
+        task.photos.add(new ObjectId().toHexString() + new ObjectId().toHexString() + "0123456789abcdef.jpg");
+      }
+      completeHunt.tasks.add(task);
+    }
+
+    startedHunt = new StartedHunt();
+    startedHunt._id = new ObjectId().toHexString();
+    startedHunt.accessCode = "123456";
+    startedHunt.completeHunt = completeHunt;
+    startedHunt.status = false;
+    startedHunt.endDate = new Date();
+    for (int i = 0; i < tasks * photosPerTask; i++) {
+      startedHunt.submissionIds.add(new ObjectId().toHexString());
+    }
+
+    endedHunt = new EndedHunt();
+    endedHunt.startedHunt = startedHunt;
+    endedHunt.finishedTasks = hostController.getFinishedTasks(completeHunt.tasks);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    mongoClient.close();
+  }
+
+  @Benchmark
+  public List<FinishedTask> getFinishedTasks() {
+    return hostController.getFinishedTasks(startedHunt.completeHunt.tasks);
+  }
+
+  @Benchmark
+  public List<FinishedTask> getFinishedTasksAsThumbnails() {
+    return hostController.getFinishedTasks(startedHunt.completeHunt.tasks, Rendition.THUMBNAIL);
+  }
+
+  @Benchmark
+  public List<String> getPhotosFromTask() {
+    return hostController.getPhotosFromTask(startedHunt.completeHunt.tasks.get(0));
+  }
+
+  @Benchmark
+  public byte[] serializeStartedHunt() {
+    return JsonBytes.of(startedHunt, StartedHunt.class);
+  }
+
+  @Benchmark
+  public byte[] serializeEndedHunt() {
+    return JsonBytes.of(endedHunt, EndedHunt.class);
+  }
+}
@@ -0,0 +1,78 @@
+package umm3601.photos;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Times sending a photo as base64 text, for clients that still use
+ * `getPhotoFromSubmission`, across photo sizes from a thumbnail to a big
+ * phone photo.
+ *
+ * - `streamingEncode` is what `PhotoSender.sendBase64` does: encode the file
+ *   as it's read, through a small buffer.
+ * - `inMemoryEncode` reads the whole photo and encodes it to a string, which
+ *   is how the endpoint used to do it, for comparison.
+ *
+ * The encoded text is thrown away, so this is the encoding and reading the
+ * file (from the page cache) without the network.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@SuppressWarnings({ "VisibilityModifier" })
+public class PhotoEncodingBenchmark {
+
+  private static final int BYTES_PER_KILOBYTE = 1024;
+
+  /** The size of the test photo, from a thumbnail to a big phone photo. */
+  @Param({ "64", "1024", "4096", "10240" })
+  public int photoKilobytes;
+
+  private final PhotoSender photoSender = new PhotoSender();
+  private Path photo;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    // Random bytes don't compress, just like the JPEG data in a real photo
+    byte[] bytes = new byte[photoKilobytes * BYTES_PER_KILOBYTE];
+    new Random(photoKilobytes).nextBytes(bytes);
+    photo = Files.createTempFile("benchmark-photo", ".jpg");
+    Files.write(photo, bytes);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    Files.deleteIfExists(photo);
+  }
+
+  @Benchmark
+  public long streamingEncode() throws IOException {
+    try (FileChannel channel = FileChannel.open(photo, StandardOpenOption.READ)) {
+      photoSender.encodeBase64(channel, OutputStream.nullOutputStream());
+      return channel.size();
+    }
+  }
+
+  @Benchmark
+  public int inMemoryEncode() throws IOException {
+    return Base64.getEncoder().encodeToString(Files.readAllBytes(photo)).length();
+  }
+}
@@ -0,0 +1,136 @@
+package umm3601.photos;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Compares the ways we can send a photo file over a socket.
+ *
+ * - `streamCopy` is what `ctx.result(InputStream)` does: read the file into
+ *   a heap buffer and write that buffer to the socket.
+ * - `transferTo` uses `FileChannel.transferTo`, which is `sendfile(2)` on
+ *   Linux when the target is a socket.
+ * - `mappedWrite` memory maps the file and writes the direct buffer to the
+ *   socket, which is what `PhotoSender` used to ask Jetty to do. It now
+ *   uses `transferTo`.
+ *
+ * The photos are written to a loopback socket that a background thread
+ * drains, so the kernel work of actually sending the bytes is included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@SuppressWarnings({ "VisibilityModifier" })
+public class PhotoTransferBenchmark {
+
+  private static final int BYTES_PER_MEGABYTE = 1024 * 1024;
+  private static final int DRAIN_BUFFER_SIZE = 64 * 1024;
+
+  /** The size of the test photo, covering typical phone photos. */
+  @Param({ "1", "4", "10" })
+  public int photoMegabytes;
+
+  private Path photo;
+  private ServerSocketChannel server;
+  private SocketChannel client;
+  private Thread drain;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    // Random bytes don't compress, just like the JPEG data in a real photo
+    byte[] bytes = new byte[photoMegabytes * BYTES_PER_MEGABYTE];
+    new Random(photoMegabytes).nextBytes(bytes);
+    photo = Files.createTempFile("benchmark-photo", ".jpg");
+    Files.write(photo, bytes);
+
+    server = ServerSocketChannel.open();
+    server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    client = SocketChannel.open(server.getLocalAddress());
+    SocketChannel receiver = server.accept();
+
+    drain = new Thread(() -> {
+      ByteBuffer sink = ByteBuffer.allocateDirect(DRAIN_BUFFER_SIZE);
+      try (receiver) {
+        while (receiver.read(sink) >= 0) {
+          sink.clear();
+        }
+      } catch (IOException e) {
+        // The benchmark is over and the socket has been closed
+      }
+    }, "photo-benchmark-drain");
+    drain.setDaemon(true);
+    drain.start();
+  }
+
+  // A mapping is only unmapped when its buffer is garbage collected, and the
+  // small heap of this benchmark rarely needs collecting. Without this the
+  // mappings from `mappedWrite` pile up past the kernel's limit on them
+  // (`vm.max_map_count`, 65,530 by default) and the JVM dies.
+  @TearDown(Level.Iteration)
+  public void unmapPhotos() {
+    System.gc();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException, InterruptedException {
+    client.close();
+    drain.join();
+    server.close();
+    Files.deleteIfExists(photo);
+  }
+
+  @Benchmark
+  public long streamCopy() throws IOException {
+    try (InputStream in = Files.newInputStream(photo)) {
+      return in.transferTo(Channels.newOutputStream(client));
+    }
+  }
+
+  @Benchmark
+  public long transferTo() throws IOException {
+    try (FileChannel channel = FileChannel.open(photo, StandardOpenOption.READ)) {
+      long size = channel.size();
+      long position = 0;
+      while (position < size) {
+        position += channel.transferTo(position, size - position, client);
+      }
+      return position;
+    }
+  }
+
+  @Benchmark
+  public long mappedWrite() throws IOException {
+    try (FileChannel channel = FileChannel.open(photo, StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      long written = 0;
+      while (buffer.hasRemaining()) {
+        written += client.write(buffer);
+      }
+      return written;
+    }
+  }
+}
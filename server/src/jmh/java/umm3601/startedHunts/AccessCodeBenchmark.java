@@ -0,0 +1,99 @@
+package umm3601.startedHunts;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+
+import io.javalin.http.BadRequestResponse;
+import umm3601.CollectionRegistry;
+
+/**
+ * Times handing out a new access code (`AccessCodeAllocator.allocate`) as
+ * more of the codes are taken, and checking the access codes hunters type in
+ * to join (`StartedHuntController.checkAccessCode`).
+ *
+ * The allocator loads the codes in use when it's made, so Mongo has to be
+ * running at MONGO_ADDR, as for the specs. Nothing is written to it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AccessCodeBenchmark {
+
+  /**
+   * An allocator with some of its codes taken. Only `allocateAndRelease`
+   * uses it, so the other benchmarks don't run once for each `activeHunts`.
+   */
+  @State(Scope.Benchmark)
+  @SuppressWarnings({ "VisibilityModifier" })
+  public static class Allocator {
+
+    /** How many of the 900,000 codes active hunts are using. */
+    @Param({ "0", "100000", "890000" })
+    public int activeHunts;
+
+    private MongoClient mongoClient;
+    private AccessCodeAllocator accessCodes;
+
+    @Setup(Level.Trial)
+    public void setup() {
+      String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+      mongoClient = MongoClients.create(MongoClientSettings.builder()
+          .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+          .build());
+      accessCodes = new AccessCodeAllocator(new CollectionRegistry(mongoClient.getDatabase("bench")).startedHunts());
+
+      // Take the first codes, so a random guess usually has to jump to the
+      // end of a run of taken codes
+      for (int i = 0; i < activeHunts; i++) {
+        accessCodes.markTaken(Integer.toString(AccessCodeAllocator.CODE_MIN + i));
+      }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+      mongoClient.close();
+    }
+  }
+
+  /**
+   * Hands out a code and takes it back, as a hunt starting and ending would,
+   * so the number in use stays the same.
+   */
+  @Benchmark
+  public String allocateAndRelease(Allocator allocator) {
+    String code = allocator.accessCodes.allocate();
+    allocator.accessCodes.release(code);
+    return code;
+  }
+
+  @Benchmark
+  public boolean checkValidAccessCode() {
+    StartedHuntController.checkAccessCode("123456");
+    return true;
+  }
+
+  @Benchmark
+  public boolean checkInvalidAccessCode() {
+    try {
+      StartedHuntController.checkAccessCode("12a456");
+      return true;
+    } catch (BadRequestResponse e) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,64 @@
+package umm3601.teams;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+
+import umm3601.CollectionRegistry;
+import umm3601.SharedServices;
+
+/**
+ * Times `SubmissionController.getFileExtension`, which every uploaded photo
+ * goes through, on the kinds of names phones give their photos.
+ *
+ * The controller doesn't use the database for this, or when it's made, so
+ * Mongo doesn't have to be running.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@SuppressWarnings({ "VisibilityModifier" })
+public class FileExtensionBenchmark {
+
+  /** The name of the uploaded file. */
+  @Param({ "image.jpg", "IMG_20240418_153012.HEIC", "Screenshot 2024-04-18 at 3.30.12 PM.png", "photo" })
+  public String filename;
+
+  private MongoClient mongoClient;
+  private SubmissionController submissionController;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+    mongoClient = MongoClients.create(MongoClientSettings.builder()
+        .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+        .build());
+    CollectionRegistry collections = new CollectionRegistry(mongoClient.getDatabase("bench"));
+    submissionController = new SubmissionController(collections, new SharedServices(collections));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    mongoClient.close();
+  }
+
+  @Benchmark
+  public String getFileExtension() {
+    return submissionController.getFileExtension(filename);
+  }
+}
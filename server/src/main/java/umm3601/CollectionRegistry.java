@@ -0,0 +1,97 @@
+package umm3601;
+
+import org.bson.UuidRepresentation;
+import org.mongojack.JacksonMongoCollection;
+import org.mongojack.ObjectMapperConfigurer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.client.MongoDatabase;
+
+import umm3601.host.Host;
+import umm3601.host.Hunt;
+import umm3601.host.Task;
+import umm3601.photos.PhotoBlob;
+import umm3601.startedHunts.StartedHunt;
+import umm3601.teams.Submission;
+import umm3601.teams.Team;
+
+/**
+ * The typed collections for everything we keep in the database.
+ *
+ * `Main` makes one of these and hands it to every controller, so each
+ * collection (and the Jackson `ObjectMapper` behind them all) is only set
+ * up once, no matter how many controllers use it. Without this each
+ * controller built its own collections, and each of those got its own
+ * `ObjectMapper`.
+ *
+ * The state the controllers share that isn't a collection, like the cache
+ * of joinable hunts, is in `SharedServices`.
+ */
+public class CollectionRegistry {
+
+  private final MongoDatabase database;
+
+  private final JacksonMongoCollection<Host> hosts;
+  private final JacksonMongoCollection<Hunt> hunts;
+  private final JacksonMongoCollection<Task> tasks;
+  private final JacksonMongoCollection<StartedHunt> startedHunts;
+  private final JacksonMongoCollection<Team> teams;
+  private final JacksonMongoCollection<Submission> submissions;
+  private final JacksonMongoCollection<PhotoBlob> photoBlobs;
+
+  /**
+   * Sets up all the collections.
+   *
+   * @param database The MongoDB database the collections are in
+   */
+  public CollectionRegistry(MongoDatabase database) {
+    this.database = database;
+    ObjectMapper objectMapper = ObjectMapperConfigurer.configureObjectMapper(new ObjectMapper());
+
+    hosts = build(objectMapper, "hosts", Host.class);
+    hunts = build(objectMapper, "hunts", Hunt.class);
+    tasks = build(objectMapper, "tasks", Task.class);
+    startedHunts = build(objectMapper, "startedHunts", StartedHunt.class);
+    teams = build(objectMapper, "teams", Team.class);
+    submissions = build(objectMapper, "submissions", Submission.class);
+    photoBlobs = build(objectMapper, "photoBlobs", PhotoBlob.class);
+  }
+
+  private <T> JacksonMongoCollection<T> build(ObjectMapper objectMapper, String name, Class<T> type) {
+    return JacksonMongoCollection.builder()
+        .withObjectMapper(objectMapper)
+        .build(database, name, type, UuidRepresentation.STANDARD);
+  }
+
+  public MongoDatabase database() {
+    return database;
+  }
+
+  public JacksonMongoCollection<Host> hosts() {
+    return hosts;
+  }
+
+  public JacksonMongoCollection<Hunt> hunts() {
+    return hunts;
+  }
+
+  public JacksonMongoCollection<Task> tasks() {
+    return tasks;
+  }
+
+  public JacksonMongoCollection<StartedHunt> startedHunts() {
+    return startedHunts;
+  }
+
+  public JacksonMongoCollection<Team> teams() {
+    return teams;
+  }
+
+  public JacksonMongoCollection<Submission> submissions() {
+    return submissions;
+  }
+
+  public JacksonMongoCollection<PhotoBlob> photoBlobs() {
+    return photoBlobs;
+  }
+}
@@ -0,0 +1,94 @@
+package umm3601;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+
+/**
+ * Lets a request ask for only some fields of the things in a list, with a
+ * `fields` query parameter like `fields=completeHunt.hunt.name,endDate,status`.
+ *
+ * Mongo leaves the other fields out before sending the documents, so a list
+ * of StartedHunts doesn't have to carry every task and submission of every
+ * hunt when all the page shows is their names. The `_id` is always included.
+ *
+ * Only the requested fields appear in the JSON, rather than every field of
+ * the model with most of them null or zero, so these documents are sent as
+ * they come from Mongo, with their IDs turned into strings the way the
+ * models' `@ObjectId` fields are.
+ */
+public final class FieldProjection {
+
+  public static final String FIELDS_KEY = "fields";
+
+  static final int MAX_FIELDS = 32;
+
+  // Dotted paths of plain names; nothing starting with `$`
+  private static final Pattern FIELD = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*(\\.[A-Za-z_][A-Za-z0-9_]*)*");
+
+  private FieldProjection() {
+  }
+
+  /**
+   * Reads the `fields` query parameter.
+   *
+   * @param ctx The request
+   * @return The fields to include, or null if the request wants everything
+   * @throws BadRequestResponse if `fields` isn't a list of field names
+   */
+  public static List<String> fromQuery(Context ctx) {
+    String fieldsParam = ctx.queryParam(FIELDS_KEY);
+    if (fieldsParam == null) {
+      return null;
+    }
+    List<String> fields = Arrays.stream(fieldsParam.split(",")).map(String::trim).toList();
+    if (fields.size() > MAX_FIELDS || !fields.stream().allMatch(field -> FIELD.matcher(field).matches())) {
+      throw new BadRequestResponse("'" + FIELDS_KEY + "' must be a comma-separated list of at most " + MAX_FIELDS
+          + " field names");
+    }
+    // Mongo won't project a field and something inside it at the same time
+    for (String field : fields) {
+      if (fields.stream().anyMatch(other -> other.startsWith(field + "."))) {
+        throw new BadRequestResponse("'" + FIELDS_KEY + "' can't have both " + field + " and a field inside it");
+      }
+    }
+    return fields;
+  }
+
+  /**
+   * Turns the ObjectIds in a projected document into hex strings, so it has
+   * the same JSON as the model would.
+   */
+  public static Document withHexIds(Document document) {
+    Document converted = new Document();
+    for (Map.Entry<String, Object> entry : document.entrySet()) {
+      converted.append(entry.getKey(), hexIds(entry.getValue()));
+    }
+    return converted;
+  }
+
+  private static Object hexIds(Object value) {
+    if (value instanceof ObjectId id) {
+      return id.toHexString();
+    }
+    if (value instanceof Document document) {
+      return withHexIds(document);
+    }
+    if (value instanceof List<?> list) {
+      List<Object> converted = new ArrayList<>(list.size());
+      for (Object element : list) {
+        converted.add(hexIds(element));
+      }
+      return converted;
+    }
+    return value;
+  }
+}
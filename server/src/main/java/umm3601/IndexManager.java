@@ -0,0 +1,182 @@
+package umm3601;
+
+import static com.mongodb.client.model.Filters.eq;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+
+import com.mongodb.MongoException;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexOptions;
+
+/**
+ * Makes sure the database has the indexes the controllers' queries need.
+ *
+ * Every collection the controllers search (other than by `_id`) is listed
+ * here with the indexes that cover those searches, so that looking up a
+ * hunt's tasks or a team's submissions doesn't scan the whole collection.
+ * `Main` runs this when the server starts.
+ *
+ * Creating an index that already exists does nothing, so this is safe to
+ * run every time. If an index can't be created (e.g., the unique access code
+ * index when two active hunts already share a code) the server still starts,
+ * but the missing index is reported.
+ */
+public class IndexManager {
+
+  /**
+   * An index that a collection should have.
+   *
+   * @param collection The name of the collection
+   * @param keys       The indexed fields, in order, with 1 for ascending
+   * @param options    The index options, which must include its name
+   */
+  public record RequiredIndex(String collection, Document keys, IndexOptions options) {
+    public String name() {
+      return collection + "." + options.getName();
+    }
+  }
+
+  static final List<RequiredIndex> REQUIRED_INDEXES = List.of(
+      // HostController.getHunts, which sorts by name unless asked otherwise
+      new RequiredIndex("hunts",
+          new Document("hostId", 1).append("name", 1),
+          new IndexOptions().name("hostId_name")),
+      // HostController.getTasks, also sorted by name
+      new RequiredIndex("tasks",
+          new Document("huntId", 1).append("name", 1),
+          new IndexOptions().name("huntId_name")),
+      // Joining a hunt by its access code. Ended hunts all share the code "1",
+      // so only the codes of active hunts have to be unique.
+      new RequiredIndex("startedHunts",
+          new Document("accessCode", 1),
+          new IndexOptions().name("accessCode_active_unique").unique(true).partialFilterExpression(eq("status", true))),
+      // Finding a hunt by access code whether or not it's active, which the
+      // partial index above can't be used for
+      new RequiredIndex("startedHunts",
+          new Document("accessCode", 1).append("status", 1),
+          new IndexOptions().name("accessCode_status")),
+      new RequiredIndex("startedHunts",
+          new Document("completeHunt.hunt.hostId", 1),
+          new IndexOptions().name("completeHunt.hunt.hostId")),
+      new RequiredIndex("startedHunts",
+          new Document("status", 1),
+          new IndexOptions().name("status")),
+      new RequiredIndex("teams",
+          new Document("startedHuntId", 1),
+          new IndexOptions().name("startedHuntId")),
+      // A team's submission for a task, and (by its prefix) all of a team's
+      // submissions
+      new RequiredIndex("submissions",
+          new Document("teamId", 1).append("taskId", 1),
+          new IndexOptions().name("teamId_taskId")),
+      new RequiredIndex("submissions",
+          new Document("taskId", 1),
+          new IndexOptions().name("taskId")));
+
+  private final MongoDatabase database;
+
+  public IndexManager(MongoDatabase database) {
+    this.database = database;
+  }
+
+  /**
+   * Creates any of the required indexes that are missing, then checks that
+   * they are all really there.
+   *
+   * @return The names of the required indexes that are still missing, which
+   *         is empty if everything worked
+   */
+  public List<String> ensureIndexes() {
+    for (RequiredIndex index : REQUIRED_INDEXES) {
+      try {
+        database.getCollection(index.collection()).createIndex(index.keys(), index.options());
+      } catch (MongoException e) {
+        System.err.println("Could not create index " + index.name() + ": " + e.getMessage());
+      }
+    }
+
+    List<String> missing = missingIndexes();
+    if (missing.isEmpty()) {
+      System.out.println("All " + REQUIRED_INDEXES.size() + " required indexes are in place");
+    } else {
+      System.err.println("Missing indexes; these queries will scan whole collections: " + missing);
+    }
+    return missing;
+  }
+
+  /**
+   * Checks which of the required indexes the database doesn't have.
+   *
+   * An index only counts if it has the right name, the right fields in the
+   * right order, and the right `unique` and `partialFilterExpression`. An
+   * index that is there with other options (say, a non-unique one with the
+   * name of the unique access code index) is reported, since creating the
+   * right one fails while it's in the way.
+   *
+   * @return The names of the missing indexes
+   */
+  public List<String> missingIndexes() {
+    List<String> missing = new ArrayList<>();
+    for (RequiredIndex index : REQUIRED_INDEXES) {
+      if (!hasIndex(index)) {
+        missing.add(index.name());
+      }
+    }
+    return missing;
+  }
+
+  private boolean hasIndex(RequiredIndex index) {
+    for (Document existing : database.getCollection(index.collection()).listIndexes()) {
+      if (index.options().getName().equals(existing.getString("name"))) {
+        return sameKeys(index.keys(), existing.get("key", Document.class)) && sameOptions(index.options(), existing);
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Whether an existing index is unique, and partial with the same filter,
+   * exactly when the required one is. `AccessCodeAllocator` relies on the
+   * access code index really being unique.
+   */
+  private boolean sameOptions(IndexOptions expected, Document actual) {
+    Object unique = actual.get("unique");
+    boolean actualUnique = Boolean.TRUE.equals(unique) || unique instanceof Number number && number.intValue() == 1;
+    if (expected.isUnique() != actualUnique) {
+      return false;
+    }
+    Bson expectedFilter = expected.getPartialFilterExpression();
+    Document actualFilter = actual.get("partialFilterExpression", Document.class);
+    if (expectedFilter == null || actualFilter == null) {
+      return expectedFilter == null && actualFilter == null;
+    }
+    CodecRegistry codecs = database.getCodecRegistry();
+    return expectedFilter.toBsonDocument(BsonDocument.class, codecs)
+        .equals(actualFilter.toBsonDocument(BsonDocument.class, codecs));
+  }
+
+  /**
+   * Whether two index key documents have the same fields in the same order
+   * and direction. The server may give the directions back as doubles, so
+   * they are compared as numbers.
+   */
+  private static boolean sameKeys(Document expected, Document actual) {
+    if (actual == null || !new ArrayList<>(expected.keySet()).equals(new ArrayList<>(actual.keySet()))) {
+      return false;
+    }
+    for (String field : expected.keySet()) {
+      Object direction = actual.get(field);
+      if (!(direction instanceof Number)
+          || ((Number) direction).intValue() != ((Number) expected.get(field)).intValue()) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,41 @@
+package umm3601;
+
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+
+import io.javalin.http.ContentType;
+import io.javalin.http.Context;
+import io.javalin.json.JavalinJackson;
+
+/**
+ * Turns responses into JSON ahead of time, so the same bytes can be sent to
+ * many requests (from a cache, or by `SingleFlight`) without serializing
+ * them again for each one.
+ */
+public final class JsonBytes {
+
+  // The same as the mapper Javalin uses for `ctx.json`
+  private static final JavalinJackson MAPPER = new JavalinJackson();
+
+  private JsonBytes() {
+  }
+
+  /**
+   * Serializes something the way `ctx.json` would.
+   *
+   * @param value The thing to serialize
+   * @param type  Its type, which matters for lists of things
+   * @return The JSON, as UTF-8
+   */
+  public static byte[] of(Object value, Type type) {
+    return MAPPER.toJsonString(value, type).getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Sends JSON made by `of` as the response.
+   */
+  public static void send(Context ctx, byte[] json) {
+    ctx.contentType(ContentType.APPLICATION_JSON);
+    ctx.result(json);
+  }
+}
@@ -0,0 +1,67 @@
+package umm3601;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.mongodb.client.MongoCursor;
+
+import io.javalin.http.ContentType;
+import io.javalin.http.Context;
+import io.javalin.json.JavalinJackson;
+
+/**
+ * Sends a list of things as a JSON array, writing each one to the response
+ * as it comes off the database cursor instead of collecting them all into a
+ * list and serializing that.
+ *
+ * Only one batch from the cursor and Jackson's small write buffer are in
+ * memory at a time, however long the list is, and the client starts getting
+ * the array as soon as the first batch arrives. The bytes are the same as
+ * `ctx.json` of the whole list would send.
+ *
+ * Since the response has been started by the time a later batch is read, the
+ * status has to be set before calling `send`, and a database error partway
+ * through cuts the array short rather than turning into an error response.
+ */
+public final class JsonStream {
+
+  // The same mapper Javalin uses for `ctx.json`, but only flushed when the
+  // buffer fills up rather than after every element
+  private static final ObjectWriter WRITER = new JavalinJackson().getMapper().writer()
+      .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+  private JsonStream() {
+  }
+
+  /**
+   * Sends things as a JSON array. If they come from the database, the cursor
+   * is closed afterwards even if the client goes away partway through.
+   * Anything else iterable (like a list) is sent the same way.
+   *
+   * @param ctx    The request to respond to
+   * @param things The things to send, usually a `find`
+   */
+  public static <T> void send(Context ctx, Iterable<T> things) {
+    ctx.contentType(ContentType.APPLICATION_JSON);
+    Iterator<T> iterator = things.iterator();
+    try (JsonGenerator json = WRITER.createGenerator(ctx.outputStream())) {
+      // If we fail partway, leave the array unclosed so the client can tell
+      json.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+      json.writeStartArray();
+      while (iterator.hasNext()) {
+        WRITER.writeValue(json, iterator.next());
+      }
+      json.writeEndArray();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Could not send the list", e);
+    } finally {
+      if (iterator instanceof MongoCursor<T> cursor) {
+        cursor.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,245 @@
+package umm3601;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.gt;
+import static com.mongodb.client.model.Filters.ne;
+import static com.mongodb.client.model.Filters.or;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.bson.conversions.Bson;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonParseException;
+import org.bson.json.JsonWriterSettings;
+import org.bson.types.ObjectId;
+import org.mongojack.JacksonMongoCollection;
+
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+
+/**
+ * Lists things a page at a time, when the request asks for it with a
+ * `limit` (the most to send) and/or an `after` token.
+ *
+ * Pages are found by where the last one stopped (its sort key and `_id`)
+ * rather than by skipping, so each page is a single indexed range query no
+ * matter how deep into the list it is, and only one page is ever in memory.
+ * The response body is the same JSON array as without paging; if there is
+ * more to come, the `X-Next-Page` header has the token to pass as `after` to
+ * get it. The token is opaque to clients.
+ *
+ * Requests with neither parameter get the whole list, as they always have.
+ * It is written out as it is read from the cursor rather than collected
+ * first, so a long list doesn't have to fit in memory.
+ */
+public final class KeysetPagination {
+
+  public static final String LIMIT_KEY = "limit";
+  public static final String AFTER_KEY = "after";
+  public static final String NEXT_PAGE_HEADER = "X-Next-Page";
+
+  static final int DEFAULT_LIMIT = 100;
+  static final int MAX_LIMIT = 1000;
+
+  private static final String ID = "_id";
+  // Extended JSON keeps the exact BSON type of the sort key in the token
+  private static final JsonWriterSettings TOKEN_JSON = JsonWriterSettings.builder()
+      .outputMode(JsonMode.EXTENDED)
+      .build();
+
+  private KeysetPagination() {
+  }
+
+  /**
+   * Sends the things in a collection that match a filter, a page at a time if
+   * the request asks for that. The status has to be set before calling this,
+   * since the whole list is streamed (see `JsonStream`).
+   *
+   * @param ctx        The request, which may have `limit`, `after` and
+   *                   `fields` (see `FieldProjection`) query parameters
+   * @param collection The collection to search
+   * @param database   The database the collection is in
+   * @param filter     Which things to list
+   * @param sortKey    The field to sort by, or null if the order doesn't
+   *                   matter; pages are sorted by `_id` after this
+   * @throws BadRequestResponse if `limit`, `after` or `fields` isn't valid
+   */
+  public static <T> void send(Context ctx, JacksonMongoCollection<T> collection, MongoDatabase database,
+      Bson filter, String sortKey) {
+    List<String> fields = FieldProjection.fromQuery(ctx);
+    String collectionName = collection.getNamespace().getCollectionName();
+    String limitParam = ctx.queryParam(LIMIT_KEY);
+    String afterParam = ctx.queryParam(AFTER_KEY);
+
+    if (limitParam == null && afterParam == null) {
+      if (fields == null) {
+        JsonStream.send(ctx, sorted(collection.find(filter), sortKey));
+      } else {
+        FindIterable<Document> all = database.getCollection(collectionName).find(filter)
+            .projection(Projections.include(fields));
+        JsonStream.send(ctx, sorted(all, sortKey).map(FieldProjection::withHexIds));
+      }
+      return;
+    }
+
+    String key = sortKey == null ? ID : sortKey;
+    int limit = parseLimit(limitParam);
+    Bson pageFilter = afterParam == null ? filter : and(filter, afterFilter(key, parseToken(key, afterParam)));
+    Bson sort = key.equals(ID) ? Sorts.ascending(ID) : Sorts.ascending(key, ID);
+
+    // The page is read as raw BSON so the next page's token can be made from
+    // the sort key of its last thing, as it was when the page was read, and
+    // then turned into what we send.
+    FindIterable<RawBsonDocument> find = database.getCollection(collectionName, RawBsonDocument.class)
+        .find(pageFilter);
+    Function<RawBsonDocument, ?> toSend;
+    if (fields == null) {
+      Codec<T> codec = collection.getCodecRegistry().get(collection.getDocumentClass());
+      toSend = document -> document.decode(codec);
+    } else {
+      boolean keyAdded = !isIncluded(key, fields);
+      if (keyAdded) {
+        find = find.projection(Projections.include(withField(fields, key)));
+      } else {
+        find = find.projection(Projections.include(fields));
+      }
+      Codec<Document> codec = database.getCodecRegistry().get(Document.class);
+      toSend = document -> {
+        Document projected = document.decode(codec);
+        if (keyAdded) {
+          removeField(projected, key, fields);
+        }
+        return FieldProjection.withHexIds(projected);
+      };
+    }
+
+    // Ask for one extra to find out whether there's another page
+    List<RawBsonDocument> page = find.sort(sort).limit(limit + 1).into(new ArrayList<>());
+    if (page.size() > limit) {
+      page.remove(limit);
+      ctx.header(NEXT_PAGE_HEADER, token(key, page.get(limit - 1)));
+    }
+    ctx.json(page.stream().map(toSend).toList());
+  }
+
+  private static <T> FindIterable<T> sorted(FindIterable<T> things, String sortKey) {
+    return sortKey == null ? things : things.sort(Sorts.ascending(sortKey));
+  }
+
+  /**
+   * Whether a projection of `fields` would include all of `key`. The `_id` is
+   * always included.
+   */
+  private static boolean isIncluded(String key, List<String> fields) {
+    return key.equals(ID) || fields.stream().anyMatch(field -> key.equals(field) || key.startsWith(field + "."));
+  }
+
+  /**
+   * Adds the sort key to the requested fields, so the page has it for the
+   * token. Mongo won't project a field and something inside it at the same
+   * time, so sorting by a field that has some of the requested ones inside it
+   * isn't allowed.
+   */
+  private static List<String> withField(List<String> fields, String key) {
+    if (fields.stream().anyMatch(field -> field.startsWith(key + "."))) {
+      throw new BadRequestResponse("Can't sort by " + key + " while asking for only part of it in '"
+          + FieldProjection.FIELDS_KEY + "'");
+    }
+    List<String> withKey = new ArrayList<>(fields);
+    withKey.add(key);
+    return withKey;
+  }
+
+  /**
+   * Takes the sort key, which was only added for the token, back out of a
+   * projected document. The documents it is in are left alone if they hold
+   * requested fields too, since Mongo would have sent them anyway.
+   */
+  private static void removeField(Document document, String key, List<String> fields) {
+    String[] path = key.split("\\.");
+    Document parent = document;
+    int depth = 0;
+    while (depth < path.length - 1) {
+      String prefix = String.join(".", Arrays.copyOf(path, depth + 1)) + ".";
+      if (fields.stream().noneMatch(field -> field.startsWith(prefix))) {
+        break;
+      }
+      if (!(parent.get(path[depth]) instanceof Document child)) {
+        return;
+      }
+      parent = child;
+      depth++;
+    }
+    parent.remove(path[depth]);
+  }
+
+  private static int parseLimit(String limitParam) {
+    if (limitParam == null) {
+      return DEFAULT_LIMIT;
+    }
+    try {
+      int limit = Integer.parseInt(limitParam);
+      if (limit >= 1 && limit <= MAX_LIMIT) {
+        return limit;
+      }
+    } catch (NumberFormatException e) {
+      // Reported below
+    }
+    throw new BadRequestResponse("The limit must be a number from 1 to " + MAX_LIMIT);
+  }
+
+  /**
+   * Things that come after the last thing on the previous page: a later sort
+   * key, or the same sort key and a later `_id`. Missing and null sort keys
+   * come first, as they do when Mongo sorts.
+   */
+  private static Bson afterFilter(String key, Document last) {
+    ObjectId lastId = last.getObjectId("id");
+    if (key.equals(ID)) {
+      return gt(ID, lastId);
+    }
+    Object lastValue = last.get("v");
+    Bson laterValue = lastValue == null ? ne(key, null) : gt(key, lastValue);
+    return or(laterValue, and(eq(key, lastValue), gt(ID, lastId)));
+  }
+
+  private static String token(String key, RawBsonDocument last) {
+    BsonValue value = null;
+    if (!key.equals(ID)) {
+      value = last;
+      for (String name : key.split("\\.")) {
+        value = value != null && value.isDocument() ? value.asDocument().get(name) : null;
+      }
+    }
+    ObjectId id = last.getObjectId(ID).getValue();
+    String json = new Document("k", key).append("v", value).append("id", id).toJson(TOKEN_JSON);
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static Document parseToken(String key, String token) {
+    try {
+      Document last = Document.parse(new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8));
+      if (key.equals(last.getString("k")) && last.get("id") instanceof ObjectId) {
+        return last;
+      }
+    } catch (IllegalArgumentException | JsonParseException | ClassCastException e) {
+      // Reported below
+    }
+    throw new BadRequestResponse("The '" + AFTER_KEY + "' token isn't valid for this list and sort order");
+  }
+}
@@ -0,0 +1,112 @@
+package umm3601;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts how many values (like request times in microseconds) fall in each of
+ * a fixed set of buckets, so we can tell the percentiles without keeping
+ * every value.
+ *
+ * The buckets are laid out the way HdrHistogram lays them out: every value
+ * below 128 has its own bucket, and above that each power of two is split
+ * into 64 buckets, so any value is reported to within 1 part in 64 of what it
+ * really was. Recording is a couple of shifts and an atomic increment, and
+ * the histogram never grows, however many values go in.
+ */
+public class LatencyHistogram {
+
+  // Values below this each get their own bucket
+  private static final int LINEAR_BUCKETS = 128;
+  private static final int SUB_BUCKET_BITS = 6;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final double ALL = 100.0;
+
+  private final long highestTrackableValue;
+  private final AtomicLongArray counts;
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sum = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  /**
+   * @param highestTrackableValue The largest value to tell apart; anything
+   *                              bigger is counted as this, though `max()`
+   *                              still reports it
+   */
+  public LatencyHistogram(long highestTrackableValue) {
+    this.highestTrackableValue = highestTrackableValue;
+    this.counts = new AtomicLongArray(bucketOf(highestTrackableValue) + 1);
+  }
+
+  /**
+   * Records one value. Negative values are counted as zero.
+   */
+  public void record(long value) {
+    long clamped = Math.max(0, value);
+    counts.incrementAndGet(bucketOf(Math.min(clamped, highestTrackableValue)));
+    count.increment();
+    sum.add(clamped);
+    max.accumulate(clamped);
+  }
+
+  public long count() {
+    return count.sum();
+  }
+
+  public long sum() {
+    return sum.sum();
+  }
+
+  public long max() {
+    return max.get();
+  }
+
+  /**
+   * The value that the given percentage of the recorded values are at or
+   * below, give or take the width of its bucket.
+   *
+   * @param percentile Between 0 and 100
+   * @return The highest value in the bucket the percentile falls in, or 0 if
+   *         nothing has been recorded
+   */
+  public long valueAtPercentile(double percentile) {
+    long total = count();
+    if (total == 0) {
+      return 0;
+    }
+    long wanted = Math.max(1, (long) Math.ceil(total * Math.min(percentile, ALL) / ALL));
+    long seen = 0;
+    for (int bucket = 0; bucket < counts.length(); bucket++) {
+      seen += counts.get(bucket);
+      if (seen >= wanted) {
+        // The last bucket holds everything past the top too, so all we know
+        // about it is the biggest value
+        if (bucket == counts.length() - 1) {
+          return max();
+        }
+        // The top of the bucket is never more than the biggest value itself
+        return Math.min(highestValueIn(bucket), max());
+      }
+    }
+    return max();
+  }
+
+  static int bucketOf(long value) {
+    if (value < LINEAR_BUCKETS) {
+      return (int) value;
+    }
+    // How far `value` has to be shifted to leave it between 64 and 127
+    int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+    return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + (int) ((value >> shift) - SUB_BUCKETS);
+  }
+
+  static long highestValueIn(int bucket) {
+    if (bucket < LINEAR_BUCKETS) {
+      return bucket;
+    }
+    int shift = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+    long subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+    return ((subBucket + 1) << shift) - 1;
+  }
+}
@@ -1,10 +1,16 @@
 package umm3601;
 
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoDatabase;
 
 import umm3601.host.HostController;
+import umm3601.startedHunts.AsyncStartedHuntController;
 import umm3601.startedHunts.StartedHuntController;
+import umm3601.teams.AsyncSubmissionController;
+import umm3601.teams.AsyncTeamController;
 import umm3601.teams.SubmissionController;
 import umm3601.teams.TeamController;
 
@@ -16,21 +22,66 @@ public class Main {
     String mongoAddr = Main.getEnvOrDefault("MONGO_ADDR", "localhost");
     String databaseName = Main.getEnvOrDefault("MONGO_DB", "dev");
 
-    // Set up the MongoDB client
-    MongoClient mongoClient = Server.configureDatabase(mongoAddr);
+    // The pool size, timeouts and so on come from MONGO_POOL_MAX and the rest;
+    // see `MongoConfig`. Anything missing or wrong stops us here.
+    MongoConfig mongoConfig = MongoConfig.fromEnv(System.getenv());
+    mongoConfig.check();
+    System.out.println("Mongo client settings: " + mongoConfig.describe());
+
+    // Set up the MongoDB client, reporting its commands to the metrics
+    MongoMetrics mongoMetrics = new MongoMetrics();
+    MongoClient mongoClient = Server.configureDatabase(mongoAddr, mongoConfig, mongoMetrics);
     // Get the database
     MongoDatabase database = mongoClient.getDatabase(databaseName);
 
+    // Make sure the indexes our queries rely on exist before we start
+    // taking requests
+    new IndexManager(database).ensureIndexes();
+
+    // The typed collections, and the caches and metrics the controllers
+    // share, are set up once here and handed to all the controllers
+    CollectionRegistry collections = new CollectionRegistry(database);
+    SharedServices services = new SharedServices(collections, mongoMetrics);
+
     // The implementations of `Controller` used for the server. These will presumably
     // be one or more controllers, each of which implements the `Controller` interface.
     // You'll add your own controllers in `getControllers` as you create them.
-    final Controller[] controllers = Main.getControllers(database);
+    final Controller[] controllers = Main.getControllers(collections, services);
+
+    // Also serve the asynchronous versions of the busiest endpoints, under
+    // /api/async, if SERVER_ASYNC_MONGO is `true`. They use a second client,
+    // on the reactive driver, with its own connection pool.
+    boolean asyncMongo = Boolean.parseBoolean(Main.getEnvOrDefault("SERVER_ASYNC_MONGO", "false"));
+    Controller[] allControllers = controllers;
+    if (asyncMongo) {
+      com.mongodb.reactivestreams.client.MongoClient reactiveClient =
+          Server.configureReactiveDatabase(mongoAddr, mongoConfig, mongoMetrics);
+      Runtime.getRuntime().addShutdownHook(new Thread(reactiveClient::close));
+      ReactiveCollections reactiveCollections = new ReactiveCollections(reactiveClient.getDatabase(databaseName));
+      allControllers = Main.withAsyncControllers(controllers, collections, services, reactiveCollections);
+    }
+
+    // Run requests on virtual threads if SERVER_VIRTUAL_THREADS is `true`
+    boolean virtualThreads = Boolean.parseBoolean(Main.getEnvOrDefault("SERVER_VIRTUAL_THREADS", "false"));
 
     // Construct the server
-    Server server = new Server(mongoClient, controllers);
+    Server server = new Server(mongoClient, allControllers, services.routeMetrics(), virtualThreads);
 
     // Start the server
     server.startServer();
+    reportStartup();
+  }
+
+  /**
+   * Log how long the server took to start and how much heap it's using, so
+   * we can tell if a change makes startup slower or bigger.
+   */
+  static void reportStartup() {
+    final long bytesPerMegabyte = 1024 * 1024;
+    Runtime runtime = Runtime.getRuntime();
+    long usedHeap = (runtime.totalMemory() - runtime.freeMemory()) / bytesPerMegabyte;
+    System.out.println("Server started in " + ManagementFactory.getRuntimeMXBean().getUptime() + "ms using "
+        + usedHeap + "MB of heap");
   }
 
   /**
@@ -52,23 +103,47 @@ public class Main {
    * implements the `Controller` interface. You'll add your own controllers
    * in to the array returned by this method as you create them.
    *
-   * @param database The MongoDB database object used by the controllers
+   * @param collections The collections used by the controllers
    *               to access the database.
+   * @param services The caches and metrics shared by the controllers
    * @return An array of implementations of `Controller` for the server.
    */
-  static Controller[] getControllers(MongoDatabase database) {
+  static Controller[] getControllers(CollectionRegistry collections, SharedServices services) {
     Controller[] controllers = new Controller[] {
       // You would add additional controllers here, as you create them,
       // although you need to make sure that each of your new controllers implements
       // the `Controller` interface.
       //
       // You can also remove this UserController once you don't need it.
-      new HostController(database),
-      new TeamController(database),
-      new SubmissionController(database),
-      new StartedHuntController(database),
+      new HostController(collections, services),
+      new TeamController(collections, services),
+      new SubmissionController(collections, services),
+      new StartedHuntController(collections, services),
+      new MetricsController(services),
     };
     return controllers;
   }
 
+  /**
+   * Add the asynchronous controllers, which use the reactive Mongo driver, to
+   * the ones from `getControllers`.
+   *
+   * @param controllers The controllers from `getControllers`
+   * @param collections The collections used by the controllers
+   * @param services The caches and metrics shared by the controllers
+   * @param reactiveCollections The same collections, on the reactive driver
+   * @return All the controllers
+   */
+  static Controller[] withAsyncControllers(Controller[] controllers, CollectionRegistry collections,
+      SharedServices services, ReactiveCollections reactiveCollections) {
+    Controller[] asyncControllers = new Controller[] {
+      new AsyncStartedHuntController(services, reactiveCollections),
+      new AsyncTeamController(services, reactiveCollections),
+      new AsyncSubmissionController(collections, services, reactiveCollections),
+    };
+    Controller[] all = Arrays.copyOf(controllers, controllers.length + asyncControllers.length);
+    System.arraycopy(asyncControllers, 0, all, controllers.length, asyncControllers.length);
+    return all;
+  }
+
 }
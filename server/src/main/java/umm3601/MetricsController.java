@@ -0,0 +1,68 @@
+package umm3601;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+
+/**
+ * Reports how the server's shared machinery is doing, for whoever is
+ * looking after it.
+ */
+public class MetricsController implements Controller {
+
+  private static final String API_SINGLE_FLIGHT = "/api/admin/singleFlight";
+  private static final String API_METRICS = "/api/admin/metrics";
+
+  private final SharedServices services;
+
+  public MetricsController(SharedServices services) {
+    this.services = services;
+  }
+
+  /**
+   * Lists, for each endpoint that shares loads between concurrent requests,
+   * how many requests there have been and how many of them were collapsed
+   * into another request's load.
+   *
+   * @param ctx a Javalin Context object with the HTTP request information.
+   */
+  public void getSingleFlightMetrics(Context ctx) {
+    List<Map<String, Object>> metrics = new ArrayList<>();
+    for (SingleFlight<?> singleFlight : services.singleFlights()) {
+      Map<String, Object> metric = new LinkedHashMap<>();
+      metric.put("name", singleFlight.name());
+      metric.put("requests", singleFlight.requests());
+      metric.put("collapsed", singleFlight.collapsed());
+      metric.put("inFlight", singleFlight.inFlight());
+      metrics.add(metric);
+    }
+
+    ctx.json(metrics);
+    ctx.status(HttpStatus.OK);
+  }
+
+  /**
+   * Reports the latency percentiles, request and error counts and response
+   * sizes of each route, and the same for each kind of Mongo command along
+   * with how the connection pool is doing, in the Prometheus text format so
+   * it can be scraped.
+   *
+   * @param ctx a Javalin Context object with the HTTP request information.
+   */
+  public void getRouteMetrics(Context ctx) {
+    ctx.contentType(PrometheusText.CONTENT_TYPE);
+    ctx.result(services.routeMetrics().prometheus() + services.mongoMetrics().prometheus());
+    ctx.status(HttpStatus.OK);
+  }
+
+  @Override
+  public void addRoutes(Javalin server) {
+    server.get(API_SINGLE_FLIGHT, this::getSingleFlightMetrics);
+    server.get(API_METRICS, this::getRouteMetrics);
+  }
+}
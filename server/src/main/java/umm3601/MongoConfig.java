@@ -0,0 +1,224 @@
+package umm3601;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoCompressor;
+import com.mongodb.ReadConcern;
+import com.mongodb.WriteConcern;
+
+/**
+ * How the Mongo client should size its connection pool, how long it should
+ * wait for things, and what it should ask the server for, read from
+ * environment variables.
+ *
+ * Every setting defaults to what the driver would use anyway, so nothing
+ * changes unless it's set. When lots of teams join a hunt at once, a bigger
+ * pool (`MONGO_POOL_MAX`) and a shorter wait for a connection
+ * (`MONGO_POOL_MAX_WAIT_MS`) keep requests from queueing behind each other
+ * for minutes.
+ *
+ * Times are in milliseconds, and 0 means "no limit" for the idle time and the
+ * socket timeout, as it does for the driver.
+ */
+public final class MongoConfig {
+
+  static final String POOL_MIN = "MONGO_POOL_MIN";
+  static final String POOL_MAX = "MONGO_POOL_MAX";
+  static final String POOL_MAX_CONNECTING = "MONGO_POOL_MAX_CONNECTING";
+  static final String POOL_MAX_WAIT_MS = "MONGO_POOL_MAX_WAIT_MS";
+  static final String POOL_MAX_IDLE_MS = "MONGO_POOL_MAX_IDLE_MS";
+  static final String CONNECT_TIMEOUT_MS = "MONGO_CONNECT_TIMEOUT_MS";
+  static final String SOCKET_TIMEOUT_MS = "MONGO_SOCKET_TIMEOUT_MS";
+  static final String SERVER_SELECTION_TIMEOUT_MS = "MONGO_SERVER_SELECTION_TIMEOUT_MS";
+  // A comma-separated list like `zstd,snappy`, in the order we'd like them
+  static final String COMPRESSORS = "MONGO_COMPRESSORS";
+  static final String READ_CONCERN = "MONGO_READ_CONCERN";
+  // `majority`, a number of servers, or one of the driver's names like `journaled`
+  static final String WRITE_CONCERN = "MONGO_WRITE_CONCERN";
+
+  // The driver's defaults
+  private static final int DEFAULT_POOL_MAX = 100;
+  private static final int DEFAULT_POOL_MAX_CONNECTING = 2;
+  private static final long DEFAULT_POOL_MAX_WAIT_MS = TimeUnit.MINUTES.toMillis(2);
+  private static final long DEFAULT_CONNECT_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(10);
+  private static final long DEFAULT_SERVER_SELECTION_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(30);
+
+  private static final Map<String, ReadConcern> READ_CONCERNS = Map.of(
+      "default", ReadConcern.DEFAULT,
+      "local", ReadConcern.LOCAL,
+      "available", ReadConcern.AVAILABLE,
+      "majority", ReadConcern.MAJORITY,
+      "linearizable", ReadConcern.LINEARIZABLE,
+      "snapshot", ReadConcern.SNAPSHOT);
+
+  // zstd and snappy need their native libraries, which the driver only
+  // loads when it first compresses something
+  private static final Map<String, String> COMPRESSOR_LIBRARIES = Map.of(
+      "zstd", "com.github.luben.zstd.Zstd",
+      "snappy", "org.xerial.snappy.Snappy");
+
+  private final int poolMin;
+  private final int poolMax;
+  private final int poolMaxConnecting;
+  private final long poolMaxWaitMs;
+  private final long poolMaxIdleMs;
+  private final int connectTimeoutMs;
+  private final int socketTimeoutMs;
+  private final long serverSelectionTimeoutMs;
+  private final List<String> compressors;
+  private final String readConcern;
+  private final String writeConcern;
+
+  private MongoConfig(Map<String, String> env) {
+    poolMin = (int) number(env, POOL_MIN, 0, Integer.MAX_VALUE);
+    poolMax = (int) number(env, POOL_MAX, DEFAULT_POOL_MAX, Integer.MAX_VALUE);
+    poolMaxConnecting = (int) number(env, POOL_MAX_CONNECTING, DEFAULT_POOL_MAX_CONNECTING, Integer.MAX_VALUE);
+    poolMaxWaitMs = number(env, POOL_MAX_WAIT_MS, DEFAULT_POOL_MAX_WAIT_MS, Long.MAX_VALUE);
+    poolMaxIdleMs = number(env, POOL_MAX_IDLE_MS, 0, Long.MAX_VALUE);
+    connectTimeoutMs = (int) number(env, CONNECT_TIMEOUT_MS, DEFAULT_CONNECT_TIMEOUT_MS, Integer.MAX_VALUE);
+    socketTimeoutMs = (int) number(env, SOCKET_TIMEOUT_MS, 0, Integer.MAX_VALUE);
+    serverSelectionTimeoutMs = number(env, SERVER_SELECTION_TIMEOUT_MS, DEFAULT_SERVER_SELECTION_TIMEOUT_MS,
+        Long.MAX_VALUE);
+    compressors = compressors(env.getOrDefault(COMPRESSORS, ""));
+    readConcern = env.getOrDefault(READ_CONCERN, "default").trim().toLowerCase(Locale.ROOT);
+    writeConcern = env.getOrDefault(WRITE_CONCERN, "acknowledged").trim().toLowerCase(Locale.ROOT);
+
+    if (poolMax == 0 || poolMin > poolMax) {
+      throw new IllegalArgumentException(POOL_MAX + " must be more than 0 and at least " + POOL_MIN + "; were "
+          + poolMax + " and " + poolMin);
+    }
+    if (poolMaxConnecting == 0) {
+      throw new IllegalArgumentException(POOL_MAX_CONNECTING + " must be more than 0");
+    }
+    if (!READ_CONCERNS.containsKey(readConcern)) {
+      throw new IllegalArgumentException(READ_CONCERN + " must be one of " + READ_CONCERNS.keySet() + "; was "
+          + readConcern);
+    }
+    // Fail now rather than on the first write
+    writeConcern();
+  }
+
+  /**
+   * Reads the settings.
+   *
+   * @param env The environment variables, like `System.getenv()`
+   * @return The settings
+   * @throws IllegalArgumentException if any setting isn't valid
+   */
+  public static MongoConfig fromEnv(Map<String, String> env) {
+    return new MongoConfig(env);
+  }
+
+  /**
+   * Puts these settings into the client's settings.
+   */
+  public void applyTo(MongoClientSettings.Builder builder) {
+    builder
+        .applyToConnectionPoolSettings(pool -> pool
+            .minSize(poolMin)
+            .maxSize(poolMax)
+            .maxConnecting(poolMaxConnecting)
+            .maxWaitTime(poolMaxWaitMs, TimeUnit.MILLISECONDS)
+            .maxConnectionIdleTime(poolMaxIdleMs, TimeUnit.MILLISECONDS))
+        .applyToSocketSettings(socket -> socket
+            .connectTimeout(connectTimeoutMs, TimeUnit.MILLISECONDS)
+            .readTimeout(socketTimeoutMs, TimeUnit.MILLISECONDS))
+        .applyToClusterSettings(cluster -> cluster
+            .serverSelectionTimeout(serverSelectionTimeoutMs, TimeUnit.MILLISECONDS))
+        .compressorList(compressors.stream().map(MongoConfig::compressor).toList())
+        .readConcern(READ_CONCERNS.get(readConcern))
+        .writeConcern(writeConcern());
+  }
+
+  /**
+   * Checks that everything these settings need is there, like the libraries
+   * for the compressors, so a missing one stops the server at startup
+   * instead of breaking the first request.
+   *
+   * @throws IllegalStateException if something is missing
+   */
+  public void check() {
+    for (String compressor : compressors) {
+      String library = COMPRESSOR_LIBRARIES.get(compressor);
+      if (library == null) {
+        continue;
+      }
+      try {
+        Class.forName(library, false, MongoConfig.class.getClassLoader());
+      } catch (ClassNotFoundException e) {
+        throw new IllegalStateException(COMPRESSORS + " has " + compressor + " but " + library
+            + " isn't on the classpath");
+      }
+    }
+  }
+
+  /**
+   * The effective settings, for the startup log.
+   */
+  public String describe() {
+    return "pool " + poolMin + "-" + poolMax + " connections (" + poolMaxConnecting + " connecting at once, "
+        + "waiting up to " + poolMaxWaitMs + "ms, idle up to " + limit(poolMaxIdleMs) + "), "
+        + "connect timeout " + connectTimeoutMs + "ms, socket timeout " + limit(socketTimeoutMs) + ", "
+        + "server selection timeout " + serverSelectionTimeoutMs + "ms, "
+        + "compressors " + (compressors.isEmpty() ? "none" : String.join(",", compressors)) + ", "
+        + "read concern " + readConcern + ", write concern " + writeConcern;
+  }
+
+  private static String limit(long ms) {
+    return ms == 0 ? "no limit" : ms + "ms";
+  }
+
+  private WriteConcern writeConcern() {
+    if (writeConcern.matches("[0-9]+")) {
+      return new WriteConcern(Integer.parseInt(writeConcern));
+    }
+    WriteConcern named = WriteConcern.valueOf(writeConcern);
+    if (named == null) {
+      throw new IllegalArgumentException(WRITE_CONCERN + " must be majority, a number of servers, or a name like "
+          + "acknowledged or journaled; was " + writeConcern);
+    }
+    return named;
+  }
+
+  private static long number(Map<String, String> env, String name, long defaultValue, long max) {
+    String value = env.get(name);
+    if (value == null || value.isBlank()) {
+      return defaultValue;
+    }
+    try {
+      long number = Long.parseLong(value.trim());
+      if (number < 0 || number > max) {
+        throw new NumberFormatException();
+      }
+      return number;
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(name + " must be a whole number from 0 to " + max + "; was " + value);
+    }
+  }
+
+  private static List<String> compressors(String names) {
+    List<String> compressors = new ArrayList<>();
+    for (String name : Arrays.stream(names.split(",")).map(String::trim).filter(name -> !name.isEmpty()).toList()) {
+      String compressor = name.toLowerCase(Locale.ROOT);
+      // Fails on an unknown name
+      compressor(compressor);
+      compressors.add(compressor);
+    }
+    return compressors;
+  }
+
+  private static MongoCompressor compressor(String name) {
+    return switch (name) {
+      case "zstd" -> MongoCompressor.createZstdCompressor();
+      case "snappy" -> MongoCompressor.createSnappyCompressor();
+      case "zlib" -> MongoCompressor.createZlibCompressor();
+      default -> throw new IllegalArgumentException(COMPRESSORS + " can only have zstd, snappy and zlib; had " + name);
+    };
+  }
+}
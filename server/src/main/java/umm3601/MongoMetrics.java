@@ -0,0 +1,213 @@
+package umm3601;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.bson.BsonDocument;
+
+import com.mongodb.connection.ServerId;
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import com.mongodb.event.ConnectionCheckOutFailedEvent;
+import com.mongodb.event.ConnectionCheckOutStartedEvent;
+import com.mongodb.event.ConnectionCheckedInEvent;
+import com.mongodb.event.ConnectionCheckedOutEvent;
+import com.mongodb.event.ConnectionPoolClosedEvent;
+import com.mongodb.event.ConnectionPoolCreatedEvent;
+import com.mongodb.event.ConnectionPoolListener;
+
+/**
+ * Keeps, for each kind of Mongo command and the collection it's on, how long
+ * the commands took, how many failed and how many documents they returned,
+ * and how long requests waited for a connection from the pool and how full
+ * the pool is.
+ *
+ * The driver tells this about every command and connection once it's given
+ * to `Server.configureDatabase`. Next to the HTTP metrics these let us tell
+ * a slow query apart from a slow response: the time a command takes here
+ * doesn't include turning its documents into JSON.
+ */
+public class MongoMetrics implements CommandListener, ConnectionPoolListener {
+
+  // Anything slower than this is counted as this slow (but still shows in the max)
+  private static final long SLOWEST_MICROS = TimeUnit.HOURS.toMicros(1);
+
+  // The collection of commands that aren't on one, like `ping`
+  static final String NO_COLLECTION = "";
+
+  // Sorted, so the output is in the same order every time
+  private final Map<String, Command> commands = new ConcurrentSkipListMap<>();
+  // The collection of each command that's running, by its request ID, since
+  // only the started event has the command itself
+  private final Map<Integer, String> running = new ConcurrentHashMap<>();
+
+  private final LatencyHistogram checkoutWait = new LatencyHistogram(SLOWEST_MICROS);
+  private final LongAdder checkoutFailures = new LongAdder();
+  private final AtomicInteger waiting = new AtomicInteger();
+  private final AtomicInteger inUse = new AtomicInteger();
+  private final Map<ServerId, Integer> maxSizes = new ConcurrentHashMap<>();
+
+  @Override
+  public void commandStarted(CommandStartedEvent event) {
+    running.put(event.getRequestId(), collectionOf(event.getCommandName(), event.getCommand()));
+  }
+
+  @Override
+  public void commandSucceeded(CommandSucceededEvent event) {
+    Command command = command(event.getCommandName(), running.remove(event.getRequestId()));
+    command.latency.record(event.getElapsedTime(TimeUnit.MICROSECONDS));
+    command.documents.add(documentsIn(event.getResponse()));
+  }
+
+  @Override
+  public void commandFailed(CommandFailedEvent event) {
+    Command command = command(event.getCommandName(), running.remove(event.getRequestId()));
+    command.latency.record(event.getElapsedTime(TimeUnit.MICROSECONDS));
+    command.failures.increment();
+  }
+
+  @Override
+  public void connectionPoolCreated(ConnectionPoolCreatedEvent event) {
+    maxSizes.put(event.getServerId(), event.getSettings().getMaxSize());
+  }
+
+  @Override
+  public void connectionPoolClosed(ConnectionPoolClosedEvent event) {
+    maxSizes.remove(event.getServerId());
+  }
+
+  @Override
+  public void connectionCheckOutStarted(ConnectionCheckOutStartedEvent event) {
+    waiting.incrementAndGet();
+  }
+
+  @Override
+  public void connectionCheckedOut(ConnectionCheckedOutEvent event) {
+    waiting.decrementAndGet();
+    inUse.incrementAndGet();
+    checkoutWait.record(event.getElapsedTime(TimeUnit.MICROSECONDS));
+  }
+
+  @Override
+  public void connectionCheckOutFailed(ConnectionCheckOutFailedEvent event) {
+    waiting.decrementAndGet();
+    checkoutFailures.increment();
+    checkoutWait.record(event.getElapsedTime(TimeUnit.MICROSECONDS));
+  }
+
+  @Override
+  public void connectionCheckedIn(ConnectionCheckedInEvent event) {
+    inUse.decrementAndGet();
+  }
+
+  private Command command(String name, String collection) {
+    String on = collection == null ? NO_COLLECTION : collection;
+    return commands.computeIfAbsent(name + " " + on, key -> new Command(name, on));
+  }
+
+  /**
+   * The collection a command is on. Most commands name it as their first
+   * field (`{find: "hunts", ...}`); `getMore` has it in `collection`.
+   */
+  static String collectionOf(String commandName, BsonDocument command) {
+    // The driver leaves out the contents of commands like `saslStart`
+    if (command == null || command.isEmpty()) {
+      return NO_COLLECTION;
+    }
+    if (command.isString("collection")) {
+      return command.getString("collection").getValue();
+    }
+    String first = command.getFirstKey();
+    return first.equals(commandName) && command.isString(first) ? command.getString(first).getValue() : NO_COLLECTION;
+  }
+
+  /**
+   * How many documents came back in a reply's batch of a cursor. Writes
+   * don't return documents.
+   */
+  static int documentsIn(BsonDocument response) {
+    if (response == null || !response.isDocument("cursor")) {
+      return 0;
+    }
+    BsonDocument cursor = response.getDocument("cursor");
+    if (cursor.containsKey("firstBatch")) {
+      return cursor.getArray("firstBatch").size();
+    }
+    if (cursor.containsKey("nextBatch")) {
+      return cursor.getArray("nextBatch").size();
+    }
+    return 0;
+  }
+
+  /**
+   * Writes out everything recorded so far in the Prometheus text format.
+   *
+   * @return The metrics, ready to send with the Prometheus content type
+   */
+  public String prometheus() {
+    StringBuilder out = new StringBuilder();
+    PrometheusText.family(out, "mongo_commands_seconds", "summary",
+        "How long Mongo commands took, by command and collection");
+    for (Command command : commands.values()) {
+      PrometheusText.summary(out, "mongo_commands_seconds", command.labels, command.latency);
+    }
+
+    PrometheusText.family(out, "mongo_commands_seconds_max", "gauge",
+        "The slowest Mongo command, by command and collection");
+    for (Command command : commands.values()) {
+      PrometheusText.sample(out, "mongo_commands_seconds_max", command.labels,
+          PrometheusText.seconds(command.latency.max()));
+    }
+
+    PrometheusText.family(out, "mongo_command_failures_total", "counter",
+        "Mongo commands that failed, by command and collection");
+    for (Command command : commands.values()) {
+      PrometheusText.sample(out, "mongo_command_failures_total", command.labels, command.failures.sum());
+    }
+
+    PrometheusText.family(out, "mongo_documents_returned_total", "counter",
+        "Documents Mongo sent back, by command and collection");
+    for (Command command : commands.values()) {
+      PrometheusText.sample(out, "mongo_documents_returned_total", command.labels, command.documents.sum());
+    }
+
+    PrometheusText.family(out, "mongo_pool_checkout_seconds", "summary",
+        "How long it took to get a connection from the pool");
+    PrometheusText.summary(out, "mongo_pool_checkout_seconds", "", checkoutWait);
+    PrometheusText.family(out, "mongo_pool_checkout_seconds_max", "gauge",
+        "The longest wait for a connection from the pool");
+    PrometheusText.sample(out, "mongo_pool_checkout_seconds_max", "", PrometheusText.seconds(checkoutWait.max()));
+    PrometheusText.family(out, "mongo_pool_checkout_failures_total", "counter",
+        "Times no connection could be had from the pool");
+    PrometheusText.sample(out, "mongo_pool_checkout_failures_total", "", checkoutFailures.sum());
+
+    int maxSize = maxSizes.values().stream().mapToInt(Integer::intValue).sum();
+    PrometheusText.family(out, "mongo_pool_connections_in_use", "gauge", "Connections checked out of the pool");
+    PrometheusText.sample(out, "mongo_pool_connections_in_use", "", inUse.get());
+    PrometheusText.family(out, "mongo_pool_waiting", "gauge", "Requests waiting for a connection");
+    PrometheusText.sample(out, "mongo_pool_waiting", "", waiting.get());
+    PrometheusText.family(out, "mongo_pool_max_size", "gauge", "How many connections the pool can have");
+    PrometheusText.sample(out, "mongo_pool_max_size", "", maxSize);
+    PrometheusText.family(out, "mongo_pool_saturation", "gauge",
+        "The fraction of the pool's connections in use; at 1 requests have to wait");
+    PrometheusText.sample(out, "mongo_pool_saturation", "", maxSize == 0 ? 0.0 : (double) inUse.get() / maxSize);
+    return out.toString();
+  }
+
+  private static final class Command {
+    private final String labels;
+    private final LatencyHistogram latency = new LatencyHistogram(SLOWEST_MICROS);
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder documents = new LongAdder();
+
+    private Command(String name, String collection) {
+      this.labels = PrometheusText.labels("command", name, "collection", collection);
+    }
+  }
+}
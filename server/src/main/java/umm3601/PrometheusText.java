@@ -0,0 +1,89 @@
+package umm3601;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes metrics in the Prometheus text format, for `RouteMetrics` and
+ * `MongoMetrics`.
+ *
+ * Labels are passed already joined (`method="GET",route="/api/hunts"`), as
+ * made by `labels`, so each set of labels is only escaped once however many
+ * samples use it.
+ */
+final class PrometheusText {
+
+  static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  private static final double[] QUANTILES = {0.5, 0.95, 0.99};
+  private static final double PERCENT = 100.0;
+  private static final double MICROS_PER_SECOND = TimeUnit.SECONDS.toMicros(1);
+
+  private PrometheusText() {
+  }
+
+  /**
+   * Starts a metric with its help text and type.
+   */
+  static void family(StringBuilder out, String name, String type, String help) {
+    out.append("# HELP ").append(name).append(' ').append(help).append('\n')
+        .append("# TYPE ").append(name).append(' ').append(type).append('\n');
+  }
+
+  /**
+   * Joins label names and values into `name="value",...`.
+   *
+   * @param namesAndValues Each label's name followed by its value
+   */
+  static String labels(String... namesAndValues) {
+    StringBuilder labels = new StringBuilder();
+    for (int i = 0; i + 1 < namesAndValues.length; i += 2) {
+      if (labels.length() > 0) {
+        labels.append(',');
+      }
+      labels.append(namesAndValues[i]).append("=\"").append(escape(namesAndValues[i + 1])).append('"');
+    }
+    return labels.toString();
+  }
+
+  /**
+   * Writes one sample. Whole numbers are written as they are and fractions
+   * to six places.
+   */
+  static void sample(StringBuilder out, String name, String labels, Number value) {
+    out.append(name);
+    if (!labels.isEmpty()) {
+      out.append('{').append(labels).append('}');
+    }
+    out.append(' ');
+    if (value instanceof Double d) {
+      out.append(String.format(Locale.ROOT, "%.6f", d));
+    } else {
+      out.append(value);
+    }
+    out.append('\n');
+  }
+
+  /**
+   * Writes the p50, p95 and p99 of a histogram of microseconds, and its count
+   * and sum, as the samples of a summary in seconds.
+   */
+  static void summary(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+    String separator = labels.isEmpty() ? "" : ",";
+    for (double quantile : QUANTILES) {
+      sample(out, name, labels + separator + "quantile=\"" + quantile + '"',
+          seconds(histogram.valueAtPercentile(quantile * PERCENT)));
+    }
+    sample(out, name + "_count", labels, histogram.count());
+    sample(out, name + "_sum", labels, seconds(histogram.sum()));
+  }
+
+  static double seconds(long micros) {
+    return micros / MICROS_PER_SECOND;
+  }
+
+  // Label values can't have raw backslashes, quotes or newlines
+  private static String escape(String labelValue) {
+    return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+}
@@ -0,0 +1,90 @@
+package umm3601;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Turns the reactive Mongo driver's `Publisher`s into `CompletableFuture`s,
+ * which is what Javalin's `ctx.future` takes.
+ *
+ * Nothing here waits: the futures are completed on the driver's threads when
+ * its results arrive.
+ */
+public final class Publishers {
+
+  private Publishers() {
+  }
+
+  /**
+   * The first thing a publisher publishes, like `find(...).first()`.
+   *
+   * @return The first thing, or null if there's nothing
+   */
+  public static <T> CompletableFuture<T> first(Publisher<T> publisher) {
+    CompletableFuture<T> first = new CompletableFuture<>();
+    publisher.subscribe(new Subscriber<T>() {
+      private Subscription subscription;
+
+      @Override
+      public void onSubscribe(Subscription s) {
+        subscription = s;
+        s.request(1);
+      }
+
+      @Override
+      public void onNext(T next) {
+        first.complete(next);
+        subscription.cancel();
+      }
+
+      @Override
+      public void onError(Throwable failure) {
+        first.completeExceptionally(failure);
+      }
+
+      @Override
+      public void onComplete() {
+        first.complete(null);
+      }
+    });
+    return first;
+  }
+
+  /**
+   * Everything a publisher publishes, like `find(...).into(new ArrayList<>())`.
+   */
+  public static <T> CompletableFuture<List<T>> toList(Publisher<T> publisher) {
+    CompletableFuture<List<T>> all = new CompletableFuture<>();
+    publisher.subscribe(new Subscriber<T>() {
+      // Only touched by the driver's calls to this subscriber, which the
+      // Reactive Streams rules say happen one at a time
+      private final List<T> items = new ArrayList<>();
+
+      @Override
+      public void onSubscribe(Subscription s) {
+        s.request(Long.MAX_VALUE);
+      }
+
+      @Override
+      public void onNext(T next) {
+        items.add(next);
+      }
+
+      @Override
+      public void onError(Throwable failure) {
+        all.completeExceptionally(failure);
+      }
+
+      @Override
+      public void onComplete() {
+        all.complete(items);
+      }
+    });
+    return all;
+  }
+}
@@ -0,0 +1,63 @@
+package umm3601;
+
+import org.bson.UuidRepresentation;
+import org.mongojack.JacksonCodecRegistry;
+import org.mongojack.ObjectMapperConfigurer;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import com.mongodb.reactivestreams.client.MongoDatabase;
+
+import umm3601.startedHunts.StartedHunt;
+import umm3601.teams.Submission;
+import umm3601.teams.Team;
+
+/**
+ * The collections the asynchronous controllers use, on the reactive Mongo
+ * driver.
+ *
+ * They map documents to the same models, in the same way, as the collections
+ * in `CollectionRegistry`: MongoJack's codecs work with the reactive driver
+ * too, so a StartedHunt read here is the same as one read there.
+ */
+public class ReactiveCollections {
+
+  private final MongoCollection<StartedHunt> startedHunts;
+  private final MongoCollection<Team> teams;
+  private final MongoCollection<Submission> submissions;
+
+  /**
+   * Sets up the collections.
+   *
+   * @param database The MongoDB database the collections are in, from a
+   *                 reactive client
+   */
+  public ReactiveCollections(MongoDatabase database) {
+    ObjectMapper objectMapper = ObjectMapperConfigurer.configureObjectMapper(new ObjectMapper());
+    JacksonCodecRegistry codecs = new JacksonCodecRegistry(objectMapper,
+        MongoClientSettings.getDefaultCodecRegistry(), null, UuidRepresentation.STANDARD);
+
+    startedHunts = build(database, codecs, "startedHunts", StartedHunt.class);
+    teams = build(database, codecs, "teams", Team.class);
+    submissions = build(database, codecs, "submissions", Submission.class);
+  }
+
+  private static <T> MongoCollection<T> build(MongoDatabase database, JacksonCodecRegistry codecs, String name,
+      Class<T> type) {
+    codecs.addCodecForClass(type);
+    return database.getCollection(name, type).withCodecRegistry(codecs);
+  }
+
+  public MongoCollection<StartedHunt> startedHunts() {
+    return startedHunts;
+  }
+
+  public MongoCollection<Team> teams() {
+    return teams;
+  }
+
+  public MongoCollection<Submission> submissions() {
+    return submissions;
+  }
+}
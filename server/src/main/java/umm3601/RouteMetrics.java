@@ -0,0 +1,138 @@
+package umm3601;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.eclipse.jetty.server.Response;
+
+import io.javalin.http.Context;
+
+/**
+ * Keeps, for each route, how long its requests took, how many there were,
+ * how many failed and how big the responses were, and writes it all out in
+ * the Prometheus text format.
+ *
+ * Requests are grouped by their route template (`/api/hunts/{id}`, not
+ * `/api/hunts/65f1...`), so there's one set of numbers per endpoint, however
+ * many hunts there are. `Server` calls `start` before each request and
+ * `record` once its response has been sent.
+ */
+public class RouteMetrics {
+
+  // Anything slower than this is counted as this slow (but still shows in the max)
+  private static final long SLOWEST_MICROS = TimeUnit.HOURS.toMicros(1);
+  private static final double MICROS_PER_MILLI = TimeUnit.MILLISECONDS.toMicros(1);
+  private static final int FIRST_SERVER_ERROR = 500;
+
+  static final String START_KEY = "routeMetrics.start";
+  // Requests that didn't match any endpoint, so a scan of made-up URLs
+  // doesn't make a new route for each one
+  static final String UNMATCHED = "unmatched";
+
+  // Sorted, so the output is in the same order every time
+  private final Map<String, Route> routes = new ConcurrentSkipListMap<>();
+
+  /**
+   * Notes when a request started. Used as a `before` handler.
+   */
+  public static void start(Context ctx) {
+    ctx.attribute(START_KEY, System.nanoTime());
+  }
+
+  /**
+   * Records a request once its response has been sent. Used as the request
+   * logger, which Javalin calls after every request, including ones that
+   * threw.
+   *
+   * @param ctx             The request
+   * @param executionTimeMs How long Javalin says the request took, used if
+   *                        `start` didn't get to run
+   */
+  public void record(Context ctx, Float executionTimeMs) {
+    Long start = ctx.attribute(START_KEY);
+    long micros = start != null
+        ? TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start)
+        : (long) (executionTimeMs * MICROS_PER_MILLI);
+    // Jetty counts what it actually sent, whether it came from `ctx.result`
+    // or was streamed
+    long bytes = ctx.res() instanceof Response response ? response.getHttpChannel().getBytesWritten() : -1;
+    record(String.valueOf(ctx.method()), routeOf(ctx), ctx.statusCode(), micros, bytes);
+  }
+
+  /**
+   * Records one request.
+   *
+   * @param method The HTTP method
+   * @param route  The route template the request matched
+   * @param status The response's status code
+   * @param micros How long the request took, in microseconds
+   * @param bytes  How big the response was, or -1 if we don't know
+   */
+  public void record(String method, String route, int status, long micros, long bytes) {
+    Route stats = routes.computeIfAbsent(method + " " + route, key -> new Route(method, route));
+    stats.latency.record(micros);
+    if (status >= FIRST_SERVER_ERROR) {
+      stats.errors.increment();
+    }
+    if (bytes >= 0) {
+      stats.responses.increment();
+      stats.responseBytes.add(bytes);
+    }
+  }
+
+  private static String routeOf(Context ctx) {
+    String route;
+    try {
+      route = ctx.endpointHandlerPath();
+    } catch (IllegalStateException e) {
+      // Javalin won't say if the request never got past a `before` handler
+      route = null;
+    }
+    return route == null || route.isEmpty() ? UNMATCHED : route;
+  }
+
+  /**
+   * Writes out everything recorded so far in the Prometheus text format.
+   *
+   * @return The metrics, ready to send with the Prometheus content type
+   */
+  public String prometheus() {
+    StringBuilder out = new StringBuilder();
+    PrometheusText.family(out, "http_server_requests_seconds", "summary", "How long requests took, by route");
+    for (Route route : routes.values()) {
+      PrometheusText.summary(out, "http_server_requests_seconds", route.labels, route.latency);
+    }
+
+    PrometheusText.family(out, "http_server_requests_seconds_max", "gauge", "The slowest request, by route");
+    for (Route route : routes.values()) {
+      PrometheusText.sample(out, "http_server_requests_seconds_max", route.labels,
+          PrometheusText.seconds(route.latency.max()));
+    }
+
+    PrometheusText.family(out, "http_server_errors_total", "counter", "Requests that got a 5xx response, by route");
+    for (Route route : routes.values()) {
+      PrometheusText.sample(out, "http_server_errors_total", route.labels, route.errors.sum());
+    }
+
+    PrometheusText.family(out, "http_server_response_size_bytes", "summary", "How big the responses were, by route");
+    for (Route route : routes.values()) {
+      PrometheusText.sample(out, "http_server_response_size_bytes_count", route.labels, route.responses.sum());
+      PrometheusText.sample(out, "http_server_response_size_bytes_sum", route.labels, route.responseBytes.sum());
+    }
+    return out.toString();
+  }
+
+  private static final class Route {
+    private final String labels;
+    private final LatencyHistogram latency = new LatencyHistogram(SLOWEST_MICROS);
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder responses = new LongAdder();
+    private final LongAdder responseBytes = new LongAdder();
+
+    private Route(String method, String route) {
+      this.labels = PrometheusText.labels("method", method, "route", route);
+    }
+  }
+}
@@ -1,6 +1,9 @@
 package umm3601;
 
 import java.util.Arrays;
+import java.util.concurrent.Executors;
+
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
 import com.mongodb.MongoClientSettings;
 import com.mongodb.ServerAddress;
@@ -10,6 +13,7 @@ import com.mongodb.client.MongoClients;
 import org.bson.UuidRepresentation;
 
 import io.javalin.Javalin;
+import io.javalin.config.JavalinConfig;
 import io.javalin.plugin.bundled.RouteOverviewPlugin;
 import io.javalin.http.InternalServerErrorResponse;
 
@@ -24,6 +28,12 @@ public class Server {
   // The `mongoClient` field is used to access the MongoDB
   private final MongoClient mongoClient;
 
+  // Where the timings of every request go
+  private final RouteMetrics routeMetrics;
+
+  // Whether request handlers run on virtual threads instead of Jetty's pool
+  private final boolean virtualThreads;
+
   // The `controllers` field is an array of all the `Controller` implementations
   // for the server. This is used to add routes to the server.
   private Controller[] controllers;
@@ -34,9 +44,14 @@ public class Server {
    *
    * @param mongoClient The MongoDB client object used to access to the database
    * @param controllers The implementations of `Controller` used for this server
+   * @param routeMetrics Where to record how each request went
+   * @param virtualThreads Whether to run each request on its own virtual thread
    */
-  public Server(MongoClient mongoClient, Controller[] controllers) {
+  public Server(MongoClient mongoClient, Controller[] controllers, RouteMetrics routeMetrics,
+      boolean virtualThreads) {
     this.mongoClient = mongoClient;
+    this.routeMetrics = routeMetrics;
+    this.virtualThreads = virtualThreads;
     // This is what is known as a "defensive copy". We make a copy of
     // the array so that if the caller modifies the array after passing
     // it in, we don't have to worry about it. If we didn't do this,
@@ -57,21 +72,50 @@ public class Server {
    * This sets both the `mongoClient` and `database` fields
    * so they can be used when setting up the Javalin server.
    * @param mongoAddr The address of the MongoDB server
+   * @param mongoConfig The pool size, timeouts and so on to use
+   * @param mongoMetrics Where to record how each command and connection went
    *
    * @return The MongoDB client object
    */
-  static MongoClient configureDatabase(String mongoAddr) {
+  static MongoClient configureDatabase(String mongoAddr, MongoConfig mongoConfig, MongoMetrics mongoMetrics) {
     // Setup the MongoDB client object with the information we set earlier
-    MongoClient mongoClient = MongoClients.create(MongoClientSettings
-      .builder()
+    return MongoClients.create(clientSettings(mongoAddr, mongoConfig, mongoMetrics));
+  }
+
+  /**
+   * Setup a connection to the MongoDB database on the reactive driver, for
+   * the asynchronous controllers.
+   *
+   * It has the same settings as the client from `configureDatabase`, but
+   * its own connection pool, so `mongoConfig`'s pool size is per client.
+   *
+   * @param mongoAddr The address of the MongoDB server
+   * @param mongoConfig The pool size, timeouts and so on to use
+   * @param mongoMetrics Where to record how each command and connection went
+   *
+   * @return The reactive MongoDB client object
+   */
+  static com.mongodb.reactivestreams.client.MongoClient configureReactiveDatabase(String mongoAddr,
+      MongoConfig mongoConfig, MongoMetrics mongoMetrics) {
+    return com.mongodb.reactivestreams.client.MongoClients.create(
+        clientSettings(mongoAddr, mongoConfig, mongoMetrics));
+  }
+
+  private static MongoClientSettings clientSettings(String mongoAddr, MongoConfig mongoConfig,
+      MongoMetrics mongoMetrics) {
+    MongoClientSettings.Builder settings = MongoClientSettings.builder();
+    mongoConfig.applyTo(settings);
+
+    return settings
       .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
       // Old versions of the mongodb-driver-sync package encoded UUID values (universally unique identifiers) in
       // a non-standard way. This option says to use the standard encoding.
       // See: https://studio3t.com/knowledge-base/articles/mongodb-best-practices-uuid-data/
       .uuidRepresentation(UuidRepresentation.STANDARD)
-      .build());
-
-    return mongoClient;
+      // Time every command and connection checkout, for the metrics
+      .addCommandListener(mongoMetrics)
+      .applyToConnectionPoolSettings(builder -> builder.addConnectionPoolListener(mongoMetrics))
+      .build();
   }
 
   /**
@@ -96,6 +140,8 @@ public class Server {
    *   JVM is shut down.
    * - Setting up a handler for uncaught exceptions to return an HTTP 500
    *   error.
+   * - Timing every request, for the metrics.
+   * - Running requests on virtual threads, if that's turned on.
    *
    * @return The Javalin server instance
    */
@@ -113,10 +159,16 @@ public class Server {
      * `http://localhost:4567/api` shows all of the available endpoints and
      * what HTTP methods they use. (Replace `localhost` and `4567` with whatever server
      * and  port you're actually using, if they are different.)
+     *
+     * The request logger runs after each response has been sent, even if the
+     * request threw, so that's where `routeMetrics` records how long it took.
      */
-    Javalin server = Javalin.create(config ->
-      config.plugins.register(new RouteOverviewPlugin("/api"))
-    );
+    Javalin server = Javalin.create(config -> {
+      config.plugins.register(new RouteOverviewPlugin("/api"));
+      config.requestLogger.http(routeMetrics::record);
+      configureThreads(config, virtualThreads);
+    });
+    server.before(RouteMetrics::start);
 
     // Configure the MongoDB client and the Javalin server to shut down gracefully.
     configureShutdowns(server);
@@ -137,6 +189,35 @@ public class Server {
     return server;
   }
 
+  /**
+   * Choose the threads that run request handlers.
+   *
+   * By default that's Jetty's pool of (at most 250) platform threads. Every
+   * handler blocks on Mongo or on the disk, so during a burst of joins or
+   * uploads the requests past the 250th wait for a thread even though the
+   * threads are all just waiting too.
+   *
+   * With virtual threads, Jetty still accepts connections and reads requests
+   * on its pool, but hands each request to a new virtual thread, which gives
+   * up its carrier thread while it blocks. Then the limit on concurrent
+   * requests is the Mongo connection pool (see `MongoConfig`).
+   *
+   * @param config The Javalin configuration
+   * @param virtualThreads Whether to run requests on virtual threads
+   */
+  static void configureThreads(JavalinConfig config, boolean virtualThreads) {
+    if (!virtualThreads) {
+      return;
+    }
+    config.jetty.server(() -> {
+      QueuedThreadPool threadPool = new QueuedThreadPool();
+      threadPool.setName("jetty");
+      threadPool.setVirtualThreadsExecutor(
+          Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("request-", 0).factory()));
+      return new org.eclipse.jetty.server.Server(threadPool);
+    });
+  }
+
   /**
    * Configure the server and the MongoDB client to shut down gracefully.
    *
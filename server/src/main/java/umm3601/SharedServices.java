@@ -0,0 +1,119 @@
+package umm3601;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.mongojack.JacksonMongoCollection;
+
+import umm3601.photos.PhotoStore;
+import umm3601.startedHunts.AccessCodeAllocator;
+import umm3601.startedHunts.JoinCache;
+import umm3601.startedHunts.StartedHunt;
+
+/**
+ * The in-memory state the controllers have to share: the access codes in
+ * use, the cache of joinable hunts, the photo store, the loads shared
+ * between concurrent requests, and the metrics.
+ *
+ * `Main` makes one of these, next to the `CollectionRegistry`, and hands it
+ * to every controller. Each controller having its own would mean, say, one
+ * controller could hand out an access code another one already had, or a
+ * change made through one controller wouldn't clear another's cached hunt.
+ */
+public class SharedServices {
+
+  private final JacksonMongoCollection<StartedHunt> startedHunts;
+
+  private AccessCodeAllocator accessCodes;
+  private final JoinCache joinCache = new JoinCache();
+  private final PhotoStore photoStore;
+  // Sorted by name
+  private final Map<String, SingleFlight<byte[]>> singleFlights = new ConcurrentSkipListMap<>();
+  private final RouteMetrics routeMetrics = new RouteMetrics();
+  private final MongoMetrics mongoMetrics;
+
+  /**
+   * Sets up the services, with metrics for a database client that doesn't
+   * report to them (as in the tests).
+   *
+   * @param collections The collections the services use
+   */
+  public SharedServices(CollectionRegistry collections) {
+    this(collections, new MongoMetrics());
+  }
+
+  /**
+   * Sets up the services.
+   *
+   * @param collections  The collections the services use
+   * @param mongoMetrics What the database's client reports its commands to
+   */
+  public SharedServices(CollectionRegistry collections, MongoMetrics mongoMetrics) {
+    this.startedHunts = collections.startedHunts();
+    this.photoStore = new PhotoStore(collections);
+    this.mongoMetrics = mongoMetrics;
+  }
+
+  /**
+   * The access codes of the active StartedHunts. Every controller that starts
+   * or ends a hunt has to see the same codes. It's loaded the first time it's
+   * asked for.
+   */
+  public synchronized AccessCodeAllocator accessCodes() {
+    if (accessCodes == null) {
+      accessCodes = new AccessCodeAllocator(startedHunts);
+    }
+    return accessCodes;
+  }
+
+  /**
+   * The JSON of recently joined StartedHunts. Every controller that changes a
+   * StartedHunt has to invalidate it here.
+   */
+  public JoinCache joinCache() {
+    return joinCache;
+  }
+
+  /**
+   * Where uploaded photos are kept. Every controller that stores or releases
+   * a photo has to use this one, since its locks are what keep an upload of
+   * a photo from racing a release of the same photo.
+   */
+  public PhotoStore photoStore() {
+    return photoStore;
+  }
+
+  /**
+   * The SingleFlight for an endpoint whose responses are JSON, so that
+   * concurrent requests to it share their loads even if they're handled by
+   * different controllers.
+   *
+   * @param name The name of the endpoint
+   */
+  public SingleFlight<byte[]> singleFlight(String name) {
+    return singleFlights.computeIfAbsent(name, SingleFlight::new);
+  }
+
+  /**
+   * All the SingleFlights asked for so far, by name.
+   */
+  public Collection<SingleFlight<byte[]>> singleFlights() {
+    return singleFlights.values();
+  }
+
+  /**
+   * How each route's requests have gone. `Server` records into it and
+   * `MetricsController` reports it.
+   */
+  public RouteMetrics routeMetrics() {
+    return routeMetrics;
+  }
+
+  /**
+   * How the database's commands and connections have gone.
+   */
+  public MongoMetrics mongoMetrics() {
+    return mongoMetrics;
+  }
+}
@@ -0,0 +1,143 @@
+package umm3601;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Makes concurrent requests for the same thing share one load.
+ *
+ * When a whole class joins a hunt at once, lots of identical requests arrive
+ * together. The first request for a key does the work (querying Mongo and
+ * serializing the result); any request for the same key that arrives while
+ * that's happening waits for it and gets the same result, or the same
+ * exception. Nothing is kept once the load is done; this isn't a cache.
+ *
+ * @param <V> The type of the results
+ */
+public class SingleFlight<V> {
+
+  private final String name;
+  private final ConcurrentHashMap<String, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+  private final LongAdder requests = new LongAdder();
+  private final LongAdder collapsed = new LongAdder();
+
+  /**
+   * @param name What this is for, like the name of the endpoint, for the
+   *             metrics
+   */
+  public SingleFlight(String name) {
+    this.name = name;
+  }
+
+  /**
+   * Gets the result for a key, either by loading it or by waiting for a load
+   * of the same key that's already running.
+   *
+   * @param key  What's being loaded; requests with equal keys share a load
+   * @param load Loads the result if nothing is loading it already
+   * @return The result of the load
+   */
+  public V run(String key, Supplier<V> load) {
+    requests.increment();
+    CompletableFuture<V> mine = new CompletableFuture<>();
+    CompletableFuture<V> running = inFlight.putIfAbsent(key, mine);
+    if (running != null) {
+      collapsed.increment();
+      return await(running);
+    }
+
+    try {
+      V result = load.get();
+      mine.complete(result);
+      return result;
+    } catch (RuntimeException | Error e) {
+      mine.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, mine);
+    }
+  }
+
+  /**
+   * Like `run`, for loads that don't block: gets the result for a key, either
+   * by starting a load or by sharing a load of the same key that's already
+   * running, without waiting for either.
+   *
+   * Loads started by `run` and by this share the same keys, so a blocking
+   * request and an asynchronous one for the same thing share one load.
+   *
+   * @param key  What's being loaded; requests with equal keys share a load
+   * @param load Starts the load if nothing is loading it already
+   * @return The result of the load, when it's done
+   */
+  public CompletableFuture<V> runAsync(String key, Supplier<CompletableFuture<V>> load) {
+    requests.increment();
+    CompletableFuture<V> mine = new CompletableFuture<>();
+    CompletableFuture<V> running = inFlight.putIfAbsent(key, mine);
+    if (running != null) {
+      collapsed.increment();
+      return running;
+    }
+
+    CompletableFuture<V> loading;
+    try {
+      loading = load.get();
+    } catch (RuntimeException | Error e) {
+      loading = CompletableFuture.failedFuture(e);
+    }
+    loading.whenComplete((result, failure) -> {
+      inFlight.remove(key, mine);
+      if (failure != null) {
+        mine.completeExceptionally(failure instanceof CompletionException ? failure.getCause() : failure);
+      } else {
+        mine.complete(result);
+      }
+    });
+    return mine;
+  }
+
+  private static <V> V await(CompletableFuture<V> running) {
+    try {
+      return running.join();
+    } catch (CompletionException e) {
+      // Give the waiters the same exception (e.g., a NotFoundResponse) as the
+      // request that did the load
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      if (e.getCause() instanceof Error cause) {
+        throw cause;
+      }
+      throw e;
+    }
+  }
+
+  public String name() {
+    return name;
+  }
+
+  /**
+   * The number of requests so far.
+   */
+  public long requests() {
+    return requests.sum();
+  }
+
+  /**
+   * The number of requests so far that waited for another request's load
+   * instead of doing their own.
+   */
+  public long collapsed() {
+    return collapsed.sum();
+  }
+
+  /**
+   * The number of loads running right now.
+   */
+  public int inFlight() {
+    return inFlight.size();
+  }
+}
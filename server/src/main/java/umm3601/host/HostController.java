@@ -2,40 +2,55 @@ package umm3601.host;
 
 import io.javalin.Javalin;
 import io.javalin.http.BadRequestResponse;
+import io.javalin.http.ConflictResponse;
 import io.javalin.http.Context;
 import io.javalin.http.HttpStatus;
 import io.javalin.http.NotFoundResponse;
+import umm3601.CollectionRegistry;
 import umm3601.Controller;
+import umm3601.JsonBytes;
+import umm3601.KeysetPagination;
+import umm3601.SharedServices;
+import umm3601.SingleFlight;
+import umm3601.photos.PhotoSender;
+import umm3601.photos.PhotoStore;
+import umm3601.photos.Rendition;
+import umm3601.startedHunts.AccessCodeAllocator;
+import umm3601.startedHunts.JoinCache;
 import umm3601.startedHunts.StartedHunt;
 
 import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.elemMatch;
 import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.in;
 
-import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.FileInputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.util.Date;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Random;
-import java.util.UUID;
+import java.util.Set;
 
 import org.bson.Document;
-import org.bson.UuidRepresentation;
 import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
 import org.mongojack.JacksonMongoCollection;
 
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Field;
+import com.mongodb.client.model.Projections;
 import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
 import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
 
 public class HostController implements Controller {
 
@@ -44,14 +59,32 @@ public class HostController implements Controller {
   private static final String API_HUNTS = "/api/hunts";
   private static final String API_TASK = "/api/tasks/{id}";
   private static final String API_TASKS = "/api/tasks";
+  private static final String API_HUNT_TASKS = "/api/hunts/{id}/tasks";
   private static final String API_ENDED_HUNT = "/api/endedHunts/{id}";
   private static final String API_DELETE_HUNT = "/api/endedHunts/{id}";
   private static final String API_PHOTO_UPLOAD = "/api/startedHunt/{startedHuntId}/tasks/{taskId}/photo";
   private static final String API_PHOTO_REPLACE = "/api/startedHunt/{startedHuntId}/tasks/{taskId}/photo/{photoId}";
+  private static final String API_PHOTO = "/photos/{photoPath}";
+  // The photos of the task picked out by the `task` array filter
+  private static final String TASK_PHOTOS = "completeHunt.tasks.$[task].photos";
+  // How many times to re-read a task whose photos changed while we were
+  // taking one off, before telling the client to try again
+  private static final int MAX_PHOTO_REMOVAL_ATTEMPTS = 5;
+  // What a database too old for `completeHuntPipeline` answers with: a
+  // $lookup with both localField and a pipeline (before 5.0) fails to parse,
+  // and $toString (before 4.0) and $unset (before 4.2) aren't recognized
+  private static final int FAILED_TO_PARSE = 9;
+  private static final int INVALID_PIPELINE_OPERATOR = 168;
+  private static final int UNRECOGNIZED_PIPELINE_STAGE = 40324;
+  private static final Set<Integer> UNSUPPORTED_PIPELINE_CODES =
+      Set.of(FAILED_TO_PARSE, INVALID_PIPELINE_OPERATOR, UNRECOGNIZED_PIPELINE_STAGE);
   private static final String SERVER_PHOTOS = "http://localhost:4567/photos/";
 
   public static final String HOST_KEY = "hostId";
   static final String HUNT_KEY = "huntId";
+  static final String SIZE_KEY = "size";
+  // The hunt's ID as a string, which only exists inside `completeHuntPipeline`
+  private static final String HUNT_ID_STRING = "huntIdString";
 
   static final int REASONABLE_NAME_LENGTH_HUNT = 50;
   public static final int REASONABLE_DESCRIPTION_LENGTH_HUNT = 200;
@@ -59,48 +92,32 @@ public class HostController implements Controller {
 
   public static final int REASONABLE_NAME_LENGTH_TASK = 150;
 
-  private static final int ACCESS_CODE_MIN = 100000;
-  private static final int ACCESS_CODE_RANGE = 900000;
-  private static final int ACCESS_CODE_LENGTH = 6;
+  private static final int ACCESS_CODE_LENGTH = AccessCodeAllocator.CODE_LENGTH;
 
+  private final MongoDatabase database;
   private final JacksonMongoCollection<Host> hostCollection;
   private final JacksonMongoCollection<Hunt> huntCollection;
   private final JacksonMongoCollection<Task> taskCollection;
   private final JacksonMongoCollection<StartedHunt> startedHuntCollection;
-
-  public HostController(MongoDatabase database) {
-    hostCollection = JacksonMongoCollection.builder().build(
-        database,
-        "hosts",
-        Host.class,
-        UuidRepresentation.STANDARD);
-
-    huntCollection = JacksonMongoCollection.builder().build(
-        database,
-        "hunts",
-        Hunt.class,
-        UuidRepresentation.STANDARD);
-
-    taskCollection = JacksonMongoCollection.builder().build(
-        database,
-        "tasks",
-        Task.class,
-        UuidRepresentation.STANDARD);
-
-    startedHuntCollection = JacksonMongoCollection.builder().build(
-        database,
-        "startedHunts",
-        StartedHunt.class,
-        UuidRepresentation.STANDARD);
-
-    File directory = new File("photos");
-    if (!directory.exists()) {
-      boolean dirCreated = directory.mkdir();
-      if (!dirCreated) {
-        System.out.println("Did not create photos directory because one already exists");
-      }
-    }
-
+  private final AccessCodeAllocator accessCodes;
+  private final JoinCache joinCache;
+  private final SingleFlight<byte[]> completeHuntFlight;
+
+  private final PhotoSender photoSender = new PhotoSender();
+  // Whether the database can load a hunt and its tasks in one aggregation
+  private volatile boolean completeHuntAggregationWorks = true;
+  private final PhotoStore photoStore;
+
+  public HostController(CollectionRegistry collections, SharedServices services) {
+    database = collections.database();
+    hostCollection = collections.hosts();
+    huntCollection = collections.hunts();
+    taskCollection = collections.tasks();
+    startedHuntCollection = collections.startedHunts();
+    accessCodes = services.accessCodes();
+    joinCache = services.joinCache();
+    completeHuntFlight = services.singleFlight("getCompleteHunt");
+    photoStore = services.photoStore();
   }
 
   public void getHost(Context ctx) {
@@ -138,16 +155,10 @@ public class HostController implements Controller {
 
   public void getHunts(Context ctx) {
     Bson combinedFilter = constructFilterHunts(ctx);
-    Bson sortingOrder = constructSortingOrderHunts(ctx);
-
-    ArrayList<Hunt> matchingHunts = huntCollection
-        .find(combinedFilter)
-        .sort(sortingOrder)
-        .into(new ArrayList<>());
-
-    ctx.json(matchingHunts);
+    String sortBy = Objects.requireNonNullElse(ctx.queryParam("sortby"), "name");
 
     ctx.status(HttpStatus.OK);
+    KeysetPagination.send(ctx, huntCollection, database, combinedFilter, sortBy);
   }
 
   private Bson constructFilterHunts(Context ctx) {
@@ -163,12 +174,6 @@ public class HostController implements Controller {
     return combinedFilter;
   }
 
-  private Bson constructSortingOrderHunts(Context ctx) {
-    String sortBy = Objects.requireNonNullElse(ctx.queryParam("sortby"), "name");
-    Bson sortingOrder = Sorts.ascending(sortBy);
-    return sortingOrder;
-  }
-
   public ArrayList<Task> getTasks(Context ctx) {
     Bson sortingOrder = constructSortingOrderTasks(ctx);
 
@@ -218,6 +223,35 @@ public class HostController implements Controller {
     ctx.status(HttpStatus.CREATED);
   }
 
+  /**
+   * Adds many tasks to a hunt at once, from a JSON array, JSON lines or CSV
+   * (see `TaskImport`). The tasks are checked like `addNewTask` checks one,
+   * then inserted with one `insertMany`, and the hunt's task count goes up
+   * by the number added in one update.
+   *
+   * @param ctx a Javalin Context object with the hunt's ID as the `id` path
+   *            parameter and the tasks as the body
+   */
+  public void importTasks(Context ctx) {
+    String huntId = ctx.pathParam("id");
+    ObjectId huntObjectId;
+    try {
+      huntObjectId = new ObjectId(huntId);
+    } catch (IllegalArgumentException e) {
+      throw new BadRequestResponse("The requested hunt id wasn't a legal Mongo Object ID.");
+    }
+    if (huntCollection.countDocuments(eq("_id", huntObjectId)) == 0) {
+      throw new NotFoundResponse("The requested hunt was not found");
+    }
+
+    List<Task> newTasks = TaskImport.read(ctx.contentType(), ctx.bodyInputStream(), huntId);
+    taskCollection.insertMany(newTasks);
+    huntCollection.updateOne(eq("_id", huntObjectId), Updates.inc("numberOfTasks", newTasks.size()));
+
+    ctx.json(Map.of("count", newTasks.size(), "ids", newTasks.stream().map(task -> task._id).toList()));
+    ctx.status(HttpStatus.CREATED);
+  }
+
   public void increaseTaskCount(String huntId) {
     try {
       huntCollection.findOneAndUpdate(eq("_id", new ObjectId(huntId)),
@@ -271,29 +305,113 @@ public class HostController implements Controller {
     taskCollection.deleteMany(eq("huntId", huntId));
   }
 
-  public void getCompleteHunt(Context ctx) {
+  /**
+   * Loads the hunt with the ID in the context along with its tasks, sorted
+   * like `getTasks` sorts them.
+   *
+   * This takes one trip to the database: the hunt is matched and its tasks
+   * are looked up (using the `huntId` index on tasks) in a single aggregation.
+   * If the database is too old to run that aggregation we go back to loading
+   * the hunt and its tasks separately, and keep doing that from then on.
+   *
+   * @param ctx a Javalin Context with the hunt's ID as the `id` path parameter
+   * @return the hunt and its tasks
+   * @throws BadRequestResponse if the ID isn't a legal Mongo Object ID
+   * @throws NotFoundResponse   if there is no hunt with that ID
+   */
+  public CompleteHunt loadCompleteHunt(Context ctx) {
+    if (!completeHuntAggregationWorks) {
+      return loadCompleteHuntSeparately(ctx);
+    }
+
+    String id = ctx.pathParam("id");
+    ObjectId huntId;
+    try {
+      huntId = new ObjectId(id);
+    } catch (IllegalArgumentException e) {
+      throw new BadRequestResponse("The requested hunt id wasn't a legal Mongo Object ID.");
+    }
+    String sortBy = Objects.requireNonNullElse(ctx.queryParam("sortby"), "name");
+
+    CompleteHunt completeHunt;
+    try {
+      completeHunt = huntCollection.aggregate(completeHuntPipeline(huntId, sortBy), CompleteHunt.class).first();
+    } catch (MongoCommandException e) {
+      if (!isUnsupportedPipeline(e)) {
+        throw e;
+      }
+      System.err.println("Could not load hunt " + id + " in one aggregation, so loading it in two queries: " + e);
+      completeHuntAggregationWorks = false;
+      return loadCompleteHuntSeparately(ctx);
+    }
+
+    if (completeHunt == null) {
+      throw new NotFoundResponse("The requested hunt was not found");
+    }
+    return completeHunt;
+  }
+
+  /**
+   * The aggregation behind `loadCompleteHunt`. Tasks keep their hunt's ID as a
+   * string, so the hunt's ID is turned into a string to look them up by. The
+   * result is shaped like a `CompleteHunt`.
+   */
+  static List<Bson> completeHuntPipeline(ObjectId huntId, String sortBy) {
+    return List.of(
+        Aggregates.match(eq("_id", huntId)),
+        Aggregates.addFields(new Field<>(HUNT_ID_STRING, new Document("$toString", "$_id"))),
+        new Document("$lookup", new Document("from", "tasks")
+            .append("localField", HUNT_ID_STRING)
+            .append("foreignField", HUNT_KEY)
+            .append("pipeline", List.of(new Document("$sort", new Document(sortBy, 1))))
+            .append("as", "tasks")),
+        Aggregates.project(new Document("_id", 0).append("tasks", 1).append("hunt", "$$ROOT")),
+        new Document("$unset", List.of("hunt.tasks", "hunt." + HUNT_ID_STRING)));
+  }
+
+  /**
+   * Whether an error from the `completeHuntPipeline` aggregation means the
+   * database can't run it at all, so it's no use trying again. Anything else,
+   * like a timeout or a primary stepping down, could be gone by the next
+   * request.
+   */
+  public static boolean isUnsupportedPipeline(MongoException e) {
+    return e instanceof MongoCommandException command
+        && UNSUPPORTED_PIPELINE_CODES.contains(command.getErrorCode());
+  }
+
+  /**
+   * Loads a hunt and its tasks with a query for each.
+   */
+  private CompleteHunt loadCompleteHuntSeparately(Context ctx) {
     CompleteHunt completeHunt = new CompleteHunt();
     completeHunt.hunt = getHunt(ctx);
     completeHunt.tasks = getTasks(ctx);
+    return completeHunt;
+  }
 
-    ctx.json(completeHunt);
+  /**
+   * Sends the hunt with the ID in the context along with its tasks.
+   * Concurrent requests for the same hunt (sorted the same way) share one
+   * load and serialization.
+   */
+  public void getCompleteHunt(Context ctx) {
+    String key = ctx.pathParam("id") + "?sortby=" + ctx.queryParam("sortby");
+    byte[] json = completeHuntFlight.run(key, () -> JsonBytes.of(loadCompleteHunt(ctx), CompleteHunt.class));
+
+    JsonBytes.send(ctx, json);
     ctx.status(HttpStatus.OK);
   }
 
   public void startHunt(Context ctx) {
-    CompleteHunt completeHunt = new CompleteHunt();
-    completeHunt.hunt = getHunt(ctx);
-    completeHunt.tasks = getTasks(ctx);
+    CompleteHunt completeHunt = loadCompleteHunt(ctx);
 
     StartedHunt startedHunt = new StartedHunt();
-    Random random = new Random();
-    int accessCode = ACCESS_CODE_MIN + random.nextInt(ACCESS_CODE_RANGE); // Generate a random 6-digit number
-    startedHunt.accessCode = String.format("%06d", accessCode); // Convert the number to a string
     startedHunt.completeHunt = completeHunt; // Assign the completeHunt to the startedHunt
     startedHunt.status = true; // true means the hunt is active
     startedHunt.endDate = null; // null endDate until the hunt is ended
-    // Insert the StartedHunt into the startedHunt collection
-    startedHuntCollection.insertOne(startedHunt);
+    // Insert the StartedHunt with an access code no other active hunt has
+    accessCodes.insertWithNewCode(startedHunt);
 
     ctx.json(startedHunt.accessCode);
     ctx.status(HttpStatus.CREATED);
@@ -322,9 +440,8 @@ public class HostController implements Controller {
   }
 
   public void getEndedHunts(Context ctx) {
-    List<StartedHunt> endedHunts = startedHuntCollection.find(eq("status", false)).into(new ArrayList<>());
-    ctx.json(endedHunts);
     ctx.status(HttpStatus.OK);
+    KeysetPagination.send(ctx, startedHuntCollection, database, eq("status", false), null);
   }
 
   public void endStartedHunt(Context ctx) {
@@ -334,10 +451,13 @@ public class HostController implements Controller {
     if (startedHunt == null) {
       throw new NotFoundResponse("The requested started hunt was not found.");
     } else {
+      String accessCode = startedHunt.accessCode;
       startedHunt.status = false;
       startedHunt.accessCode = "1";
       startedHunt.endDate = new Date();
       startedHuntCollection.save(startedHunt);
+      joinCache.invalidate(id);
+      accessCodes.release(accessCode);
       ctx.status(HttpStatus.OK);
     }
   }
@@ -354,6 +474,10 @@ public class HostController implements Controller {
               + "; perhaps illegal ID or an ID for an item not in the system?");
     }
     ctx.status(HttpStatus.OK);
+    joinCache.invalidate(id);
+    if (Boolean.TRUE.equals(startedHunt.status)) {
+      accessCodes.release(startedHunt.accessCode);
+    }
 
     for (Task task : startedHunt.completeHunt.tasks) {
       for (String photo : task.photos) {
@@ -384,15 +508,12 @@ public class HostController implements Controller {
       if (uploadedFile != null) {
         try (InputStream in = uploadedFile.content()) {
 
-          String id = UUID.randomUUID().toString();
-
           String extension = getFileExtension(uploadedFile.filename());
-          File file = Path.of("photos", id + "." + extension).toFile();
-          System.err.println("The path was " + file.toPath());
+          String id = photoStore.store(in, extension);
+          System.err.println("The path was " + photoStore.resolve(id));
 
-          Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
           ctx.status(HttpStatus.OK);
-          return id + "." + extension;
+          return id;
         } catch (IOException e) {
           System.err.println("Error copying the uploaded file: " + e);
           throw new BadRequestResponse("Error handling the uploaded file: " + e.getMessage());
@@ -405,25 +526,17 @@ public class HostController implements Controller {
     }
   }
 
+  /**
+   * Adds a photo to a task in a StartedHunt.
+   *
+   * The photo is pushed onto the task's list by the database, so only that
+   * list is written and two teams uploading at once can't overwrite each
+   * other's photos.
+   */
   public void addPhotoPathToTask(Context ctx, String photoPath) {
     String taskId = ctx.pathParam("taskId");
     String startedHuntId = ctx.pathParam("startedHuntId");
-    StartedHunt startedHunt = startedHuntCollection.find(eq("_id", new ObjectId(startedHuntId))).first();
-    if (startedHunt == null) {
-      ctx.status(HttpStatus.NOT_FOUND);
-      throw new BadRequestResponse("StartedHunt with ID " + startedHuntId + " does not exist");
-    }
-
-    Task task = startedHunt.completeHunt.tasks.stream().filter(t -> t._id.equals(taskId)).findFirst().orElse(null);
-
-    if (task == null) {
-      ctx.status(HttpStatus.NOT_FOUND);
-      throw new BadRequestResponse("Task with ID " + taskId + " does not exist");
-    }
-
-    task.photos.add(photoPath);
-    startedHunt.completeHunt.tasks.set(startedHunt.completeHunt.tasks.indexOf(task), task);
-    startedHuntCollection.save(startedHunt);
+    updateTaskPhotos(ctx, startedHuntId, taskId, Updates.push(TASK_PHOTOS, photoPath));
   }
 
   public void replacePhoto(Context ctx) {
@@ -431,21 +544,20 @@ public class HostController implements Controller {
     String taskId = ctx.pathParam("taskId");
     String photoId = ctx.pathParam("photoId");
     if (photoId != null) {
-      deletePhoto(photoId, ctx);
-      removePhotoPathFromTask(ctx, taskId, startedHuntId, photoId);
+      removeOnePhotoFromTask(ctx, taskId, startedHuntId, photoId);
     }
     addPhoto(ctx);
   }
 
   public void deletePhoto(String id, Context ctx) {
-    Path filePath = Path.of("photos/" + id);
+    Path filePath = photoStore.resolve(id);
     if (!Files.exists(filePath)) {
       ctx.status(HttpStatus.NOT_FOUND);
       throw new BadRequestResponse("Photo with ID " + id + " does not exist");
     }
 
     try {
-      Files.delete(filePath);
+      photoStore.release(id);
 
       ctx.status(HttpStatus.OK);
     } catch (IOException e) {
@@ -455,45 +567,126 @@ public class HostController implements Controller {
   }
 
   public void deletePhoto(Context ctx) {
+    String startedHuntId = ctx.pathParam("startedHuntId");
+    String taskId = ctx.pathParam("taskId");
     String id = ctx.pathParam("photoId");
-    Path filePath = Path.of("photos/" + id);
-    if (!Files.exists(filePath)) {
+    removeOnePhotoFromTask(ctx, taskId, startedHuntId, id);
+  }
+
+  /**
+   * Takes one copy of a photo off a task and gives up the reference that copy
+   * held in the photo store.
+   *
+   * @throws BadRequestResponse (with status NOT_FOUND) if the task doesn't
+   *                            have the photo
+   */
+  private void removeOnePhotoFromTask(Context ctx, String taskId, String startedHuntId, String photoId) {
+    if (!removePhotoPathFromTask(ctx, taskId, startedHuntId, photoId)) {
       ctx.status(HttpStatus.NOT_FOUND);
-      throw new BadRequestResponse("Photo with ID " + id + " does not exist");
-  }
-
-    try {
-      Files.delete(filePath);
-
-      ctx.status(HttpStatus.OK);
-    } catch (IOException e) {
-      ctx.status(HttpStatus.INTERNAL_SERVER_ERROR);
-      throw new BadRequestResponse("Error deleting the photo: " + e.getMessage());
+      throw new BadRequestResponse("Photo with ID " + photoId + " does not exist");
+    }
+    deletePhoto(photoId, ctx);
+  }
+
+  /**
+   * Removes one copy of a photo from a task in a StartedHunt.
+   *
+   * Photos are named after their contents, so a task can list the same photo
+   * more than once, and each copy holds its own reference in the photo store.
+   * The task's new list is only written if nobody has changed it since it was
+   * read, so a photo added at the same time isn't lost; if someone has, it's
+   * read again, a few times at most.
+   *
+   * @return whether a copy of the photo was removed
+   * @throws BadRequestResponse (with status NOT_FOUND) if there is no such
+   *                            StartedHunt, or it doesn't have the task
+   * @throws ConflictResponse if the task kept changing under us
+   */
+  public boolean removePhotoPathFromTask(Context ctx, String taskId, String startedHuntId, String photoId) {
+    ObjectId huntObjectId = new ObjectId(startedHuntId);
+    for (int attempt = 0; attempt < MAX_PHOTO_REMOVAL_ATTEMPTS; attempt++) {
+      List<String> photos = getTaskPhotos(ctx, huntObjectId, taskId);
+      int index = photos.indexOf(photoId);
+      if (index < 0) {
+        return false;
+      }
+      List<String> remaining = new ArrayList<>(photos);
+      remaining.remove(index);
+
+      UpdateResult result = startedHuntCollection.updateOne(
+          and(eq("_id", huntObjectId),
+              elemMatch("completeHunt.tasks", and(taskIdFilter("_id", taskId), eq("photos", photos)))),
+          Updates.set(TASK_PHOTOS, remaining),
+          new UpdateOptions().arrayFilters(List.of(taskIdFilter("task._id", taskId))));
+      if (result.getModifiedCount() > 0) {
+        joinCache.invalidate(startedHuntId);
+        return true;
+      }
     }
+    throw new ConflictResponse("Task with ID " + taskId + " kept changing; try deleting the photo again");
   }
 
-  public void removePhotoPathFromTask(Context ctx, String taskId, String startedHuntId, String photoId) {
-    StartedHunt startedHunt = startedHuntCollection.find(eq("_id", new ObjectId(startedHuntId))).first();
+  /**
+   * Reads the photos of one task in a StartedHunt, leaving out the rest of
+   * the hunt.
+   */
+  private List<String> getTaskPhotos(Context ctx, ObjectId huntObjectId, String taskId) {
+    StartedHunt startedHunt = startedHuntCollection.find(eq("_id", huntObjectId))
+        .projection(Projections.include("completeHunt.tasks._id", "completeHunt.tasks.photos"))
+        .first();
     if (startedHunt == null) {
       ctx.status(HttpStatus.NOT_FOUND);
-      throw new BadRequestResponse("StartedHunt with ID " + startedHuntId + " does not exist");
+      throw new BadRequestResponse("StartedHunt with ID " + huntObjectId.toHexString() + " does not exist");
     }
-
-    Task task = startedHunt.completeHunt.tasks.stream().filter(t -> t._id.equals(taskId)).findFirst().orElse(null);
-    if (task == null) {
+    for (Task task : startedHunt.completeHunt.tasks) {
+      if (task._id.equals(taskId)) {
+        return task.photos == null ? List.of() : task.photos;
+      }
+    }
+    ctx.status(HttpStatus.NOT_FOUND);
+    throw new BadRequestResponse("Task with ID " + taskId + " does not exist");
+  }
+
+  /**
+   * Applies an update to the photos of one task in a StartedHunt, finding the
+   * task with an array filter rather than loading the whole hunt.
+   *
+   * @throws BadRequestResponse (with status NOT_FOUND) if there is no such
+   *                            StartedHunt, or it doesn't have the task
+   */
+  private void updateTaskPhotos(Context ctx, String startedHuntId, String taskId, Bson update) {
+    ObjectId huntObjectId = new ObjectId(startedHuntId);
+    UpdateResult result = startedHuntCollection.updateOne(
+        and(eq("_id", huntObjectId), taskIdFilter("completeHunt.tasks._id", taskId)),
+        update,
+        new UpdateOptions().arrayFilters(List.of(taskIdFilter("task._id", taskId))));
+    joinCache.invalidate(startedHuntId);
+
+    if (result.getMatchedCount() == 0) {
       ctx.status(HttpStatus.NOT_FOUND);
+      if (startedHuntCollection.countDocuments(eq("_id", huntObjectId)) == 0) {
+        throw new BadRequestResponse("StartedHunt with ID " + startedHuntId + " does not exist");
+      }
       throw new BadRequestResponse("Task with ID " + taskId + " does not exist");
     }
+  }
 
-    task.photos.remove(photoId);
-    startedHunt.completeHunt.tasks.set(startedHunt.completeHunt.tasks.indexOf(task), task);
-    startedHuntCollection.save(startedHunt);
+  /**
+   * Matches a task's ID, which is normally stored as an ObjectId but could
+   * have been stored as a string.
+   */
+  private static Bson taskIdFilter(String field, String taskId) {
+    if (taskId != null && ObjectId.isValid(taskId)) {
+      return in(field, new ObjectId(taskId), taskId);
+    }
+    return eq(field, taskId);
   }
 
   public void getEndedHunt(Context ctx) {
+    Rendition rendition = getRendition(ctx);
     EndedHunt finishedHunt = new EndedHunt();
     finishedHunt.startedHunt = getStartedHuntById(ctx);
-    finishedHunt.finishedTasks = getFinishedTasks(finishedHunt.startedHunt.completeHunt.tasks);
+    finishedHunt.finishedTasks = getFinishedTasks(finishedHunt.startedHunt.completeHunt.tasks, rendition);
 
     ctx.json(finishedHunt);
     ctx.status(HttpStatus.OK);
@@ -516,22 +709,35 @@ public class HostController implements Controller {
   }
 
   public List<FinishedTask> getFinishedTasks(List<Task> tasks) {
+    return getFinishedTasks(tasks, Rendition.FULL);
+  }
+
+  public List<FinishedTask> getFinishedTasks(List<Task> tasks, Rendition rendition) {
     ArrayList<FinishedTask> finishedTasks = new ArrayList<>();
     FinishedTask finishedTask;
     for (Task task : tasks) {
       finishedTask = new FinishedTask();
       finishedTask.taskId = task._id;
-      finishedTask.photos = getPhotosFromTask(task);
+      finishedTask.photos = getPhotosFromTask(task, rendition);
       finishedTasks.add(finishedTask);
     }
     return finishedTasks;
   }
 
   public List<String> getPhotosFromTask(Task task) {
+    return getPhotosFromTask(task, Rendition.FULL);
+  }
+
+  /**
+   * Makes the URLs of a task's photos, asking for the given rendition of
+   * each one (e.g., thumbnails for a gallery of a whole hunt).
+   */
+  public List<String> getPhotosFromTask(Task task, Rendition rendition) {
+    String query = rendition.isOriginal() ? "" : "?" + SIZE_KEY + "=" + rendition.paramName();
     List<String> photoPaths = new ArrayList<>();
     for (String photoPath : task.photos) {
       // Construct the full photo URL using the base URL and the photo path
-      String photoUrl = SERVER_PHOTOS + photoPath;
+      String photoUrl = SERVER_PHOTOS + photoPath + query;
       photoPaths.add(photoUrl);
     }
     return photoPaths;
@@ -539,20 +745,39 @@ public class HostController implements Controller {
 
   public void getPhoto(Context ctx) {
     String photoPath = ctx.pathParam("photoPath");
-    File file = new File("photos/" + photoPath);
-    if (file.exists()) {
-      try (FileInputStream fis = new FileInputStream(file)) {
-        ctx.result(fis);
-      } catch (FileNotFoundException e) {
-        ctx.status(HttpStatus.INTERNAL_SERVER_ERROR).result("Error reading file: " + e.getMessage());
+    Rendition rendition = getRendition(ctx);
+    Path file = photoStore.resolve(photoPath);
+    if (Files.isRegularFile(file)) {
+      try {
+        Path renditionFile = photoStore.resolve(photoPath, rendition);
+        if (renditionFile != null) {
+          photoSender.send(ctx, renditionFile);
+        } else {
+          // The rendition isn't ready yet, so send the original, but don't
+          // let it be cached as if it were the rendition.
+          photoSender.send(ctx, file, PhotoSender.REVALIDATE);
+        }
       } catch (IOException e) {
-        ctx.status(HttpStatus.INTERNAL_SERVER_ERROR).result("Error closing file: " + e.getMessage());
+        ctx.status(HttpStatus.INTERNAL_SERVER_ERROR).result("Error reading file: " + e.getMessage());
       }
     } else {
       ctx.status(HttpStatus.NOT_FOUND).result("Photo not found");
     }
   }
 
+  /**
+   * Works out which rendition of the photos the request wants from the
+   * `size` query parameter (the original photo if there isn't one).
+   */
+  private Rendition getRendition(Context ctx) {
+    String size = ctx.queryParam(SIZE_KEY);
+    Rendition rendition = Rendition.fromParam(size);
+    if (rendition == null) {
+      throw new BadRequestResponse("The requested photo size " + size + " is not one of thumb, preview or full");
+    }
+    return rendition;
+  }
+
   @Override
   public void addRoutes(Javalin server) {
     server.get(API_HOST, this::getHunts);
@@ -560,6 +785,7 @@ public class HostController implements Controller {
     server.post(API_HUNTS, this::addNewHunt);
     server.get(API_TASKS, this::getTasks);
     server.post(API_TASKS, this::addNewTask);
+    server.post(API_HUNT_TASKS, this::importTasks);
     server.delete(API_HUNT, this::deleteHunt);
     server.delete(API_TASK, this::deleteTask);
     server.post(API_PHOTO_UPLOAD, this::addPhoto);
@@ -567,5 +793,6 @@ public class HostController implements Controller {
     server.put(API_PHOTO_REPLACE, this::replacePhoto);
     server.get(API_ENDED_HUNT, this::getEndedHunt);
     server.delete(API_DELETE_HUNT, this::deleteStartedHunt);
+    server.get(API_PHOTO, this::getPhoto);
   }
 }
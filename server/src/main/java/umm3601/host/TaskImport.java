@@ -0,0 +1,174 @@
+package umm3601.host;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import io.javalin.http.BadRequestResponse;
+import io.javalin.json.JavalinJackson;
+
+/**
+ * Reads the tasks for a bulk import into a hunt, so a host can add a whole
+ * hunt's tasks in one request instead of one request per task.
+ *
+ * The tasks can be sent as
+ * - JSON: an array of tasks, or JSON lines with one task per line (like
+ *   `application/x-ndjson`); any content type but CSV is read as JSON, or
+ * - CSV (`text/csv`) with a header row that has a `name` column; any other
+ *   columns are ignored.
+ *
+ * Names are trimmed in both formats. A JSON task may give a `huntId`, but
+ * only the one the tasks are being imported into.
+ *
+ * Every task is checked with the same rules as `HostController.addNewTask`
+ * before any of them are added, so a bad task doesn't leave half a hunt.
+ */
+final class TaskImport {
+
+  static final int MAX_TASKS = 5000;
+
+  private static final String CSV = "text/csv";
+  private static final String NAME_COLUMN = "name";
+  // Spreadsheets often start their CSV with a byte order mark
+  private static final String BYTE_ORDER_MARK = "\uFEFF";
+
+  // The same mapper as `ctx.bodyValidator` uses. A reader of values reads
+  // either the elements of a JSON array or a series of JSON values, which
+  // covers JSON lines too.
+  private static final ObjectReader TASK_READER = new JavalinJackson().getMapper().readerFor(Task.class);
+
+  private TaskImport() {
+  }
+
+  /**
+   * Reads and checks the tasks in a request body.
+   *
+   * @param contentType The request's content type, which says what format
+   *                    the tasks are in
+   * @param body        The request body
+   * @param huntId      The hunt the tasks are for
+   * @return The tasks, ready to insert
+   * @throws BadRequestResponse if the body can't be read, or any task isn't
+   *                            valid or is for another hunt, or there are
+   *                            no tasks or too many
+   */
+  static List<Task> read(String contentType, InputStream body, String huntId) {
+    String format = contentType == null ? "" : contentType.split(";")[0].trim().toLowerCase(Locale.ROOT);
+    List<String> names;
+    try {
+      names = format.equals(CSV) ? readCsv(body) : readJson(body, huntId);
+    } catch (JsonProcessingException e) {
+      throw new BadRequestResponse("The tasks aren't valid JSON: " + e.getOriginalMessage());
+    } catch (IOException e) {
+      throw new BadRequestResponse("Could not read the tasks: " + e.getMessage());
+    }
+    if (names.isEmpty()) {
+      throw new BadRequestResponse("There are no tasks to add");
+    }
+
+    List<Task> tasks = new ArrayList<>(names.size());
+    for (int i = 0; i < names.size(); i++) {
+      String name = names.get(i) == null ? null : names.get(i).trim();
+      if (name == null || name.length() == 0) {
+        throw new BadRequestResponse("Task " + (i + 1) + ": Name must be at least 1 character");
+      }
+      if (name.length() > HostController.REASONABLE_NAME_LENGTH_TASK) {
+        throw new BadRequestResponse("Task " + (i + 1) + ": Name must be less than 150 characters");
+      }
+      Task task = new Task();
+      task.huntId = huntId;
+      task.name = name;
+      task.photos = new ArrayList<>();
+      tasks.add(task);
+    }
+    return tasks;
+  }
+
+  private static List<String> readJson(InputStream body, String huntId) throws IOException {
+    List<String> names = new ArrayList<>();
+    try (MappingIterator<Task> tasks = TASK_READER.readValues(body)) {
+      while (tasks.hasNextValue()) {
+        Task task = tasks.nextValue();
+        checkCount(names.size());
+        if (task != null && task.huntId != null && !task.huntId.equals(huntId)) {
+          throw new BadRequestResponse("Task " + (names.size() + 1) + ": Belongs to hunt " + task.huntId
+              + ", not " + huntId);
+        }
+        names.add(task == null ? null : task.name);
+      }
+    }
+    return names;
+  }
+
+  private static List<String> readCsv(InputStream body) throws IOException {
+    List<String> names = new ArrayList<>();
+    BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+    String header = reader.readLine();
+    if (header == null) {
+      return names;
+    }
+    int nameColumn = csvFields(header.replace(BYTE_ORDER_MARK, "")).stream()
+        .map(column -> column.trim().toLowerCase(Locale.ROOT))
+        .toList()
+        .indexOf(NAME_COLUMN);
+    if (nameColumn < 0) {
+      throw new BadRequestResponse("The CSV needs a header row with a '" + NAME_COLUMN + "' column");
+    }
+    for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+      if (line.isBlank()) {
+        continue;
+      }
+      checkCount(names.size());
+      List<String> fields = csvFields(line);
+      names.add(nameColumn < fields.size() ? fields.get(nameColumn) : null);
+    }
+    return names;
+  }
+
+  private static void checkCount(int tasksSoFar) {
+    if (tasksSoFar >= MAX_TASKS) {
+      throw new BadRequestResponse("A hunt can only have " + MAX_TASKS + " tasks added at once");
+    }
+  }
+
+  /**
+   * Splits a line of CSV into its fields. Fields may be quoted, with `""`
+   * for a quote inside them, but can't span lines.
+   */
+  static List<String> csvFields(String line) {
+    List<String> fields = new ArrayList<>();
+    StringBuilder field = new StringBuilder();
+    boolean quoted = false;
+    for (int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      if (quoted) {
+        if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+          field.append('"');
+          i++;
+        } else if (c == '"') {
+          quoted = false;
+        } else {
+          field.append(c);
+        }
+      } else if (c == '"') {
+        quoted = true;
+      } else if (c == ',') {
+        fields.add(field.toString());
+        field.setLength(0);
+      } else {
+        field.append(c);
+      }
+    }
+    fields.add(field.toString());
+    return fields;
+  }
+}
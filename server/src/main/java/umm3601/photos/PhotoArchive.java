@@ -0,0 +1,161 @@
+package umm3601.photos;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Streams a ZIP file of photos, like all the photos from an ended hunt.
+ *
+ * Photos are already compressed, so they are STORED in the ZIP rather than
+ * deflated again, which would just burn CPU to make the file bigger. That
+ * means the ZIP is written as fast as the photos can be read, straight from
+ * their file channels to the response, without keeping the archive on disk
+ * or in memory.
+ *
+ * A STORED entry has to have its CRC-32 before its contents are written.
+ * We keep the CRC of every photo when it's uploaded, so normally each photo
+ * is only read once. Photos from before that have to be read twice.
+ */
+public class PhotoArchive {
+
+  public static final String CONTENT_TYPE = "application/zip";
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  // Characters that can't be in a file or directory name on some systems
+  private static final String UNSAFE_CHARACTERS = "[\\\\/:*?\"<>|\\p{Cntrl}]";
+
+  private final PhotoStore photoStore;
+  // Photo names by the name of their entry in the ZIP, in the order added
+  private final Map<String, String> entries = new LinkedHashMap<>();
+  private final Set<String> folders = new HashSet<>();
+
+  public PhotoArchive(PhotoStore photoStore) {
+    this.photoStore = photoStore;
+  }
+
+  /**
+   * Makes a name safe to use as a folder in the archive, and different from
+   * every folder made so far in the same parent (so two tasks with the same
+   * name don't get their photos mixed together).
+   *
+   * @param parent The folder the new folder goes in, or `""` for the top
+   * @param name   The name we'd like, e.g., the name of a task
+   * @return The path of the new folder, ending in `/`
+   */
+  public String folder(String parent, String name) {
+    String base = parent + safeName(name);
+    String folder = base + "/";
+    for (int copy = 2; !folders.add(folder); copy++) {
+      folder = base + " (" + copy + ")/";
+    }
+    return folder;
+  }
+
+  /**
+   * Adds a photo to the archive.
+   *
+   * @param folder    The folder to put it in, from `folder`
+   * @param photoName The name of the photo in the photo store
+   */
+  public void add(String folder, String photoName) {
+    String entryName = folder + safeName(photoName);
+    if (!entries.containsKey(entryName)) {
+      entries.put(entryName, photoName);
+    }
+  }
+
+  /**
+   * The number of photos in the archive.
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Writes the archive. Photos that no longer exist are left out.
+   *
+   * @param out Where to write the ZIP file; this isn't closed
+   * @return The number of photos that were written
+   * @throws IOException if a photo can't be read or the ZIP can't be written
+   */
+  public int write(OutputStream out) throws IOException {
+    Map<String, Long> crcs = photoStore.crc32s(entries.values());
+    int written = 0;
+
+    ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+    zip.setMethod(ZipOutputStream.STORED);
+    WritableByteChannel target = Channels.newChannel(zip);
+
+    for (Map.Entry<String, String> entry : entries.entrySet()) {
+      Path file = photoStore.resolve(entry.getValue());
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+        long size = channel.size();
+        Long crc = crcs.get(entry.getValue());
+
+        ZipEntry zipEntry = new ZipEntry(entry.getKey());
+        zipEntry.setMethod(ZipEntry.STORED);
+        zipEntry.setSize(size);
+        zipEntry.setCompressedSize(size);
+        zipEntry.setCrc(crc != null ? crc : crc32(channel));
+
+        zip.putNextEntry(zipEntry);
+        long position = 0;
+        while (position < size) {
+          long transferred = channel.transferTo(position, size - position, target);
+          if (transferred <= 0) {
+            throw new IOException("Photo " + entry.getValue() + " was truncated while it was being archived");
+          }
+          position += transferred;
+        }
+        zip.closeEntry();
+        written++;
+      } catch (NoSuchFileException e) {
+        System.err.println("Leaving missing photo " + entry.getValue() + " out of the archive");
+      }
+    }
+
+    // Finish, rather than close, so the response itself stays open
+    zip.finish();
+    zip.flush();
+    return written;
+  }
+
+  private static long crc32(FileChannel channel) throws IOException {
+    CRC32 crc = new CRC32();
+    ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    long position = 0;
+    int read;
+    while ((read = channel.read(buffer, position)) > 0) {
+      buffer.flip();
+      crc.update(buffer);
+      buffer.clear();
+      position += read;
+    }
+    return crc.getValue();
+  }
+
+  private static String safeName(String name) {
+    String safe = name == null ? "" : name.replaceAll(UNSAFE_CHARACTERS, "_").trim();
+    // Names like ".." would escape the folder when the ZIP is unpacked
+    if (safe.isEmpty() || safe.matches("\\.+")) {
+      return "_" + safe;
+    }
+    return safe;
+  }
+}
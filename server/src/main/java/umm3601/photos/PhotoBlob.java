@@ -0,0 +1,28 @@
+package umm3601.photos;
+
+import org.mongojack.Id;
+
+/**
+ * The record the `PhotoStore` keeps for each distinct photo it has stored.
+ *
+ * Photos are stored by the SHA-256 of their contents, so uploading the same
+ * picture twice only keeps one copy on disk. `refCount` says how many tasks
+ * and submissions point at the photo, and the file is only removed when
+ * that drops to zero.
+ */
+@SuppressWarnings({"VisibilityModifier"})
+public class PhotoBlob {
+
+  // The hex SHA-256 of the photo's contents
+  @Id
+  @SuppressWarnings({"MemberName"})
+  public String _id;
+
+  public String fileName;
+  public long size;
+  public int refCount;
+
+  // The CRC-32 of the photo, which a ZIP file needs for each photo. This is
+  // null for photos stored before we started keeping it.
+  public Long crc32;
+}
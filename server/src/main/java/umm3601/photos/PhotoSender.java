@@ -0,0 +1,346 @@
+package umm3601.photos;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.Map;
+
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+
+/**
+ * Sends photo files from disk to the client without copying the photo
+ * bytes through the Java heap.
+ *
+ * The file is sent with `FileChannel.transferTo`, which avoids an
+ * intermediate `byte[]` in our code. We used to memory map each photo and
+ * hand Jetty the mapped buffer, but that was no faster (see
+ * `PhotoTransferBenchmark`), and a mapping is only released when its buffer
+ * is garbage collected, so a busy server could run out of them.
+ *
+ * Photos are never changed once they are written (a new photo always gets a
+ * new file name), so the file name makes a strong ETag and the responses
+ * can be cached forever. This also handles `If-None-Match` (answering with
+ * 304 Not Modified) and single byte-range requests so downloads can be
+ * resumed.
+ */
+public class PhotoSender {
+
+  static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+
+  static final String ETAG = "ETag";
+  static final String IF_NONE_MATCH = "If-None-Match";
+  static final String IF_RANGE = "If-Range";
+  static final String RANGE = "Range";
+  static final String CONTENT_RANGE = "Content-Range";
+  static final String ACCEPT_RANGES = "Accept-Ranges";
+  public static final String CACHE_CONTROL = "Cache-Control";
+
+  // Photo files are immutable, so let browsers (and Caddy) keep them for a year
+  // without even asking whether they've changed.
+  static final String CACHE_FOREVER = "public, max-age=31536000, immutable";
+
+  // For URLs that can start sending something different, like a photo that
+  // has been replaced. Clients have to check with us before using their copy.
+  public static final String REVALIDATE = "no-cache";
+
+  private static final String TEXT_PLAIN = "text/plain";
+  private static final int BASE64_GROUP_BYTES = 3;
+  private static final int BASE64_GROUP_CHARS = 4;
+
+  private static final String BYTES_UNIT = "bytes";
+  private static final String BYTES_PREFIX = BYTES_UNIT + "=";
+
+  private static final Map<String, String> CONTENT_TYPES = Map.of(
+      "jpg", "image/jpeg",
+      "jpeg", "image/jpeg",
+      "png", "image/png",
+      "gif", "image/gif",
+      "webp", "image/webp",
+      "heic", "image/heic",
+      "bmp", "image/bmp");
+
+  /**
+   * Works out the content type of a photo from its file extension.
+   *
+   * @param filename The name of the photo file
+   * @return The matching image content type, or `application/octet-stream`
+   *         if the extension isn't one we know about
+   */
+  public String contentTypeFor(String filename) {
+    int dotIndex = filename.lastIndexOf('.');
+    if (dotIndex < 0) {
+      return DEFAULT_CONTENT_TYPE;
+    }
+    String extension = filename.substring(dotIndex + 1).toLowerCase(Locale.ROOT);
+    return CONTENT_TYPES.getOrDefault(extension, DEFAULT_CONTENT_TYPE);
+  }
+
+  /**
+   * Makes the strong ETag for a photo.
+   *
+   * @param photoId The immutable id (file name) of the photo, plus anything
+   *                that distinguishes this particular representation of it
+   * @return The quoted ETag value
+   */
+  public String etagFor(String photoId) {
+    return "\"" + photoId + "\"";
+  }
+
+  /**
+   * Sets the ETag on the response and checks it against the request's
+   * `If-None-Match` header.
+   *
+   * If the client already has this version of the photo, the status is set
+   * to 304 Not Modified and nothing else should be sent.
+   *
+   * @param ctx  a Javalin Context object with the HTTP request information
+   * @param etag The ETag of the representation we would send
+   * @return true if the client's copy is current and the response is done
+   */
+  public boolean checkNotModified(Context ctx, String etag) {
+    ctx.header(ETAG, etag);
+    if (etagMatches(ctx.header(IF_NONE_MATCH), etag)) {
+      ctx.status(HttpStatus.NOT_MODIFIED);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Sends a photo file as the body of the response.
+   *
+   * This sets the caching headers, answers conditional requests with 304,
+   * and honors a single byte range from the `Range` header (with 206
+   * Partial Content, or 416 if the range is outside the file). Otherwise it
+   * sends the whole file with status OK, the content type from the file
+   * extension and the Content-Length from the size of the file.
+   *
+   * @param ctx  a Javalin Context object for the response
+   * @param file The photo file to send
+   * @throws IOException if the file can't be read or the response can't be
+   *                     written
+   */
+  public void send(Context ctx, Path file) throws IOException {
+    send(ctx, file, CACHE_FOREVER);
+  }
+
+  /**
+   * Sends a photo file as the body of the response, with the given
+   * Cache-Control header.
+   *
+   * This is for URLs (like a submission's photo) that can start pointing
+   * at a different photo, so they can't be cached forever.
+   *
+   * @param ctx          a Javalin Context object for the response
+   * @param file         The photo file to send
+   * @param cacheControl The value of the Cache-Control header
+   * @throws IOException if the file can't be read or the response can't be
+   *                     written
+   */
+  public void send(Context ctx, Path file, String cacheControl) throws IOException {
+    String etag = etagFor(file.getFileName().toString());
+    ctx.header(CACHE_CONTROL, cacheControl);
+    ctx.header(ACCEPT_RANGES, BYTES_UNIT);
+    if (checkNotModified(ctx, etag)) {
+      return;
+    }
+
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      ByteRange range = requestedRange(ctx, etag, size);
+
+      if (range == null) {
+        ctx.status(HttpStatus.OK);
+        range = new ByteRange(0, size);
+      } else if (range == ByteRange.UNSATISFIABLE) {
+        ctx.status(HttpStatus.RANGE_NOT_SATISFIABLE);
+        ctx.header(CONTENT_RANGE, BYTES_UNIT + " */" + size);
+        return;
+      } else {
+        ctx.status(HttpStatus.PARTIAL_CONTENT);
+        ctx.header(CONTENT_RANGE,
+            BYTES_UNIT + " " + range.start() + "-" + (range.start() + range.length() - 1) + "/" + size);
+      }
+
+      ctx.contentType(contentTypeFor(file.getFileName().toString()));
+      ctx.res().setContentLengthLong(range.length());
+      writeBody(ctx, channel, range);
+    }
+  }
+
+  /**
+   * Sends a photo file as base64 text, for clients that still expect the
+   * photo inlined as a string.
+   *
+   * The encoding is done by a streaming encoder as the file is transferred,
+   * so only a small fixed-size buffer is used no matter how big the photo is.
+   * The Content-Length is worked out from the file size up front.
+   *
+   * @param ctx  a Javalin Context object for the response
+   * @param file The photo file to send
+   * @throws IOException if the file can't be read or the response can't be
+   *                     written
+   */
+  public void sendBase64(Context ctx, Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+
+      ctx.status(HttpStatus.OK);
+      ctx.contentType(TEXT_PLAIN);
+      ctx.res().setContentLengthLong(base64Length(size));
+
+      OutputStream out = ctx.res().getOutputStream();
+      encodeBase64(channel, out);
+      out.flush();
+    }
+  }
+
+  /**
+   * Writes the base64 encoding of a whole file to a stream, which is left
+   * open.
+   */
+  void encodeBase64(FileChannel channel, OutputStream out) throws IOException {
+    // Closing the encoder writes the final padding, but we don't want
+    // that to close the response itself.
+    try (OutputStream encoder = Base64.getEncoder().wrap(new UnclosableOutputStream(out))) {
+      transfer(channel, new ByteRange(0, channel.size()), Channels.newChannel(encoder));
+    }
+  }
+
+  /**
+   * The number of characters base64 encoding turns `size` bytes into,
+   * including padding.
+   */
+  static long base64Length(long size) {
+    return (size + BASE64_GROUP_BYTES - 1) / BASE64_GROUP_BYTES * BASE64_GROUP_CHARS;
+  }
+
+  private void writeBody(Context ctx, FileChannel channel, ByteRange range) throws IOException {
+    OutputStream out = ctx.res().getOutputStream();
+    transfer(channel, range, Channels.newChannel(out));
+    out.flush();
+  }
+
+  /**
+   * Works out which part of the file the client asked for.
+   *
+   * We only support a single range; anything we don't understand (including
+   * multiple ranges, or an `If-Range` that doesn't match the current ETag)
+   * means the client gets the whole file, which is what RFC 9110 says to do.
+   *
+   * @return the requested range, `null` to send the whole file, or
+   *         `ByteRange.UNSATISFIABLE` if the range is entirely outside the file
+   */
+  ByteRange requestedRange(Context ctx, String etag, long size) {
+    String header = ctx.header(RANGE);
+    if (header == null || !header.startsWith(BYTES_PREFIX) || header.indexOf(',') >= 0) {
+      return null;
+    }
+    String ifRange = ctx.header(IF_RANGE);
+    if (ifRange != null && !ifRange.equals(etag)) {
+      return null;
+    }
+
+    String spec = header.substring(BYTES_PREFIX.length()).trim();
+    int dash = spec.indexOf('-');
+    if (dash < 0) {
+      return null;
+    }
+    try {
+      if (dash == 0) {
+        // A suffix range like `bytes=-500` asks for the last 500 bytes
+        long suffixLength = Long.parseLong(spec.substring(1));
+        if (suffixLength <= 0 || size == 0) {
+          return ByteRange.UNSATISFIABLE;
+        }
+        long start = Math.max(0, size - suffixLength);
+        return new ByteRange(start, size - start);
+      }
+      long start = Long.parseLong(spec.substring(0, dash));
+      String endSpec = spec.substring(dash + 1);
+      long end = endSpec.isEmpty() ? size - 1 : Math.min(Long.parseLong(endSpec), size - 1);
+      if (start >= size) {
+        return ByteRange.UNSATISFIABLE;
+      }
+      if (end < start) {
+        return null;
+      }
+      return new ByteRange(start, end - start + 1);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  private boolean etagMatches(String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    for (String candidate : ifNoneMatch.split(",")) {
+      String trimmed = candidate.trim();
+      // Weak comparison is what If-None-Match calls for, so ignore any W/ prefix
+      if (trimmed.startsWith("W/")) {
+        trimmed = trimmed.substring(2);
+      }
+      if (trimmed.equals("*") || trimmed.equals(etag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Transfers a range of a file channel to a target channel.
+   *
+   * `transferTo` is allowed to transfer fewer bytes than asked for, so
+   * this keeps going until the whole range has been sent.
+   */
+  private void transfer(FileChannel channel, ByteRange range, WritableByteChannel target) throws IOException {
+    long position = range.start();
+    long end = range.start() + range.length();
+    while (position < end) {
+      long transferred = channel.transferTo(position, end - position, target);
+      if (transferred <= 0) {
+        throw new IOException("Photo file was truncated while it was being sent");
+      }
+      position += transferred;
+    }
+  }
+
+  /**
+   * Passes writes through to another stream, but leaves it open when it is
+   * closed.
+   */
+  private static final class UnclosableOutputStream extends FilterOutputStream {
+    UnclosableOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
+  }
+
+  /**
+   * A contiguous range of bytes in a photo file.
+   *
+   * @param start  The offset of the first byte in the range
+   * @param length The number of bytes in the range
+   */
+  record ByteRange(long start, long length) {
+    static final ByteRange UNSATISFIABLE = new ByteRange(-1, 0);
+  }
+}
@@ -0,0 +1,78 @@
+package umm3601.photos;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Moves photos out of the old flat `photos/` directory into the sharded
+ * layout that `PhotoStore` uses.
+ *
+ * This is safe to run while the server is up. Each photo is moved with a
+ * single atomic rename, and the store looks for a photo in both places, so
+ * every request finds the photo either where it was or where it's going.
+ *
+ * Run it from the `server` directory with `./gradlew migratePhotos`, or
+ * pass a different photo directory as the only argument.
+ */
+public final class PhotoShardMigrator {
+
+  // How often to report progress, since there can be a lot of photos
+  private static final int PROGRESS_INTERVAL = 10_000;
+
+  private PhotoShardMigrator() {
+  }
+
+  public static void main(String[] args) throws IOException {
+    Path directory = args.length > 0 ? Path.of(args[0]) : PhotoStore.PHOTO_DIRECTORY;
+    long start = System.currentTimeMillis();
+    int moved = migrate(directory);
+    System.out.println("Moved " + moved + " photos in " + directory + " into shard directories in "
+        + (System.currentTimeMillis() - start) + "ms");
+  }
+
+  /**
+   * Moves every photo at the top level of `directory` into its shard
+   * directory.
+   *
+   * The directory is read as a stream, so this doesn't need to hold the
+   * whole listing in memory. Uploads that are still being written are left
+   * alone.
+   *
+   * @param directory The photo directory to migrate
+   * @return The number of photos that were moved
+   * @throws IOException if the directory can't be read or a photo can't be
+   *                     moved
+   */
+  public static int migrate(Path directory) throws IOException {
+    int moved = 0;
+    try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, Files::isRegularFile)) {
+      for (Path photo : entries) {
+        String fileName = photo.getFileName().toString();
+        if (PhotoStore.isTemporary(fileName)) {
+          continue;
+        }
+
+        Path target = PhotoStore.shardedPath(directory, fileName);
+        Files.createDirectories(target.getParent());
+        try {
+          // Photo names never get reused for different contents, so if the
+          // photo is somehow in its shard already, replacing it is harmless.
+          Files.move(photo, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+          // The photo was deleted after we listed it
+          continue;
+        }
+
+        moved++;
+        if (moved % PROGRESS_INTERVAL == 0) {
+          System.out.println("Moved " + moved + " photos so far");
+        }
+      }
+    }
+    return moved;
+  }
+}
@@ -0,0 +1,380 @@
+package umm3601.photos;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Filters.lte;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+import org.mongojack.JacksonMongoCollection;
+
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+
+import umm3601.CollectionRegistry;
+
+/**
+ * A content-addressed store for uploaded photos.
+ *
+ * Each photo is named after the SHA-256 of its contents, which is worked out
+ * while the upload streams to disk. If a team uploads a picture we already
+ * have, the new copy is thrown away and the existing file is used instead.
+ *
+ * The store keeps a `PhotoBlob` record for every photo with a count of how
+ * many tasks and submissions use it. Releasing a photo only deletes the file
+ * when the last of those references goes away.
+ *
+ * Photos uploaded before the store existed (with UUID names) have no record;
+ * releasing one of those just deletes the file like we always used to.
+ *
+ * Photos are kept two directories deep, under the first four characters of
+ * their name (e.g., `photos/3f/a9/3fa9...e1.jpg`), so no one directory ends
+ * up with hundreds of thousands of entries. Photos still in the old flat
+ * `photos/` directory are found there until `PhotoShardMigrator` moves them.
+ *
+ * Each new photo also gets smaller renditions made in the background by the
+ * `RenditionService`, and they are deleted along with the photo.
+ */
+public class PhotoStore {
+
+  static final Path PHOTO_DIRECTORY = Path.of("photos");
+  static final String DIGEST_ALGORITHM = "SHA-256";
+  static final String TEMP_PREFIX = "upload-";
+  static final String TEMP_SUFFIX = ".tmp";
+
+  // Each of the two levels of shard directories is named by two hex digits
+  private static final int SHARD_NAME_LENGTH = 2;
+  private static final Pattern HEX_PREFIX = Pattern.compile("^[0-9a-f]{" + 2 * SHARD_NAME_LENGTH + "}");
+
+  // Uploads of the same photo are serialized on one of these locks, so that
+  // a release can't delete the file just as another upload starts using it.
+  // They're ReentrantLocks rather than `synchronized` because the holder
+  // waits on Mongo, and a virtual thread blocked inside `synchronized` pins
+  // its carrier thread for the whole wait.
+  private static final int LOCK_STRIPES = 64;
+
+  // Releasing many photos at once (when a hunt is deleted) is mostly waiting
+  // on the database and the disk, so it uses a few threads of its own. When
+  // they're all busy and the queue is full, the caller releases the photo
+  // itself, which slows it down instead of losing the release. Idle workers
+  // exit, so a store that is thrown away (as in the tests) leaves no threads.
+  private static final int RELEASE_WORKERS = 8;
+  private static final int RELEASE_QUEUE_CAPACITY = 256;
+  private static final long RELEASE_KEEP_ALIVE_SECONDS = 60;
+  private static final int RELEASE_PROGRESS_INTERVAL = 500;
+
+  private final JacksonMongoCollection<PhotoBlob> blobCollection;
+  private final RenditionService renditions = new RenditionService(PHOTO_DIRECTORY);
+  private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+  private final AtomicInteger releaseWorkerCount = new AtomicInteger();
+  private final ThreadPoolExecutor releaseExecutor = new ThreadPoolExecutor(
+      RELEASE_WORKERS, RELEASE_WORKERS, RELEASE_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+      new LinkedBlockingQueue<>(RELEASE_QUEUE_CAPACITY),
+      task -> {
+        Thread worker = new Thread(task, "photo-release-" + releaseWorkerCount.incrementAndGet());
+        worker.setDaemon(true);
+        return worker;
+      },
+      new ThreadPoolExecutor.CallerRunsPolicy());
+
+  /**
+   * Sets up a store. The server has just one (see `SharedServices`), since
+   * the locks that keep uploads and releases of the same photo apart only
+   * work within a store.
+   *
+   * @param collections The collections the store keeps its records in
+   */
+  public PhotoStore(CollectionRegistry collections) {
+    blobCollection = collections.photoBlobs();
+    for (int i = 0; i < LOCK_STRIPES; i++) {
+      locks[i] = new ReentrantLock();
+    }
+    releaseExecutor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Where the photo with the given name lives on disk.
+   *
+   * This is the photo's shard directory, unless the photo hasn't been
+   * migrated out of the flat `photos/` directory yet. If the photo doesn't
+   * exist at all, this is where it would be in the sharded layout.
+   *
+   * @param fileName The name of the photo (as stored on tasks and submissions)
+   * @return The path to the photo file
+   */
+  public Path resolve(String fileName) {
+    return locate(PHOTO_DIRECTORY, fileName);
+  }
+
+  /**
+   * Where a particular rendition of a photo lives on disk.
+   *
+   * @param fileName  The name of the photo
+   * @param rendition Which size of the photo we want
+   * @return The path to the rendition, or `null` if that rendition hasn't
+   *         been made yet (in which case it will be made in the background)
+   */
+  public Path resolve(String fileName, Rendition rendition) {
+    if (rendition.isOriginal()) {
+      return resolve(fileName);
+    }
+    return renditions.find(fileName, rendition);
+  }
+
+  /**
+   * Stores an uploaded photo and adds a reference to it.
+   *
+   * The upload is copied to a temporary file while it is hashed. If we
+   * already have a photo with the same contents, the temporary file is
+   * deleted and the existing photo's name is returned, so nothing extra is
+   * kept on disk.
+   *
+   * @param in        The contents of the photo; this is closed when done
+   * @param extension The file extension from the uploaded file name
+   * @return The name of the stored photo
+   * @throws IOException if the photo can't be written to disk
+   */
+  public String store(InputStream in, String extension) throws IOException {
+    Files.createDirectories(PHOTO_DIRECTORY);
+    Path temp = Files.createTempFile(PHOTO_DIRECTORY, TEMP_PREFIX, TEMP_SUFFIX);
+    try {
+      MessageDigest digest = newDigest();
+      CRC32 crc = new CRC32();
+      long size;
+      try (InputStream hashing = new CheckedInputStream(new DigestInputStream(in, digest), crc)) {
+        size = Files.copy(hashing, temp, StandardCopyOption.REPLACE_EXISTING);
+      }
+      String hash = HexFormat.of().formatHex(digest.digest());
+
+      ReentrantLock lock = lockFor(hash);
+      lock.lock();
+      try {
+        PhotoBlob existing = blobCollection.find(eq("_id", hash)).first();
+        String fileName = existing != null ? existing.fileName : fileNameFor(hash, extension);
+
+        if (!Files.exists(resolve(fileName))) {
+          Path target = shardedPath(PHOTO_DIRECTORY, fileName);
+          Files.createDirectories(target.getParent());
+          Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+          renditions.generate(fileName);
+        }
+        blobCollection.updateOne(
+            eq("_id", hash),
+            Updates.combine(
+                Updates.inc("refCount", 1),
+                Updates.setOnInsert("fileName", fileName),
+                Updates.setOnInsert("size", size),
+                Updates.setOnInsert("crc32", crc.getValue())),
+            new UpdateOptions().upsert(true));
+        return fileName;
+      } finally {
+        lock.unlock();
+      }
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /**
+   * Looks up the CRC-32s worked out when photos were uploaded.
+   *
+   * @param fileNames The names of the photos
+   * @return The CRC-32 of each photo we have one for, by photo name; photos
+   *         from before the store (or before we kept CRCs) are left out
+   */
+  public Map<String, Long> crc32s(Collection<String> fileNames) {
+    Set<String> hashes = new HashSet<>();
+    for (String fileName : fileNames) {
+      hashes.add(hashOf(fileName));
+    }
+    Map<String, Long> crcs = new HashMap<>();
+    for (PhotoBlob blob : blobCollection.find(in("_id", hashes))) {
+      if (blob.crc32 != null) {
+        crcs.put(blob.fileName, blob.crc32);
+      }
+    }
+    return crcs;
+  }
+
+  /**
+   * Drops a reference to a photo, deleting the file if nothing else uses it.
+   *
+   * @param fileName The name of the photo
+   * @return true if the photo file was deleted
+   * @throws IOException if the photo file can't be deleted
+   */
+  public boolean release(String fileName) throws IOException {
+    String hash = hashOf(fileName);
+    ReentrantLock lock = lockFor(hash);
+    lock.lock();
+    try {
+      PhotoBlob blob = blobCollection.findOneAndUpdate(
+          eq("_id", hash),
+          Updates.inc("refCount", -1),
+          new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER));
+      if (blob == null) {
+        // A photo from before the store, which was only ever used once
+        return deleteFile(fileName);
+      }
+      if (blob.refCount > 0) {
+        return false;
+      }
+      blobCollection.deleteOne(and(eq("_id", hash), lte("refCount", 0)));
+      return deleteFile(blob.fileName);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Drops a reference to each of many photos, like `release`, a few at a
+   * time in parallel. This is for deleting a whole hunt, where there can be
+   * thousands of photos and each one takes a database update and a file
+   * delete. Progress goes to the log every few hundred photos.
+   *
+   * A photo that can't be released is logged and skipped, so one bad file
+   * doesn't leave the rest behind.
+   *
+   * @param fileNames The names of the photos; one name may appear more than
+   *                  once if it is used more than once
+   * @return The number of photos that couldn't be released
+   */
+  public int releaseAll(List<String> fileNames) {
+    int total = fileNames.size();
+    AtomicInteger done = new AtomicInteger();
+    AtomicInteger failed = new AtomicInteger();
+    List<CompletableFuture<Void>> releases = new ArrayList<>(total);
+    for (String fileName : fileNames) {
+      releases.add(CompletableFuture.runAsync(() -> {
+        try {
+          release(fileName);
+        } catch (IOException | RuntimeException e) {
+          failed.incrementAndGet();
+          System.err.println("Could not release photo " + fileName + ": " + e);
+        }
+        int count = done.incrementAndGet();
+        if (count % RELEASE_PROGRESS_INTERVAL == 0 && count < total) {
+          System.out.println("Released " + count + " of " + total + " photos");
+        }
+      }, releaseExecutor));
+    }
+    CompletableFuture.allOf(releases.toArray(new CompletableFuture<?>[0])).join();
+    if (total >= RELEASE_PROGRESS_INTERVAL || failed.get() > 0) {
+      System.out.println("Released " + (total - failed.get()) + " of " + total + " photos");
+    }
+    return failed.get();
+  }
+
+  /**
+   * Deletes a photo file from wherever it is.
+   *
+   * The flat copy is deleted first: if the migration tool moves the photo
+   * after that, it will be in the shard by the time we look there.
+   */
+  private boolean deleteFile(String fileName) throws IOException {
+    renditions.delete(fileName);
+    boolean deletedFlat = Files.deleteIfExists(PHOTO_DIRECTORY.resolve(fileName));
+    boolean deletedSharded = Files.deleteIfExists(shardedPath(PHOTO_DIRECTORY, fileName));
+    return deletedFlat || deletedSharded;
+  }
+
+  /**
+   * Finds a photo under `directory`: in its shard if it's there, or else in
+   * the old flat layout. If the photo doesn't exist at all, this is where it
+   * would be in the sharded layout.
+   */
+  static Path locate(Path directory, String fileName) {
+    Path sharded = shardedPath(directory, fileName);
+    if (Files.exists(sharded)) {
+      return sharded;
+    }
+    Path flat = directory.resolve(fileName);
+    if (Files.exists(flat)) {
+      return flat;
+    }
+    // Either the photo doesn't exist, or the migration tool just moved it
+    // between our two checks; both ways the shard is the right answer.
+    return sharded;
+  }
+
+  /**
+   * Where a photo belongs in the sharded layout under `directory`.
+   *
+   * Stored photos (and old UUID-named ones) start with hex digits, so they
+   * are sharded by the start of their name. Any other name is sharded by
+   * the start of the hash of the name instead.
+   */
+  static Path shardedPath(Path directory, String fileName) {
+    String prefix = HEX_PREFIX.matcher(fileName).lookingAt()
+        ? fileName
+        : HexFormat.of().formatHex(newDigest().digest(fileName.getBytes(StandardCharsets.UTF_8)));
+    return directory
+        .resolve(prefix.substring(0, SHARD_NAME_LENGTH))
+        .resolve(prefix.substring(SHARD_NAME_LENGTH, 2 * SHARD_NAME_LENGTH))
+        .resolve(fileName);
+  }
+
+  /**
+   * Whether a file in the photo directory is an upload that is still being
+   * written, rather than a photo.
+   */
+  static boolean isTemporary(String fileName) {
+    return fileName.startsWith(TEMP_PREFIX) && fileName.endsWith(TEMP_SUFFIX);
+  }
+
+  /**
+   * The name a newly stored photo gets: its hash, plus the uploaded
+   * extension with anything other than letters and digits removed.
+   */
+  static String fileNameFor(String hash, String extension) {
+    String cleanExtension = extension.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9]", "");
+    return cleanExtension.isEmpty() ? hash : hash + "." + cleanExtension;
+  }
+
+  private static String hashOf(String fileName) {
+    int dotIndex = fileName.indexOf('.');
+    return dotIndex >= 0 ? fileName.substring(0, dotIndex) : fileName;
+  }
+
+  private ReentrantLock lockFor(String hash) {
+    return locks[Math.floorMod(hash.hashCode(), LOCK_STRIPES)];
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance(DIGEST_ALGORITHM);
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform is required to support SHA-256
+      throw new IllegalStateException(DIGEST_ALGORITHM + " is not available", e);
+    }
+  }
+}
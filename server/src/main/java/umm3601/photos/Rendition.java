@@ -0,0 +1,62 @@
+package umm3601.photos;
+
+/**
+ * The sizes a photo can be sent at.
+ *
+ * Phone photos are several megabytes, which is far more than a gallery of
+ * fifty of them needs, so smaller JPEG copies are made in the background
+ * after each upload. `FULL` is the photo exactly as it was uploaded.
+ */
+public enum Rendition {
+  THUMBNAIL("thumb", 256),
+  PREVIEW("preview", 1024),
+  FULL("full", 0);
+
+  private final String paramName;
+  private final int maxDimension;
+
+  Rendition(String paramName, int maxDimension) {
+    this.paramName = paramName;
+    this.maxDimension = maxDimension;
+  }
+
+  /**
+   * The name used for this rendition in URLs, as in `?size=thumb`.
+   */
+  public String paramName() {
+    return paramName;
+  }
+
+  /**
+   * The longest a side of this rendition can be, in pixels.
+   */
+  public int maxDimension() {
+    return maxDimension;
+  }
+
+  /**
+   * Whether this is the original uploaded photo rather than a smaller copy.
+   */
+  public boolean isOriginal() {
+    return maxDimension == 0;
+  }
+
+  /**
+   * Finds the rendition with the given URL name.
+   *
+   * @param paramName The name from the request, or `null` if there wasn't one
+   * @return The matching rendition, `FULL` if no name was given, or `null` if
+   *         the name isn't one we know
+   */
+  public static Rendition fromParam(String paramName) {
+    if (paramName == null) {
+      return FULL;
+    }
+    for (Rendition rendition : values()) {
+      if (rendition.paramName.equals(paramName)) {
+        return rendition;
+      }
+    }
+    return null;
+  }
+}
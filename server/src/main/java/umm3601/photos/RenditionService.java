@@ -0,0 +1,274 @@
+package umm3601.photos;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Makes the smaller JPEG renditions of photos (see `Rendition`) on a pool of
+ * background threads, so uploads don't wait for them.
+ *
+ * Each rendition is kept next to the photo in its shard directory, named
+ * after the photo with the rendition added (e.g., `3fa9...e1.png.thumb.jpg`).
+ * Until a rendition exists the original photo can be sent instead, and
+ * asking for a missing rendition schedules it, which is how photos from
+ * before renditions get theirs.
+ *
+ * The JDK can only read and write JPEG, PNG, GIF and BMP, so there are no
+ * renditions of other formats (like HEIC), and all renditions are JPEGs.
+ */
+public class RenditionService {
+
+  private static final String RENDITION_EXTENSION = "jpg";
+  private static final String RENDITION_FORMAT = "jpeg";
+  private static final float JPEG_QUALITY = 0.8f;
+
+  // Resizing is CPU heavy, so leave at least half the cores for requests
+  private static final int WORKERS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+  private static final int QUEUE_CAPACITY = 1000;
+  private static final long KEEP_ALIVE_SECONDS = 60;
+
+  // The threads are daemons so they don't keep the server from exiting, and
+  // idle ones exit, so a service that is thrown away leaves no threads
+  private final AtomicInteger workerCount = new AtomicInteger();
+  private final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+      WORKERS, WORKERS, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+      new LinkedBlockingQueue<>(QUEUE_CAPACITY),
+      task -> {
+        Thread worker = new Thread(task, "photo-renditions-" + workerCount.incrementAndGet());
+        worker.setDaemon(true);
+        return worker;
+      });
+
+  // The photos with renditions queued or being made, so that lots of
+  // requests for a missing rendition only make it once
+  private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+  private final Path directory;
+
+  /**
+   * @param directory The photo directory the photos and renditions are in
+   */
+  public RenditionService(Path directory) {
+    this.directory = directory;
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Where a rendition of a photo is kept, whether or not it exists yet.
+   *
+   * @param fileName  The name of the photo
+   * @param rendition Which rendition; this can't be `FULL`
+   * @return The path to the rendition
+   */
+  Path pathFor(String fileName, Rendition rendition) {
+    String renditionName = fileName + "." + rendition.paramName() + "." + RENDITION_EXTENSION;
+    return PhotoStore.shardedPath(directory, renditionName);
+  }
+
+  /**
+   * Finds a rendition of a photo.
+   *
+   * If the rendition hasn't been made (e.g., the photo was uploaded before
+   * we made renditions) it is scheduled, so it'll be there next time.
+   *
+   * @param fileName  The name of the photo
+   * @param rendition Which rendition; this can't be `FULL`
+   * @return The path to the rendition, or `null` if it isn't ready
+   */
+  public Path find(String fileName, Rendition rendition) {
+    Path path = pathFor(fileName, rendition);
+    if (Files.isRegularFile(path)) {
+      return path;
+    }
+    generate(fileName);
+    return null;
+  }
+
+  /**
+   * Schedules making all the renditions of a photo on the background pool.
+   *
+   * If the pool is too far behind this gives up on the photo; its
+   * renditions will be made the first time one is asked for instead.
+   *
+   * @param fileName The name of the photo
+   */
+  public void generate(String fileName) {
+    if (!pending.add(fileName)) {
+      return;
+    }
+    try {
+      executor.execute(() -> {
+        try {
+          generateNow(fileName);
+        } catch (IOException | RuntimeException e) {
+          System.err.println("Could not make renditions of photo " + fileName + ": " + e);
+        } finally {
+          pending.remove(fileName);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      pending.remove(fileName);
+      System.err.println("Too many photos waiting for renditions; skipping " + fileName + " for now");
+    }
+  }
+
+  /**
+   * Makes all the renditions of a photo on this thread.
+   *
+   * The photo is decoded once, at the lowest resolution that is still at
+   * least as big as the largest rendition, and every rendition is made from
+   * that. Decoding a 12 megapixel photo at a quarter of its size takes a
+   * fraction of the time and memory of decoding all of it.
+   *
+   * @param fileName The name of the photo
+   * @return false if the photo isn't in a format we can read
+   * @throws IOException if the photo can't be read or a rendition can't be
+   *                     written
+   */
+  boolean generateNow(String fileName) throws IOException {
+    BufferedImage image = decode(PhotoStore.locate(directory, fileName), largestDimension());
+    if (image == null) {
+      return false;
+    }
+    for (Rendition rendition : Rendition.values()) {
+      if (!rendition.isOriginal()) {
+        write(scale(image, rendition.maxDimension()), pathFor(fileName, rendition));
+      }
+    }
+
+    // If the photo was deleted while we were working, don't leave its
+    // renditions behind
+    if (!Files.exists(PhotoStore.locate(directory, fileName))) {
+      delete(fileName);
+    }
+    return true;
+  }
+
+  /**
+   * Deletes all the renditions of a photo.
+   *
+   * @param fileName The name of the photo
+   * @throws IOException if a rendition can't be deleted
+   */
+  public void delete(String fileName) throws IOException {
+    for (Rendition rendition : Rendition.values()) {
+      if (!rendition.isOriginal()) {
+        Files.deleteIfExists(pathFor(fileName, rendition));
+      }
+    }
+  }
+
+  private static int largestDimension() {
+    int largest = 0;
+    for (Rendition rendition : Rendition.values()) {
+      largest = Math.max(largest, rendition.maxDimension());
+    }
+    return largest;
+  }
+
+  /**
+   * Reads a photo, skipping rows and columns of pixels as long as what's
+   * left still has a side at least `minDimension` long.
+   *
+   * @return The photo, or `null` if it isn't in a format we can read
+   */
+  static BufferedImage decode(Path photo, int minDimension) throws IOException {
+    try (ImageInputStream in = ImageIO.createImageInputStream(photo.toFile())) {
+      Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+      if (readers == null || !readers.hasNext()) {
+        return null;
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(in, true, true);
+        int longestSide = Math.max(reader.getWidth(0), reader.getHeight(0));
+        int subsampling = Math.max(1, longestSide / minDimension);
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        return reader.read(0, param);
+      } finally {
+        reader.dispose();
+      }
+    }
+  }
+
+  /**
+   * Shrinks an image to fit in a `maxDimension` square, keeping its aspect
+   * ratio. Images that already fit are copied at their own size.
+   *
+   * The image is halved a step at a time rather than shrunk all at once,
+   * since a single bilinear step skips most of the pixels and looks grainy.
+   * The result has no alpha channel (transparent areas become white), since
+   * JPEG can't store one.
+   */
+  static BufferedImage scale(BufferedImage image, int maxDimension) {
+    double factor = Math.min(1.0, (double) maxDimension / Math.max(image.getWidth(), image.getHeight()));
+    int targetWidth = Math.max(1, (int) Math.round(image.getWidth() * factor));
+    int targetHeight = Math.max(1, (int) Math.round(image.getHeight() * factor));
+
+    BufferedImage current = image;
+    int width = image.getWidth();
+    int height = image.getHeight();
+    do {
+      width = Math.max(targetWidth, width / 2);
+      height = Math.max(targetHeight, height / 2);
+      BufferedImage next = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+      Graphics2D graphics = next.createGraphics();
+      try {
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(current, 0, 0, width, height, Color.WHITE, null);
+      } finally {
+        graphics.dispose();
+      }
+      current = next;
+    } while (width != targetWidth || height != targetHeight);
+    return current;
+  }
+
+  /**
+   * Writes an image as a JPEG. It's written to a temporary file and then
+   * moved into place, so nobody is ever sent half a rendition.
+   */
+  private static void write(BufferedImage image, Path target) throws IOException {
+    Files.createDirectories(target.getParent());
+    Path temp = Files.createTempFile(target.getParent(), PhotoStore.TEMP_PREFIX, PhotoStore.TEMP_SUFFIX);
+    try {
+      ImageWriter writer = ImageIO.getImageWritersByFormatName(RENDITION_FORMAT).next();
+      try (ImageOutputStream out = ImageIO.createImageOutputStream(temp.toFile())) {
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(JPEG_QUALITY);
+        writer.setOutput(out);
+        writer.write(null, new IIOImage(image, null, null), param);
+      } finally {
+        writer.dispose();
+      }
+      Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+}
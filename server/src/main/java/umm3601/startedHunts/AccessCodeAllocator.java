@@ -0,0 +1,159 @@
+package umm3601.startedHunts;
+
+import static com.mongodb.client.model.Filters.eq;
+
+import java.util.BitSet;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.mongojack.JacksonMongoCollection;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.model.Projections;
+
+import io.javalin.http.ServiceUnavailableResponse;
+
+/**
+ * Hands out the 6-digit access codes that teams use to join a StartedHunt,
+ * making sure no two active hunts get the same code.
+ *
+ * The codes of the active hunts are kept in a bitmap with one bit for each
+ * of the 900,000 possible codes (about 110KB), loaded from the database when
+ * the server starts. Picking a free code is then a random guess and, if that
+ * code is taken, a jump to the next free bit, instead of a guess that might
+ * quietly collide with another hunt.
+ *
+ * Another server using the same database has its own bitmap, so the unique
+ * index on the codes of active hunts (see `IndexManager`) is the real
+ * guarantee. If an insert hits it, that code is marked as taken here and we
+ * try another.
+ */
+public class AccessCodeAllocator {
+
+  public static final int CODE_MIN = 100000;
+  public static final int CODE_RANGE = 900000;
+  public static final int CODE_LENGTH = 6;
+
+  // How many codes to try before giving up on inserting a hunt
+  private static final int MAX_ATTEMPTS = 10;
+
+  private final JacksonMongoCollection<StartedHunt> startedHuntCollection;
+  private final BitSet active = new BitSet(CODE_RANGE);
+
+  /**
+   * Makes an allocator and loads the codes of the active hunts.
+   *
+   * @param startedHuntCollection The StartedHunts, whose codes we hand out
+   */
+  public AccessCodeAllocator(JacksonMongoCollection<StartedHunt> startedHuntCollection) {
+    this.startedHuntCollection = startedHuntCollection;
+    reload();
+  }
+
+  /**
+   * Forgets what we know and reads the codes of the active hunts from the
+   * database again.
+   */
+  public void reload() {
+    // Read outside the lock, so a virtual thread waiting on the database
+    // doesn't pin its carrier thread
+    BitSet loaded = new BitSet(CODE_RANGE);
+    for (StartedHunt startedHunt : startedHuntCollection.find(eq("status", true))
+        .projection(Projections.include("accessCode"))) {
+      int index = indexOf(startedHunt.accessCode);
+      if (index >= 0) {
+        loaded.set(index);
+      }
+    }
+    synchronized (this) {
+      active.clear();
+      active.or(loaded);
+    }
+  }
+
+  /**
+   * Picks a code that no active hunt we know of is using, and marks it as
+   * used.
+   *
+   * @return The new code, as 6 digits
+   * @throws ServiceUnavailableResponse if every code is in use
+   */
+  public synchronized String allocate() {
+    int start = ThreadLocalRandom.current().nextInt(CODE_RANGE);
+    int index = active.nextClearBit(start);
+    if (index >= CODE_RANGE) {
+      index = active.nextClearBit(0);
+    }
+    if (index >= CODE_RANGE) {
+      throw new ServiceUnavailableResponse("There are no access codes left for new hunts");
+    }
+    active.set(index);
+    return Integer.toString(CODE_MIN + index);
+  }
+
+  /**
+   * Marks a code as used by an active hunt. Anything that isn't a valid code
+   * (like the "1" that ended hunts have) is ignored.
+   */
+  public synchronized void markTaken(String code) {
+    int index = indexOf(code);
+    if (index >= 0) {
+      active.set(index);
+    }
+  }
+
+  /**
+   * Makes a code available again, because its hunt has ended or been
+   * deleted.
+   */
+  public synchronized void release(String code) {
+    int index = indexOf(code);
+    if (index >= 0) {
+      active.clear(index);
+    }
+  }
+
+  /**
+   * The number of codes in use.
+   */
+  public synchronized int activeCount() {
+    return active.cardinality();
+  }
+
+  /**
+   * Gives a StartedHunt a new access code and inserts it. If another server
+   * took the same code first, the insert fails on the unique index and we try
+   * again with a different code.
+   *
+   * @param startedHunt The hunt to insert; its `accessCode` is set here
+   * @return The hunt's access code
+   * @throws ServiceUnavailableResponse if no free code could be found
+   */
+  public String insertWithNewCode(StartedHunt startedHunt) {
+    for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+      String code = allocate();
+      startedHunt.accessCode = code;
+      try {
+        startedHuntCollection.insertOne(startedHunt);
+        return code;
+      } catch (MongoWriteException e) {
+        if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+          release(code);
+          throw e;
+        }
+        // Another server gave this code to one of its hunts, so leave it
+        // marked as taken
+        System.err.println("Access code " + code + " was already in use; trying another");
+      }
+    }
+    throw new ServiceUnavailableResponse("Could not find a free access code for the new hunt");
+  }
+
+  private static int indexOf(String code) {
+    if (code == null || code.length() != CODE_LENGTH || !code.chars().allMatch(c -> c >= '0' && c <= '9')) {
+      return -1;
+    }
+    int index = Integer.parseInt(code) - CODE_MIN;
+    return index >= 0 && index < CODE_RANGE ? index : -1;
+  }
+}
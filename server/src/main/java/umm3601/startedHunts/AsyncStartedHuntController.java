@@ -0,0 +1,83 @@
+package umm3601.startedHunts;
+
+import static com.mongodb.client.model.Filters.eq;
+
+import java.util.concurrent.CompletableFuture;
+
+import com.mongodb.reactivestreams.client.MongoCollection;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+import umm3601.Controller;
+import umm3601.JsonBytes;
+import umm3601.Publishers;
+import umm3601.ReactiveCollections;
+import umm3601.SharedServices;
+import umm3601.SingleFlight;
+
+/**
+ * The asynchronous version of `StartedHuntController.getStartedHunt`, which
+ * hunters call to join a hunt.
+ *
+ * It answers the same way, from the same cache, but queries Mongo with the
+ * reactive driver and hands Javalin a future, so the request thread goes
+ * back to Jetty instead of waiting for the database.
+ */
+public class AsyncStartedHuntController implements Controller {
+
+  private static final String API_STARTEDHUNT_ACCESSCODE = "/api/async/startedHunts/{accessCode}";
+
+  private final MongoCollection<StartedHunt> startedHuntCollection;
+  private final JoinCache joinCache;
+  private final SingleFlight<byte[]> joinFlight;
+
+  public AsyncStartedHuntController(SharedServices services, ReactiveCollections reactiveCollections) {
+    startedHuntCollection = reactiveCollections.startedHunts();
+    joinCache = services.joinCache();
+    // Shared with StartedHuntController, so blocking and asynchronous joins
+    // of the same hunt share one load
+    joinFlight = services.singleFlight("getStartedHunt");
+  }
+
+  /**
+   * Retrieves a joinable StartedHunt by its access code, like
+   * `StartedHuntController.getStartedHunt`.
+   *
+   * @param ctx a Javalin Context object with the HTTP request information.
+   */
+  public void getStartedHunt(Context ctx) {
+    String accessCode = ctx.pathParam("accessCode");
+    byte[] cached = joinCache.get(accessCode);
+
+    if (cached != null) {
+      JsonBytes.send(ctx, cached);
+      ctx.status(HttpStatus.OK);
+      return;
+    }
+
+    ctx.future(() -> joinFlight.runAsync(accessCode, () -> loadJoinableHunt(accessCode))
+        .thenAccept(json -> {
+          JsonBytes.send(ctx, json);
+          ctx.status(HttpStatus.OK);
+        }));
+  }
+
+  private CompletableFuture<byte[]> loadJoinableHunt(String accessCode) {
+    StartedHuntController.checkAccessCode(accessCode);
+    long generation = joinCache.generation();
+
+    return Publishers.first(startedHuntCollection.find(eq("accessCode", accessCode)).first())
+        .thenApply(found -> {
+          StartedHunt startedHunt = StartedHuntController.checkJoinable(found);
+          byte[] loaded = JsonBytes.of(startedHunt, StartedHunt.class);
+          joinCache.put(accessCode, startedHunt._id, loaded, generation);
+          return loaded;
+        });
+  }
+
+  @Override
+  public void addRoutes(Javalin server) {
+    server.get(API_STARTEDHUNT_ACCESSCODE, this::getStartedHunt);
+  }
+}
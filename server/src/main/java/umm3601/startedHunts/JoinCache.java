@@ -0,0 +1,172 @@
+package umm3601.startedHunts;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps the JSON of recently joined StartedHunts, by access code, so that
+ * when a whole class joins the same hunt we only query and serialize it once.
+ *
+ * The cache is limited by the total size of the JSON it holds; when it gets
+ * too big, the hunts that were joined least recently are dropped.
+ *
+ * Anything that changes a StartedHunt has to call `invalidate` with its ID,
+ * or teams will keep joining the old version. A lookup that started before
+ * its hunt was invalidated isn't allowed to put its (possibly old) JSON in
+ * the cache afterwards; that's what `generation` is for. Invalidating one
+ * hunt doesn't stop lookups of other hunts from being cached, since uploads
+ * to other hunts go on while a class is joining.
+ *
+ * Each server has its own cache, and `invalidate` only reaches this one, so
+ * a hunt that is ended or deleted through another server could otherwise
+ * stay joinable here for as long as teams keep joining it. Each hunt is only
+ * kept for a few seconds (`DEFAULT_TTL`) after it was loaded, so that's the
+ * longest another server's change can take to show up here.
+ */
+public class JoinCache {
+
+  public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+  public static final Duration DEFAULT_TTL = Duration.ofSeconds(5);
+
+  private static final int INITIAL_CAPACITY = 64;
+  private static final float LOAD_FACTOR = 0.75f;
+  // How many invalidated hunts to remember (see `invalidatedIn`)
+  private static final int MAX_INVALIDATIONS = 1024;
+
+  private record Entry(String startedHuntId, byte[] json, long expiresAt) {
+  }
+
+  private final long maxBytes;
+  private final long ttlNanos;
+  private final LongSupplier nanoTime;
+  // In access order, so the first entry is the least recently used
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, true);
+  private final Map<String, String> accessCodesById = new HashMap<>();
+  private long totalBytes;
+  private long generation;
+  // The generation each recently invalidated hunt was last invalidated in.
+  // When there are too many to remember they're all forgotten, and `floor`
+  // is raised instead, which turns away every lookup that started before.
+  private final Map<String, Long> invalidatedIn = new HashMap<>();
+  private long floor;
+
+  public JoinCache() {
+    this(DEFAULT_MAX_BYTES);
+  }
+
+  /**
+   * @param maxBytes The most JSON to keep, in bytes
+   */
+  public JoinCache(long maxBytes) {
+    this(maxBytes, DEFAULT_TTL, System::nanoTime);
+  }
+
+  /**
+   * @param maxBytes The most JSON to keep, in bytes
+   * @param ttl      How long to keep each hunt after it was loaded
+   * @param nanoTime The clock to time that by, like `System.nanoTime`
+   */
+  JoinCache(long maxBytes, Duration ttl, LongSupplier nanoTime) {
+    this.maxBytes = maxBytes;
+    this.ttlNanos = ttl.toNanos();
+    this.nanoTime = nanoTime;
+  }
+
+  /**
+   * Gets the JSON of the hunt with the given access code.
+   *
+   * @return The JSON, or null if it isn't cached (or has been for too long)
+   */
+  public synchronized byte[] get(String accessCode) {
+    Entry entry = entries.get(accessCode);
+    if (entry == null) {
+      return null;
+    }
+    if (nanoTime.getAsLong() - entry.expiresAt() >= 0) {
+      remove(accessCode);
+      return null;
+    }
+    return entry.json();
+  }
+
+  /**
+   * A number that changes every time something is invalidated. Get this
+   * before loading a hunt, and pass it to `put`.
+   */
+  public synchronized long generation() {
+    return generation;
+  }
+
+  /**
+   * Caches the JSON of a hunt, unless the hunt was invalidated since
+   * `generation` was called (since the JSON may be out of date already).
+   *
+   * @param accessCode    The hunt's access code
+   * @param startedHuntId The hunt's ID, which it will be invalidated by
+   * @param json          The hunt as JSON
+   * @param generationSeen What `generation` returned before the hunt was loaded
+   */
+  public synchronized void put(String accessCode, String startedHuntId, byte[] json, long generationSeen) {
+    if (generationSeen < floor || invalidatedIn.getOrDefault(startedHuntId, floor) > generationSeen
+        || json.length > maxBytes) {
+      return;
+    }
+    remove(accessCode);
+    entries.put(accessCode, new Entry(startedHuntId, json, nanoTime.getAsLong() + ttlNanos));
+    accessCodesById.put(startedHuntId, accessCode);
+    totalBytes += json.length;
+
+    Iterator<Map.Entry<String, Entry>> oldest = entries.entrySet().iterator();
+    while (totalBytes > maxBytes && oldest.hasNext()) {
+      Entry evicted = oldest.next().getValue();
+      oldest.remove();
+      accessCodesById.remove(evicted.startedHuntId());
+      totalBytes -= evicted.json().length;
+    }
+  }
+
+  /**
+   * Forgets a hunt because it has changed (or ended, or been deleted).
+   *
+   * @param startedHuntId The ID of the hunt
+   */
+  public synchronized void invalidate(String startedHuntId) {
+    generation++;
+    if (invalidatedIn.size() >= MAX_INVALIDATIONS) {
+      invalidatedIn.clear();
+      floor = generation;
+    } else {
+      invalidatedIn.put(startedHuntId, generation);
+    }
+    String accessCode = accessCodesById.get(startedHuntId);
+    if (accessCode != null) {
+      remove(accessCode);
+    }
+  }
+
+  /**
+   * The number of hunts cached.
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * The total size of the cached JSON, in bytes.
+   */
+  public synchronized long bytes() {
+    return totalBytes;
+  }
+
+  private void remove(String accessCode) {
+    Entry entry = entries.remove(accessCode);
+    if (entry != null) {
+      accessCodesById.remove(entry.startedHuntId());
+      totalBytes -= entry.json().length;
+    }
+  }
+}
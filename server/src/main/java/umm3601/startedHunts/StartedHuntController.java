@@ -2,12 +2,12 @@ package umm3601.startedHunts;
 
 import static com.mongodb.client.model.Filters.eq;
 
+import java.io.IOException;
 import java.util.Date;
-import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Random;
+import java.util.Map;
 
-import org.bson.UuidRepresentation;
 import org.bson.types.ObjectId;
 import org.mongojack.JacksonMongoCollection;
 
@@ -18,9 +18,17 @@ import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
 import io.javalin.http.HttpStatus;
 import io.javalin.http.NotFoundResponse;
+import umm3601.CollectionRegistry;
 import umm3601.Controller;
+import umm3601.JsonBytes;
+import umm3601.KeysetPagination;
+import umm3601.SharedServices;
+import umm3601.SingleFlight;
 import umm3601.host.CompleteHunt;
 import umm3601.host.HostController;
+import umm3601.host.Task;
+import umm3601.photos.PhotoArchive;
+import umm3601.photos.PhotoStore;
 import umm3601.teams.Submission;
 import umm3601.teams.SubmissionController;
 import umm3601.teams.Team;
@@ -34,48 +42,50 @@ public class StartedHuntController implements Controller {
   private static final String API_STARTEDHUNT_HOSTID = "/api/startedHunts/host/{hostId}";
   private static final String API_ENDED_HUNTS = "/api/endedHunts";
   private static final String API_STARTEDHUNTS_ID = "/api/startedHunt/{id}";
+  private static final String API_STARTEDHUNT_EXPORT = "/api/startedHunt/{id}/export";
+
+  // The folder for photos of submissions whose task isn't in the hunt any more
+  private static final String OTHER_TASKS_FOLDER = "Other tasks";
 
   static final String HOST_KEY = "hostId";
   static final String STARTEDHUNT_HOST_KEY = "completeHunt.hunt.hostId";
 
-  private static final int ACCESS_CODE_MIN = 100000;
-  private static final int ACCESS_CODE_RANGE = 900000;
-  private static final int ACCESS_CODE_LENGTH = 6;
+  private static final int ACCESS_CODE_LENGTH = AccessCodeAllocator.CODE_LENGTH;
 
+  private final MongoDatabase database;
   private final JacksonMongoCollection<StartedHunt> startedHuntCollection;
+  private final AccessCodeAllocator accessCodes;
+  private final JoinCache joinCache;
+  private final SingleFlight<byte[]> joinFlight;
 
   private SubmissionController submissionController;
   private TeamController teamController;
   private HostController hostController;
-
-  public StartedHuntController(MongoDatabase database) {
-
-    startedHuntCollection = JacksonMongoCollection.builder().build(
-        database,
-        "startedHunts",
-        StartedHunt.class,
-        UuidRepresentation.STANDARD);
-
-    submissionController = new SubmissionController(database);
-    teamController = new TeamController(database);
-    hostController = new HostController(database);
-
+  private final PhotoStore photoStore;
+
+  public StartedHuntController(CollectionRegistry collections, SharedServices services) {
+    database = collections.database();
+    startedHuntCollection = collections.startedHunts();
+    accessCodes = services.accessCodes();
+    joinCache = services.joinCache();
+    joinFlight = services.singleFlight("getStartedHunt");
+    photoStore = services.photoStore();
+
+    // These share our collections and services, so they are cheap to make
+    submissionController = new SubmissionController(collections, services);
+    teamController = new TeamController(collections, services);
+    hostController = new HostController(collections, services);
   }
 
   public void startHunt(Context ctx) {
-    CompleteHunt completeHunt = new CompleteHunt();
-    completeHunt.hunt = hostController.getHunt(ctx);
-    completeHunt.tasks = hostController.getTasks(ctx);
+    CompleteHunt completeHunt = hostController.loadCompleteHunt(ctx);
 
     StartedHunt startedHunt = new StartedHunt();
-    Random random = new Random();
-    int accessCode = ACCESS_CODE_MIN + random.nextInt(ACCESS_CODE_RANGE); // Generate a random 6-digit number
-    startedHunt.accessCode = String.format("%06d", accessCode); // Convert the number to a string
     startedHunt.completeHunt = completeHunt; // Assign the completeHunt to the startedHunt
     startedHunt.status = true; // true means the hunt is active
     startedHunt.endDate = null; // null endDate until the hunt is ended
-    // Insert the StartedHunt into the startedHunt collection
-    startedHuntCollection.insertOne(startedHunt);
+    // Insert the StartedHunt with an access code no other active hunt has
+    accessCodes.insertWithNewCode(startedHunt);
 
     ctx.json(startedHunt.accessCode);
     ctx.status(HttpStatus.CREATED);
@@ -89,29 +99,48 @@ public class StartedHuntController implements Controller {
    * If a valid, joinable hunt is found, it is returned and its details are sent
    * as a JSON response.
    *
+   * Joinable hunts are cached as JSON, so when a whole class joins the same
+   * hunt it's only loaded from the database once. Requests that miss the
+   * cache at the same time share that one load.
+   *
    * @param ctx a Javalin Context object with the HTTP request information.
-   * @return a StartedHunt object if a valid, joinable hunt is found; otherwise,
-   *         an exception is thrown.
    */
-  public StartedHunt getStartedHunt(Context ctx) {
+  public void getStartedHunt(Context ctx) {
     String accessCode = ctx.pathParam("accessCode");
-    StartedHunt startedHunt;
+    byte[] json = joinCache.get(accessCode);
+
+    if (json == null) {
+      json = joinFlight.run(accessCode, () -> {
+        long generation = joinCache.generation();
+        StartedHunt startedHunt = loadJoinableHunt(accessCode);
+        byte[] loaded = JsonBytes.of(startedHunt, StartedHunt.class);
+        joinCache.put(accessCode, startedHunt._id, loaded, generation);
+        return loaded;
+      });
+    }
+
+    JsonBytes.send(ctx, json);
+    ctx.status(HttpStatus.OK);
+  }
+
+  private StartedHunt loadJoinableHunt(String accessCode) {
+    checkAccessCode(accessCode);
+    return checkJoinable(startedHuntCollection.find(eq("accessCode", accessCode)).first());
+  }
 
+  static void checkAccessCode(String accessCode) {
     if (accessCode.length() != ACCESS_CODE_LENGTH || !accessCode.matches("\\d+")) {
       throw new BadRequestResponse("The requested access code is not a valid access code.");
     }
+  }
 
-    startedHunt = startedHuntCollection.find(eq("accessCode", accessCode)).first();
-
+  static StartedHunt checkJoinable(StartedHunt startedHunt) {
     if (startedHunt == null) {
       throw new NotFoundResponse("The requested access code was not found.");
     } else if (!startedHunt.status) {
       throw new BadRequestResponse("The requested hunt is no longer joinable.");
-    } else {
-      ctx.json(startedHunt);
-      ctx.status(HttpStatus.OK);
-      return startedHunt;
     }
+    return startedHunt;
   }
 
   /**
@@ -142,28 +171,28 @@ public class StartedHuntController implements Controller {
   /**
    * Retrieves all started hunts from the startedHuntCollection.
    * The list of started hunts is sent as a JSON response.
+   * A `fields` query parameter (like `completeHunt.hunt.name,status`) asks for
+   * just those fields of each hunt, which is much smaller than whole hunts.
    *
    * @param ctx a Javalin Context object with the HTTP request information.
    */
   public void getStartedHuntsByHostId(Context ctx) {
     String hostId = ctx.pathParam(HOST_KEY);
-    List<StartedHunt> startedHunts = startedHuntCollection.find(eq(STARTEDHUNT_HOST_KEY, hostId))
-        .into(new ArrayList<>());
-    ctx.json(startedHunts);
     ctx.status(HttpStatus.OK);
+    KeysetPagination.send(ctx, startedHuntCollection, database, eq(STARTEDHUNT_HOST_KEY, hostId), null);
   }
 
   /**
    * Retrieves all ended hunts from the startedHuntCollection.
    * Hunts are considered ended if their status is false.
-   * The list of ended hunts is sent as a JSON response.
+   * The list of ended hunts is sent as a JSON response, with just the
+   * fields asked for if there is a `fields` query parameter.
    *
    * @param ctx a Javalin Context object with the HTTP request information.
    */
   public void getEndedHunts(Context ctx) {
-    List<StartedHunt> endedHunts = startedHuntCollection.find(eq("status", false)).into(new ArrayList<>());
-    ctx.json(endedHunts);
     ctx.status(HttpStatus.OK);
+    KeysetPagination.send(ctx, startedHuntCollection, database, eq("status", false), null);
   }
 
   /**
@@ -182,10 +211,13 @@ public class StartedHuntController implements Controller {
     if (startedHunt == null) {
       throw new NotFoundResponse("The requested started hunt was not found.");
     } else {
+      String accessCode = startedHunt.accessCode;
       startedHunt.status = false;
       startedHunt.accessCode = "1";
       startedHunt.endDate = new Date();
       startedHuntCollection.save(startedHunt);
+      joinCache.invalidate(id);
+      accessCodes.release(accessCode);
       ctx.status(HttpStatus.OK);
     }
   }
@@ -193,8 +225,8 @@ public class StartedHuntController implements Controller {
   /**
    * Deletes a StartedHunt identified by the ID from the Javalin Context.
    * If the StartedHunt exists, it retrieves the list of submission IDs and
-   * deletes all associated submissions. It also deletes all teams associated
-   * with the StartedHunt.
+   * deletes all associated submissions and their photos, in bulk. It also
+   * deletes all teams associated with the StartedHunt.
    * Finally, it removes the StartedHunt from the collection.
    * If successful, the HTTP status is set to NO_CONTENT.
    *
@@ -208,24 +240,83 @@ public class StartedHuntController implements Controller {
       throw new NotFoundResponse("The started hunt with id " + id + " was not found");
     }
 
-    // Get the list of submissionIds from the startedHunt
+    // Delete all the submissions (and their photos) and teams in a few
+    // queries, rather than a few for each submission
     List<String> submissionIds = startedHunt.getSubmissionIds();
+    System.out.println("Deleting started hunt " + id + " with " + submissionIds.size() + " submissions");
+    long deletedSubmissions = submissionController.deleteSubmissions(submissionIds);
+    teamController.deleteTeamsByStartedHuntId(id);
+
+    startedHuntCollection.removeById(id);
+    System.out.println("Deleted started hunt " + id + " and " + deletedSubmissions + " submissions");
+    joinCache.invalidate(id);
+    if (Boolean.TRUE.equals(startedHunt.status)) {
+      accessCodes.release(startedHunt.accessCode);
+    }
+    ctx.status(HttpStatus.NO_CONTENT);
+  }
 
-    // Delete all submissions with those IDs
-    for (String submissionId : submissionIds) {
-      Submission submission = submissionController.getSubmission(submissionId);
-      if (submission != null) {
-        submissionController.deleteSubmission(ctx, submissionId);
+  /**
+   * Sends a ZIP file of all the photos from a StartedHunt identified by the
+   * ID from the Javalin Context.
+   * There is a folder for each task, holding the task's photos and a folder
+   * of each team's submitted photo for that task.
+   * The ZIP is streamed as it is made, so the download starts right away
+   * and no copy of it is kept on the server.
+   * If the hunt is not found, a NotFoundResponse is thrown.
+   *
+   * @param ctx a Javalin Context object with the HTTP request information.
+   */
+  public void exportPhotos(Context ctx) {
+    String id = ctx.pathParam("id");
+    StartedHunt startedHunt;
+    try {
+      startedHunt = startedHuntCollection.find(eq("_id", new ObjectId(id))).first();
+    } catch (IllegalArgumentException e) {
+      throw new BadRequestResponse("The requested started hunt id wasn't a legal Mongo Object ID.");
+    }
+    if (startedHunt == null) {
+      throw new NotFoundResponse("The requested started hunt was not found");
+    }
+
+    PhotoArchive archive = new PhotoArchive(photoStore);
+    Map<String, String> taskFolders = new HashMap<>();
+    for (Task task : startedHunt.completeHunt.tasks) {
+      String taskFolder = archive.folder("", task.name);
+      taskFolders.put(task._id, taskFolder);
+      for (String photo : task.photos) {
+        archive.add(taskFolder, photo);
       }
     }
-    // Delete all teams associated with the StartedHunt
-    List<Team> teams = teamController.getTeamsByStartedHuntId(id);
-    if (teams != null && !teams.isEmpty()) {
-      teamController.deleteTeamsByStartedHuntId(id);
+
+    Map<String, String> teamNames = new HashMap<>();
+    for (Team team : teamController.getTeamsByStartedHuntId(id)) {
+      teamNames.put(team._id, team.teamName);
+    }
+    Map<String, String> teamFolders = new HashMap<>();
+    for (Submission submission : submissionController.getSubmissions(startedHunt.getSubmissionIds())) {
+      if (submission.photoPath == null) {
+        continue;
+      }
+      String taskFolder = taskFolders.computeIfAbsent(submission.taskId, t -> archive.folder("", OTHER_TASKS_FOLDER));
+      String teamFolder = teamFolders.computeIfAbsent(taskFolder + submission.teamId,
+          t -> archive.folder(taskFolder, teamNames.getOrDefault(submission.teamId, submission.teamId)));
+      archive.add(teamFolder, submission.photoPath);
     }
 
-    startedHuntCollection.removeById(id);
-    ctx.status(HttpStatus.NO_CONTENT);
+    String huntName = startedHunt.completeHunt.hunt == null ? null : startedHunt.completeHunt.hunt.name;
+    String fileName = (huntName == null ? "hunt" : huntName).replaceAll("[^A-Za-z0-9 ._-]", "_") + " photos.zip";
+    ctx.status(HttpStatus.OK);
+    ctx.contentType(PhotoArchive.CONTENT_TYPE);
+    ctx.header("Content-Disposition", "attachment; filename=\"" + fileName + "\"");
+    try {
+      int written = archive.write(ctx.res().getOutputStream());
+      System.err.println("Exported " + written + " of " + archive.size() + " photos from started hunt " + id);
+    } catch (IOException e) {
+      // Part of the ZIP has probably been sent already, so all we can do is
+      // stop; the client will see a truncated download.
+      System.err.println("Error exporting the photos from started hunt " + id + ": " + e);
+    }
   }
 
   @Override
@@ -237,6 +328,7 @@ public class StartedHuntController implements Controller {
     server.get(API_STARTEDHUNTS_ID, this::getStartedHuntById);
     server.delete(API_STARTEDHUNTS_ID, this::deleteStartedHunt);
     server.put(API_END_HUNT, this::endStartedHunt);
+    server.get(API_STARTEDHUNT_EXPORT, this::exportPhotos);
   }
 
 }
@@ -0,0 +1,140 @@
+package umm3601.teams;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.bson.types.ObjectId;
+
+import com.mongodb.client.model.Updates;
+import com.mongodb.reactivestreams.client.MongoCollection;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+import umm3601.CollectionRegistry;
+import umm3601.Controller;
+import umm3601.JsonBytes;
+import umm3601.Publishers;
+import umm3601.ReactiveCollections;
+import umm3601.SharedServices;
+import umm3601.startedHunts.JoinCache;
+import umm3601.startedHunts.StartedHunt;
+
+/**
+ * Asynchronous versions of listing a team's submissions and of submitting a
+ * photo, the two submission endpoints every team hits during a hunt.
+ *
+ * They query Mongo with the reactive driver and hand Javalin a future, so
+ * the request thread never waits for the database.
+ */
+public class AsyncSubmissionController implements Controller {
+
+  private static final String API_SUBMISSIONS_BY_TEAM = "/api/async/submissions/team/{teamId}";
+  private static final String API_SUBMIT_PHOTO =
+      "/api/async/submissions/startedHunt/{startedHuntId}/team/{teamId}/task/{taskId}";
+
+  // Storing a photo writes a file (or a blob, with the sync driver), which
+  // blocks, so it's done on a virtual thread of its own instead of the
+  // request thread
+  private static final ExecutorService PHOTO_THREADS = Executors.newVirtualThreadPerTaskExecutor();
+
+  private final MongoCollection<Submission> submissionCollection;
+  private final MongoCollection<StartedHunt> startedHuntCollection;
+  private final JoinCache joinCache;
+  private final SubmissionController submissionController;
+
+  public AsyncSubmissionController(CollectionRegistry collections, SharedServices services,
+      ReactiveCollections reactiveCollections) {
+    submissionCollection = reactiveCollections.submissions();
+    startedHuntCollection = reactiveCollections.startedHunts();
+    joinCache = services.joinCache();
+    // For storing photos, which is the same either way
+    submissionController = new SubmissionController(collections, services);
+  }
+
+  /**
+   * Retrieves all Submissions associated with a specific team, like
+   * `SubmissionController.getSubmissionsByTeam`.
+   *
+   * A team only has one submission per task, so this always sends the whole
+   * list; it doesn't take the `limit`, `after` or `fields` parameters.
+   *
+   * @param ctx a Javalin Context object containing the HTTP request information.
+   *            Expects a "teamId" path parameter.
+   */
+  public void getSubmissionsByTeam(Context ctx) {
+    String teamId = ctx.pathParam("teamId");
+
+    ctx.future(() -> Publishers.toList(submissionCollection.find(eq("teamId", teamId)))
+        .thenAccept(submissions -> {
+          JsonBytes.send(ctx, JsonBytes.of(submissions, List.class));
+          ctx.status(HttpStatus.OK);
+        }));
+  }
+
+  /**
+   * Stores a photo and adds it to the team's submission for the task, like
+   * `SubmissionController.addPhoto`.
+   *
+   * @param ctx a Javalin Context object containing the HTTP request information.
+   *            Expects "startedHuntId", "teamId" and "taskId" path parameters
+   *            and a "photo" form field.
+   */
+  public void addPhoto(Context ctx) {
+    String startedHuntId = ctx.pathParam("startedHuntId");
+    String teamId = ctx.pathParam("teamId");
+    String taskId = ctx.pathParam("taskId");
+
+    ctx.future(() -> CompletableFuture.supplyAsync(() -> submissionController.uploadPhoto(ctx), PHOTO_THREADS)
+        .thenCompose(photoPath -> addPhotoPathToSubmission(startedHuntId, teamId, taskId, photoPath)
+            .thenAccept(done -> {
+              ctx.status(HttpStatus.CREATED);
+              ctx.json(Map.of("id", photoPath));
+            })));
+  }
+
+  private CompletableFuture<Void> addPhotoPathToSubmission(String startedHuntId, String teamId, String taskId,
+      String photoPath) {
+    return Publishers.first(submissionCollection.find(and(eq("taskId", taskId), eq("teamId", teamId))).first())
+        .thenCompose(submission -> submission == null
+            ? createSubmission(taskId, teamId, photoPath)
+            : Publishers.first(submissionCollection.findOneAndUpdate(eq("_id", new ObjectId(submission._id)),
+                Updates.set("photoPath", photoPath)))
+                // Releasing the replaced photo can delete a file, which blocks
+                .thenApplyAsync(replaced -> {
+                  submissionController.releaseReplacedPhoto(replaced == null ? null : replaced.photoPath);
+                  return submission._id;
+                }, PHOTO_THREADS))
+        // Added by the database, as in SubmissionController, so teams
+        // submitting at the same time don't lose each other's submissions
+        // and a resubmission isn't listed twice
+        .thenCompose(submissionId -> Publishers.first(startedHuntCollection.updateOne(
+            eq("_id", new ObjectId(startedHuntId)), Updates.addToSet("submissionIds", submissionId))))
+        .thenAccept(updated -> joinCache.invalidate(startedHuntId));
+  }
+
+  private CompletableFuture<String> createSubmission(String taskId, String teamId, String photoPath) {
+    Submission submission = new Submission();
+    // Chosen here rather than by the driver, so we know it without reading
+    // the submission back
+    submission._id = new ObjectId().toHexString();
+    submission.taskId = taskId;
+    submission.teamId = teamId;
+    submission.photoPath = photoPath;
+    submission.submitTime = new Date();
+    return Publishers.first(submissionCollection.insertOne(submission)).thenApply(inserted -> submission._id);
+  }
+
+  @Override
+  public void addRoutes(Javalin server) {
+    server.get(API_SUBMISSIONS_BY_TEAM, this::getSubmissionsByTeam);
+    server.post(API_SUBMIT_PHOTO, this::addPhoto);
+  }
+}
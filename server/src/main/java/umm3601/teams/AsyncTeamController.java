@@ -0,0 +1,63 @@
+package umm3601.teams;
+
+import static com.mongodb.client.model.Filters.eq;
+
+import java.util.List;
+
+import com.mongodb.reactivestreams.client.MongoCollection;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+import umm3601.Controller;
+import umm3601.JsonBytes;
+import umm3601.Publishers;
+import umm3601.ReactiveCollections;
+import umm3601.SharedServices;
+import umm3601.SingleFlight;
+
+/**
+ * The asynchronous version of `TeamController.getAllStartedHuntTeams`,
+ * which every hunter's page polls.
+ *
+ * It queries Mongo with the reactive driver and hands Javalin a future, so
+ * the request thread never waits for the database.
+ */
+public class AsyncTeamController implements Controller {
+
+  private static final String API_STARTEDHUNT_TEAMS = "/api/async/teams/startedHunt/{startedHuntId}";
+
+  private final MongoCollection<Team> teamCollection;
+  private final SingleFlight<byte[]> startedHuntTeamsFlight;
+
+  public AsyncTeamController(SharedServices services, ReactiveCollections reactiveCollections) {
+    teamCollection = reactiveCollections.teams();
+    // Shared with TeamController, so blocking and asynchronous requests for
+    // the same hunt's teams share one query
+    startedHuntTeamsFlight = services.singleFlight("getAllStartedHuntTeams");
+  }
+
+  /**
+   * Retrieves all teams associated with a specific started hunt, like
+   * `TeamController.getAllStartedHuntTeams`.
+   *
+   * @param ctx the Javalin context, which includes the request and response
+   *            objects
+   */
+  public void getAllStartedHuntTeams(Context ctx) {
+    String startedHuntId = ctx.pathParam("startedHuntId");
+
+    ctx.future(() -> startedHuntTeamsFlight.runAsync(startedHuntId,
+        () -> Publishers.toList(teamCollection.find(eq("startedHuntId", startedHuntId)))
+            .thenApply(teams -> JsonBytes.of(teams, List.class)))
+        .thenAccept(json -> {
+          JsonBytes.send(ctx, json);
+          ctx.status(HttpStatus.OK);
+        }));
+  }
+
+  @Override
+  public void addRoutes(Javalin server) {
+    server.get(API_STARTEDHUNT_TEAMS, this::getAllStartedHuntTeams);
+  }
+}
@@ -1,28 +1,24 @@
 package umm3601.teams;
 
-import java.io.File;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
 import java.util.stream.Collectors;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 
 import org.bson.Document;
-import org.bson.UuidRepresentation;
 import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
 import org.mongojack.JacksonMongoCollection;
 
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Updates;
 
 import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
@@ -33,7 +29,13 @@ import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
 import io.javalin.http.HttpStatus;
 import io.javalin.http.NotFoundResponse;
+import umm3601.CollectionRegistry;
 import umm3601.Controller;
+import umm3601.KeysetPagination;
+import umm3601.SharedServices;
+import umm3601.photos.PhotoSender;
+import umm3601.photos.PhotoStore;
+import umm3601.startedHunts.JoinCache;
 import umm3601.startedHunts.StartedHunt;
 // adding this to hopefully get droplet to refresh cache
 public class SubmissionController implements Controller {
@@ -46,31 +48,24 @@ public class SubmissionController implements Controller {
   private static final String API_SUBMIT_PHOTO =
    "/api/submissions/startedHunt/{startedHuntId}/team/{teamId}/task/{taskId}";
   private static final String API_SUBMISSION_GET_PHOTO = "/api/submissions/{id}/photo";
+  private static final String API_SUBMISSION_GET_RAW_PHOTO = "/api/submissions/{id}/photo/raw";
 
+  private static final String BASE64_ETAG_SUFFIX = ".base64";
+
+  private final MongoDatabase database;
   private final JacksonMongoCollection<Submission> submissionCollection;
   private final JacksonMongoCollection<StartedHunt> startedHuntCollection;
+  private final JoinCache joinCache;
 
-  public SubmissionController(MongoDatabase database) {
-
-    submissionCollection = JacksonMongoCollection.builder().build(
-        database,
-        "submissions",
-        Submission.class,
-        UuidRepresentation.STANDARD);
-
-    startedHuntCollection = JacksonMongoCollection.builder().build(
-        database,
-        "startedHunts",
-        StartedHunt.class,
-        UuidRepresentation.STANDARD);
-
-    File directory = new File("photos");
-    if (!directory.exists()) {
-      boolean dirCreated = directory.mkdir();
-      if (!dirCreated) {
-        System.out.println("Did not create photos directory because one already exists");
-      }
-    }
+  private final PhotoSender photoSender = new PhotoSender();
+  private final PhotoStore photoStore;
+
+  public SubmissionController(CollectionRegistry collections, SharedServices services) {
+    database = collections.database();
+    submissionCollection = collections.submissions();
+    startedHuntCollection = collections.startedHunts();
+    joinCache = services.joinCache();
+    photoStore = services.photoStore();
   }
 
   /**
@@ -128,9 +123,8 @@ public class SubmissionController implements Controller {
    */
   public void getSubmissionsByTeam(Context ctx) {
     String teamId = ctx.pathParam("teamId");
-    ArrayList<Submission> teamSubmissions = submissionCollection.find(eq("teamId", teamId)).into(new ArrayList<>());
-    ctx.json(teamSubmissions);
     ctx.status(HttpStatus.OK);
+    KeysetPagination.send(ctx, submissionCollection, database, eq("teamId", teamId), null);
   }
 
   /**
@@ -144,9 +138,8 @@ public class SubmissionController implements Controller {
    */
   public void getSubmissionsByTask(Context ctx) {
     String taskId = ctx.pathParam("taskId");
-    List<Submission> taskSubmissions = submissionCollection.find(eq("taskId", taskId)).into(new ArrayList<>());
-    ctx.json(taskSubmissions);
     ctx.status(HttpStatus.OK);
+    KeysetPagination.send(ctx, submissionCollection, database, eq("taskId", taskId), null);
   }
 
   /**
@@ -202,15 +195,25 @@ public class SubmissionController implements Controller {
       List<String> submissionIds = startedHunt.getSubmissionIds();
 
       // Fetch all submissions with those IDs
-      List<Submission> submissions = submissionCollection
-          .find(in("_id", submissionIds.stream().map(ObjectId::new).collect(Collectors.toList())))
-          .into(new ArrayList<>());
-
-      ctx.json(submissions);
+      Bson inHunt = in("_id", submissionIds.stream().map(ObjectId::new).collect(Collectors.toList()));
       ctx.status(HttpStatus.OK);
+      KeysetPagination.send(ctx, submissionCollection, database, inHunt, null);
     }
   }
 
+  /**
+   * Gets the Submissions with the given IDs, like those of a StartedHunt.
+   *
+   * @param submissionIds The IDs of the Submissions to get.
+   * @return The Submissions that exist; IDs that don't match a Submission are
+   *         skipped.
+   */
+  public List<Submission> getSubmissions(List<String> submissionIds) {
+    return submissionCollection
+        .find(in("_id", submissionIds.stream().map(ObjectId::new).collect(Collectors.toList())))
+        .into(new ArrayList<>());
+  }
+
   /**
    * Deletes a Submission from the database.
    *
@@ -227,10 +230,12 @@ public class SubmissionController implements Controller {
       throw new NotFoundResponse("The requested submission was not found.");
     }
 
-    // Delete the photo associated with the submission
+    // Drop the submission's reference to its photo, which deletes the file
+    // if no other submission or task uses the same photo
     try {
-      Path photoPath = Paths.get("photos/" + submission.photoPath);
-      Files.deleteIfExists(photoPath);
+      if (submission.photoPath != null) {
+        photoStore.release(submission.photoPath);
+      }
     } catch (IOException e) {
       ctx.status(HttpStatus.INTERNAL_SERVER_ERROR).result("Error deleting file: " + e.getMessage());
       return;
@@ -240,12 +245,18 @@ public class SubmissionController implements Controller {
   }
 
   /**
-   * Deletes multiple submissions from the database.
-   * Takes an ArrayList of submissionIds as input, converts them to ObjectIds,
-   * and creates a filter to match the _id field to any of the submissionIds.
-   * All matching documents in the submissionCollection are then deleted.
+   * Deletes multiple submissions from the database, and drops their
+   * references to their photos (deleting any photo nothing else uses).
+   *
+   * The submissions' photos are found with one query and the submissions
+   * are deleted with one `deleteMany`, however many there are. The photos
+   * are then released a few at a time in parallel (see
+   * `PhotoStore.releaseAll`).
+   *
+   * @param submissionIds The IDs of the submissions to delete
+   * @return The number of submissions deleted
    */
-  public void deleteSubmissions(ArrayList<String> submissionIds) {
+  public long deleteSubmissions(List<String> submissionIds) {
     // Convert submissionIds to a list of ObjectId
     List<ObjectId> objectIds = submissionIds.stream()
         .map(ObjectId::new)
@@ -254,8 +265,17 @@ public class SubmissionController implements Controller {
     // Create a filter that matches the _id field to any of the submissionIds
     Bson filter = Filters.in("_id", objectIds);
 
+    List<String> photoPaths = new ArrayList<>();
+    for (Submission submission : submissionCollection.find(filter).projection(Projections.include("photoPath"))) {
+      if (submission.photoPath != null) {
+        photoPaths.add(submission.photoPath);
+      }
+    }
+
     // Delete all matching documents
-    submissionCollection.deleteMany(filter);
+    long deleted = submissionCollection.deleteMany(filter).getDeletedCount();
+    photoStore.releaseAll(photoPaths);
+    return deleted;
   }
 
   /*
@@ -302,8 +322,9 @@ public class SubmissionController implements Controller {
    * @param ctx a Javalin Context object containing the HTTP request information.
    *            Expects a "photo" form field containing the photo to upload.
    *            If a photo is uploaded successfully, it is saved to the 'photos/'
-   *            directory with a unique ID.
-   *            The unique ID is returned as a response.
+   *            directory, named after the SHA-256 of its contents so an
+   *            identical photo is only stored once.
+   *            The photo's name is returned as a response.
    *            If no photo is uploaded, a BadRequestResponse is thrown.
    */
   public String uploadPhoto(Context ctx) {
@@ -311,15 +332,12 @@ public class SubmissionController implements Controller {
     if (uploadedFile != null) {
       try (InputStream in = uploadedFile.content()) {
 
-        String id = UUID.randomUUID().toString();
-
         String extension = getFileExtension(uploadedFile.filename());
-        File file = Path.of("photos", id + "." + extension).toFile();
-        System.err.println("The path was " + file.toPath());
+        String id = photoStore.store(in, extension);
+        System.err.println("The path was " + photoStore.resolve(id));
 
-        Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
         ctx.status(HttpStatus.OK);
-        return id + "." + extension;
+        return id;
       } catch (IOException e) {
         System.err.println("Error copying the uploaded file: " + e);
         throw new BadRequestResponse("Error handling the uploaded file: " + e.getMessage());
@@ -347,20 +365,46 @@ public class SubmissionController implements Controller {
     if (submission == null) {
       submission = createSubmission(taskId, teamId, photoPath); // store the new submission
     } else {
-      submission.photoPath = photoPath;
-      submissionCollection.replaceOne(eq("_id", submission._id), submission);
+      // The database hands back the submission as it was, so we let go of
+      // the photo that was actually replaced, even if the team resubmits
+      // twice at once
+      Submission replaced = submissionCollection.findOneAndUpdate(eq("_id", new ObjectId(submission._id)),
+          Updates.set("photoPath", photoPath));
+      releaseReplacedPhoto(replaced == null ? null : replaced.photoPath);
     }
 
-    // Add the submission's ID to the StartedHunt's submissionIds array
-    StartedHunt startedHunt = startedHuntCollection.find(eq("_id", new ObjectId(startedHuntId))).first();
-    if (startedHunt != null) {
-      startedHunt.submissionIds.add(submission._id); // assuming submissionIds is a List<String>
-      startedHuntCollection.save(startedHunt);
+    // Add the submission's ID to the StartedHunt's submissionIds array. This is
+    // added by the database, rather than saving the whole StartedHunt, so
+    // teams submitting at the same time don't lose each other's submissions,
+    // and only if it isn't there yet, so a resubmission isn't listed twice.
+    startedHuntCollection.updateOne(eq("_id", new ObjectId(startedHuntId)),
+        Updates.addToSet("submissionIds", submission._id));
+    joinCache.invalidate(startedHuntId);
+  }
+
+  /**
+   * Drops a submission's reference to the photo it had before it was
+   * resubmitted, which deletes the file if nothing else uses it.
+   *
+   * The new photo is already saved by then, so a file that can't be deleted
+   * is only logged rather than failing the submission.
+   *
+   * @param photoPath The photo that was replaced, or null if there wasn't one
+   */
+  void releaseReplacedPhoto(String photoPath) {
+    if (photoPath == null) {
+      return;
+    }
+    try {
+      photoStore.release(photoPath);
+    } catch (IOException e) {
+      System.err.println("Error deleting the replaced photo " + photoPath + ": " + e);
     }
   }
 
   /**
-   * Retrieves a photo associated with a specific submission from the server.
+   * Retrieves a photo associated with a specific submission from the server,
+   * encoded as base64 text.
    *
    * @param ctx a Javalin HTTP context
    *
@@ -369,16 +413,76 @@ public class SubmissionController implements Controller {
    *            It attempts to find a submission with the given ID in the
    *            submission collection, and if found, it tries to retrieve the
    *            associated photo file from the 'photos/' directory.
-   *            If the photo file exists, it sends the file as a result with an
-   *            HTTP status of OK.
+   *            If the photo file exists, it streams the base64 encoding of the
+   *            file as a result with an HTTP status of OK, or NOT MODIFIED if
+   *            the request's If-None-Match header shows the client already
+   *            has it.
    *            If the photo file does not exist, it sends an empty result with an
-   *            HTTP status of NOT FOUND.
+   *            HTTP status of OK.
    *            If there's an error while accessing the file, it sends an error
    *            message as a result with an HTTP status of INTERNAL SERVER ERROR.
+   *
+   *            New clients should use `getRawPhotoFromSubmission` instead,
+   *            which sends the photo bytes themselves.
    */
   public void getPhotoFromSubmission(Context ctx) {
+    Submission submission = getSubmissionForPhoto(ctx);
+    String photoPath = submission.photoPath;
+
+    // The submission's photo can be replaced, so clients have to revalidate,
+    // but the ETag comes from the (immutable) photo file name so an unchanged
+    // photo only costs a 304.
+    ctx.header(PhotoSender.CACHE_CONTROL, PhotoSender.REVALIDATE);
+    if (photoSender.checkNotModified(ctx, photoSender.etagFor(photoPath + BASE64_ETAG_SUFFIX))) {
+      return;
+    }
+
+    Path file = photoStore.resolve(photoPath);
+    if (!Files.isRegularFile(file)) {
+      ctx.result("");
+      ctx.status(HttpStatus.OK);
+      return;
+    }
+
+    try {
+      photoSender.sendBase64(ctx, file);
+    } catch (IOException e) {
+      System.err.println("Error reading the photo file: " + e);
+      ctx.status(HttpStatus.INTERNAL_SERVER_ERROR);
+      ctx.result("Error reading file: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Sends the photo associated with a specific submission as binary image
+   * data, with the content type of the photo.
+   *
+   * @param ctx a Javalin HTTP context
+   *
+   *            Expects a path parameter 'id' representing the submission ID.
+   *            The photo is streamed straight from the 'photos/' directory,
+   *            and supports If-None-Match (304) and byte-range requests.
+   *            If the submission's photo file does not exist, a
+   *            NotFoundResponse is thrown.
+   */
+  public void getRawPhotoFromSubmission(Context ctx) {
+    Submission submission = getSubmissionForPhoto(ctx);
+
+    Path file = photoStore.resolve(submission.photoPath);
+    if (!Files.isRegularFile(file)) {
+      throw new NotFoundResponse("The photo for submission " + submission._id + " was not found");
+    }
+
+    try {
+      photoSender.send(ctx, file, PhotoSender.REVALIDATE);
+    } catch (IOException e) {
+      ctx.status(HttpStatus.INTERNAL_SERVER_ERROR);
+      ctx.result("Error reading file: " + e.getMessage());
+    }
+  }
+
+  private Submission getSubmissionForPhoto(Context ctx) {
     String submissionId = ctx.pathParam("id");
-    System.out.println("Server: Received request to get photo for submissionId: " + submissionId);
 
     Submission submission = submissionCollection.find(eq("_id", new ObjectId(submissionId))).first();
 
@@ -386,12 +490,7 @@ public class SubmissionController implements Controller {
       ctx.status(HttpStatus.NOT_FOUND);
       throw new BadRequestResponse("Submission with ID " + submissionId + " does not exist");
     }
-
-    String photoPath = submission.photoPath;
-    String encodedPhoto = encodePhoto(photoPath);
-
-    ctx.result(encodedPhoto);
-    ctx.status(HttpStatus.OK);
+    return submission;
   }
 
   /**
@@ -404,13 +503,13 @@ public class SubmissionController implements Controller {
    *            If no such photo is found, the HTTP status is set to NOT_FOUND.
    */
   public void deletePhoto(String id, Context ctx) {
-    Path filePath = Path.of("photos/" + id);
+    Path filePath = photoStore.resolve(id);
     if (!Files.exists(filePath)) {
       ctx.status(HttpStatus.NOT_FOUND);
       throw new BadRequestResponse("Photo with ID " + id + " does not exist");
     }
     try {
-      Files.delete(filePath);
+      photoStore.release(id);
 
       ctx.status(HttpStatus.OK);
     } catch (IOException e) {
@@ -458,25 +557,6 @@ public class SubmissionController implements Controller {
     ctx.json(Map.of("id", newPhotoId));
   }
 
-  /**
-   * Encodes a photo as a base64 string.
-   *
-   * @param photoPath The path to the photo to encode.
-   * @return The base64-encoded photo.
-   */
-  public String encodePhoto(String photoPath) {
-    try {
-      File file = new File("photos/" + photoPath);
-      try (InputStream inputStream = new FileInputStream(file)) {
-        byte[] bytes = inputStream.readAllBytes();
-        return java.util.Base64.getEncoder().encodeToString(bytes);
-      }
-    } catch (IOException e) {
-      System.err.println("Error reading the photo file: " + e);
-      return "";
-    }
-  }
-
   /*
    *
    * ******END PHOTO HANDLING******
@@ -491,6 +571,7 @@ public class SubmissionController implements Controller {
     server.get(API_SUBMISSIONS_BY_TEAM_AND_TASK, this::getSubmissionByTeamAndTask);
     server.get(API_SUBMISSIONS_BY_STARTEDHUNT, this::getSubmissionsByStartedHunt);
     server.get(API_SUBMISSION_GET_PHOTO, this::getPhotoFromSubmission);
+    server.get(API_SUBMISSION_GET_RAW_PHOTO, this::getRawPhotoFromSubmission);
     server.delete(API_SUBMISSION, ctx -> deleteSubmission(ctx, ctx.pathParam("id")));
     server.post(API_SUBMIT_PHOTO, this::addPhoto);
     server.post(API_SUBMISSION, this::addPhoto);
@@ -6,7 +6,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
-import org.bson.UuidRepresentation;
+import org.bson.Document;
 import org.bson.types.ObjectId;
 import org.mongojack.JacksonMongoCollection;
 
@@ -17,7 +17,12 @@ import io.javalin.http.BadRequestResponse;
 import io.javalin.http.Context;
 import io.javalin.http.HttpStatus;
 import io.javalin.http.NotFoundResponse;
+import umm3601.CollectionRegistry;
 import umm3601.Controller;
+import umm3601.JsonBytes;
+import umm3601.KeysetPagination;
+import umm3601.SharedServices;
+import umm3601.SingleFlight;
 
 public class TeamController implements Controller {
 
@@ -31,15 +36,14 @@ public class TeamController implements Controller {
   static final int MIN_TEAMS = 1;
   static final int DEFAULT_NUM_TEAMS = 1;
 
+  private final MongoDatabase database;
   private final JacksonMongoCollection<Team> teamCollection;
+  private final SingleFlight<byte[]> startedHuntTeamsFlight;
 
-  public TeamController(MongoDatabase database) {
-
-    teamCollection = JacksonMongoCollection.builder().build(
-        database,
-        "teams",
-        Team.class,
-        UuidRepresentation.STANDARD);
+  public TeamController(CollectionRegistry collections, SharedServices services) {
+    database = collections.database();
+    teamCollection = collections.teams();
+    startedHuntTeamsFlight = services.singleFlight("getAllStartedHuntTeams");
   }
 
   /**
@@ -114,9 +118,10 @@ public class TeamController implements Controller {
    */
   public void getTeams(Context ctx) {
     try {
-      ArrayList<Team> teams = teamCollection.find().into(new ArrayList<>());
-      ctx.json(teams);
       ctx.status(HttpStatus.OK);
+      KeysetPagination.send(ctx, teamCollection, database, new Document(), null);
+    } catch (BadRequestResponse e) {
+      throw e;
     } catch (Exception e) {
       ctx.status(HttpStatus.INTERNAL_SERVER_ERROR).result("Error retrieving teams from database");
     }
@@ -223,14 +228,18 @@ public class TeamController implements Controller {
    *            where the 'startedHuntId' matches the provided hunt ID.
    *            The result is a list of Team objects, which is converted into JSON
    *            and included in the response body.
+   *            Concurrent requests for the same hunt's teams share one query.
    *            The response status is set to 200 (OK).
    */
   public void getAllStartedHuntTeams(Context ctx) {
     String startedHuntId = ctx.pathParam("startedHuntId");
 
-    List<Team> teams = teamCollection.find(eq("startedHuntId", startedHuntId)).into(new ArrayList<>());
+    byte[] json = startedHuntTeamsFlight.run(startedHuntId, () -> {
+      List<Team> teams = teamCollection.find(eq("startedHuntId", startedHuntId)).into(new ArrayList<>());
+      return JsonBytes.of(teams, List.class);
+    });
 
-    ctx.json(teams);
+    JsonBytes.send(ctx, json);
     ctx.status(HttpStatus.OK);
   }
 
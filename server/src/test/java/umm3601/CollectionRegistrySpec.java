@@ -0,0 +1,70 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoDatabase;
+
+/**
+ * Tests that the CollectionRegistry hands out the same collections every
+ * time, so the controllers really do share them.
+ */
+class CollectionRegistrySpec {
+
+  private static MongoClient mongoClient;
+  private static MongoDatabase db;
+
+  @BeforeAll
+  static void setupAll() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+
+    mongoClient = MongoClients.create(
+        MongoClientSettings.builder()
+            .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+            .build());
+    db = mongoClient.getDatabase("test");
+  }
+
+  @AfterAll
+  static void teardown() {
+    db.drop();
+    mongoClient.close();
+  }
+
+  @Test
+  void collectionsAreBuiltOnce() {
+    CollectionRegistry collections = new CollectionRegistry(db);
+
+    assertSame(db, collections.database());
+    assertSame(collections.hosts(), collections.hosts());
+    assertSame(collections.hunts(), collections.hunts());
+    assertSame(collections.tasks(), collections.tasks());
+    assertSame(collections.startedHunts(), collections.startedHunts());
+    assertSame(collections.teams(), collections.teams());
+    assertSame(collections.submissions(), collections.submissions());
+    assertSame(collections.photoBlobs(), collections.photoBlobs());
+  }
+
+  @Test
+  void collectionsHaveTheRightNames() {
+    CollectionRegistry collections = new CollectionRegistry(db);
+
+    assertEquals("hosts", collections.hosts().getNamespace().getCollectionName());
+    assertEquals("hunts", collections.hunts().getNamespace().getCollectionName());
+    assertEquals("tasks", collections.tasks().getNamespace().getCollectionName());
+    assertEquals("startedHunts", collections.startedHunts().getNamespace().getCollectionName());
+    assertEquals("teams", collections.teams().getNamespace().getCollectionName());
+    assertEquals("submissions", collections.submissions().getNamespace().getCollectionName());
+    assertEquals("photoBlobs", collections.photoBlobs().getNamespace().getCollectionName());
+  }
+}
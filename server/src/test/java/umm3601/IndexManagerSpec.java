@@ -0,0 +1,122 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.IndexOptions;
+
+/**
+ * Tests that the IndexManager creates the indexes our queries need, and
+ * notices when it can't.
+ */
+class IndexManagerSpec {
+
+  private static MongoClient mongoClient;
+  private static MongoDatabase db;
+
+  private IndexManager indexManager;
+
+  @BeforeAll
+  static void setupAll() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+
+    mongoClient = MongoClients.create(
+        MongoClientSettings.builder()
+            .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+            .build());
+    db = mongoClient.getDatabase("test");
+  }
+
+  @AfterAll
+  static void teardown() {
+    db.drop();
+    mongoClient.close();
+  }
+
+  @BeforeEach
+  void setupEach() {
+    for (IndexManager.RequiredIndex index : IndexManager.REQUIRED_INDEXES) {
+      db.getCollection(index.collection()).drop();
+    }
+    indexManager = new IndexManager(db);
+  }
+
+  @Test
+  void ensureIndexesCreatesEveryIndex() {
+    assertEquals(IndexManager.REQUIRED_INDEXES.size(), indexManager.missingIndexes().size());
+
+    List<String> missing = indexManager.ensureIndexes();
+
+    assertTrue(missing.isEmpty());
+    assertTrue(indexManager.missingIndexes().isEmpty());
+  }
+
+  @Test
+  void ensureIndexesTwiceIsFine() {
+    indexManager.ensureIndexes();
+
+    assertTrue(indexManager.ensureIndexes().isEmpty());
+  }
+
+  @Test
+  void activeAccessCodesMustBeUnique() {
+    indexManager.ensureIndexes();
+    MongoCollection<Document> startedHunts = db.getCollection("startedHunts");
+
+    // Ended hunts all have the access code "1"
+    startedHunts.insertOne(new Document("accessCode", "1").append("status", false));
+    startedHunts.insertOne(new Document("accessCode", "1").append("status", false));
+    startedHunts.insertOne(new Document("accessCode", "123456").append("status", true));
+
+    assertThrows(MongoWriteException.class,
+        () -> startedHunts.insertOne(new Document("accessCode", "123456").append("status", true)));
+  }
+
+  @Test
+  void duplicateActiveAccessCodesAreReported() {
+    MongoCollection<Document> startedHunts = db.getCollection("startedHunts");
+    startedHunts.insertOne(new Document("accessCode", "123456").append("status", true));
+    startedHunts.insertOne(new Document("accessCode", "123456").append("status", true));
+
+    List<String> missing = indexManager.ensureIndexes();
+
+    assertEquals(List.of("startedHunts.accessCode_active_unique"), missing);
+  }
+
+  @Test
+  void indexWithTheWrongKeysIsReported() {
+    db.getCollection("teams").createIndex(new Document("teamName", 1), new IndexOptions().name("startedHuntId"));
+
+    List<String> missing = indexManager.ensureIndexes();
+
+    assertEquals(List.of("teams.startedHuntId"), missing);
+  }
+
+  @Test
+  void indexWithTheWrongOptionsIsReported() {
+    // An access code index that doesn't stop two active hunts sharing a code
+    db.getCollection("startedHunts").createIndex(new Document("accessCode", 1),
+        new IndexOptions().name("accessCode_active_unique"));
+
+    List<String> missing = indexManager.ensureIndexes();
+
+    assertEquals(List.of("startedHunts.accessCode_active_unique"), missing);
+  }
+}
@@ -0,0 +1,106 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.javalin.http.ContentType;
+import io.javalin.http.Context;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+
+/**
+ * Tests that streamed lists are the same JSON `ctx.json` would send.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class JsonStreamSpec {
+
+  private static final Type LIST_OF_MAPS = List.class;
+
+  private Context ctx;
+  private ByteArrayOutputStream body;
+
+  @BeforeEach
+  void setupEach() {
+    ctx = mock(Context.class);
+    body = new ByteArrayOutputStream();
+    when(ctx.outputStream()).thenReturn(capturingOutputStream(body));
+  }
+
+  @Test
+  void sendsTheSameJsonAsTheWholeList() {
+    List<Map<String, Object>> things = List.of(
+        Map.of("name", "Fry", "estimatedTime", 20),
+        Map.of("name", "Bender", "photos", List.of("a.png", "b.png")));
+
+    JsonStream.send(ctx, things);
+
+    verify(ctx).contentType(ContentType.APPLICATION_JSON);
+    assertEquals(new String(JsonBytes.of(things, LIST_OF_MAPS), StandardCharsets.UTF_8),
+        body.toString(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void sendsAnEmptyArray() {
+    JsonStream.send(ctx, List.of());
+
+    assertEquals("[]", body.toString(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void leavesTheArrayOpenIfTheListFailsPartway() {
+    Iterable<String> failing = () -> new Iterator<>() {
+      private boolean sent;
+
+      @Override
+      public boolean hasNext() {
+        return true;
+      }
+
+      @Override
+      public String next() {
+        if (sent) {
+          throw new IllegalStateException("The database went away");
+        }
+        sent = true;
+        return "first";
+      }
+    };
+
+    assertThrows(IllegalStateException.class, () -> JsonStream.send(ctx, failing));
+    // Whatever was sent isn't a complete array, so the client can tell
+    assertFalse(body.toString(StandardCharsets.UTF_8).endsWith("]"));
+  }
+
+  private static ServletOutputStream capturingOutputStream(ByteArrayOutputStream out) {
+    return new ServletOutputStream() {
+      @Override
+      public void write(int b) {
+        out.write(b);
+      }
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setWriteListener(WriteListener writeListener) {
+        // Writes are always synchronous in these tests
+      }
+    };
+  }
+}
@@ -0,0 +1,160 @@
+package umm3601;
+
+import static com.mongodb.client.model.Filters.eq;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Updates;
+
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+import umm3601.host.Hunt;
+
+/**
+ * Tests paging through a list sorted by a field the request didn't ask to
+ * have sent.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class KeysetPaginationSpec {
+
+  private static MongoClient mongoClient;
+  private static MongoDatabase db;
+
+  private CollectionRegistry collections;
+  private Context ctx;
+  private List<Object> sent;
+  private List<String> nextPages;
+
+  @BeforeAll
+  static void setupAll() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+
+    mongoClient = MongoClients.create(
+        MongoClientSettings.builder()
+            .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+            .build());
+    db = mongoClient.getDatabase("test");
+  }
+
+  @AfterAll
+  static void teardown() {
+    db.drop();
+    mongoClient.close();
+  }
+
+  @BeforeEach
+  @SuppressWarnings("unchecked")
+  void setupEach() {
+    db.getCollection("hunts").drop();
+    // Two of the hunts have the same estimate, so ties have to be kept
+    // apart by their IDs
+    db.getCollection("hunts").insertMany(List.of(
+        new Document("hostId", "frysId").append("name", "Fry's hunt").append("est", 20),
+        new Document("hostId", "frysId").append("name", "Bender's hunt").append("est", 10),
+        new Document("hostId", "frysId").append("name", "Leela's hunt").append("est", 20),
+        new Document("hostId", "frysId").append("name", "Amy's hunt").append("est", 5)));
+    collections = new CollectionRegistry(db);
+
+    ctx = mock(Context.class);
+    sent = new ArrayList<>();
+    nextPages = new ArrayList<>();
+    when(ctx.json(any())).thenAnswer(invocation -> {
+      sent.addAll((List<Object>) invocation.getArgument(0));
+      return ctx;
+    });
+    when(ctx.header(Mockito.eq(KeysetPagination.NEXT_PAGE_HEADER), Mockito.anyString())).thenAnswer(invocation -> {
+      nextPages.add(invocation.getArgument(1));
+      return ctx;
+    });
+  }
+
+  // Hunts don't have a `meta` field, so these are only sent as projected
+  // documents
+  private void addMeta() {
+    List<String> names = List.of("Fry's hunt", "Bender's hunt", "Leela's hunt", "Amy's hunt");
+    List<String> xs = List.of("a", "b", "c", "d");
+    List<Integer> ys = List.of(3, 1, 4, 2);
+    for (int i = 0; i < names.size(); i++) {
+      db.getCollection("hunts").updateOne(eq("name", names.get(i)),
+          Updates.set("meta", new Document("x", xs.get(i)).append("y", ys.get(i))));
+    }
+  }
+
+  private void sendEveryPage(String sortKey) {
+    when(ctx.queryParam(KeysetPagination.LIMIT_KEY)).thenReturn("1");
+    KeysetPagination.send(ctx, collections.hunts(), db, new Document(), sortKey);
+    while (nextPages.size() == sent.size()) {
+      when(ctx.queryParam(KeysetPagination.AFTER_KEY)).thenReturn(nextPages.get(nextPages.size() - 1));
+      KeysetPagination.send(ctx, collections.hunts(), db, new Document(), sortKey);
+    }
+  }
+
+  @Test
+  void pagesOfModelsAreSortedBySortKey() {
+    sendEveryPage("est");
+
+    assertEquals(3, nextPages.size());
+    assertEquals(List.of("Amy's hunt", "Bender's hunt"),
+        sent.subList(0, 2).stream().map(hunt -> ((Hunt) hunt).name).toList());
+    assertEquals(Set.of("Fry's hunt", "Leela's hunt"),
+        Set.copyOf(sent.subList(2, 4).stream().map(hunt -> ((Hunt) hunt).name).toList()));
+  }
+
+  @Test
+  void sortKeyThatWasNotAskedForIsNotSent() {
+    when(ctx.queryParam(FieldProjection.FIELDS_KEY)).thenReturn("name");
+
+    sendEveryPage("est");
+
+    assertEquals(4, sent.size());
+    assertEquals(List.of("Amy's hunt", "Bender's hunt"),
+        sent.subList(0, 2).stream().map(hunt -> ((Document) hunt).getString("name")).toList());
+    for (Object hunt : sent) {
+      assertEquals(Set.of("_id", "name"), ((Document) hunt).keySet());
+    }
+  }
+
+  @Test
+  void nestedSortKeyIsTakenOutOfTheDocumentsItWasAddedTo() {
+    addMeta();
+    when(ctx.queryParam(FieldProjection.FIELDS_KEY)).thenReturn("meta.x");
+
+    sendEveryPage("meta.y");
+
+    assertEquals(List.of("b", "d", "a", "c"),
+        sent.stream().map(hunt -> ((Document) hunt).getEmbedded(List.of("meta", "x"), String.class)).toList());
+    for (Object hunt : sent) {
+      assertEquals(Set.of("x"), ((Document) hunt).get("meta", Document.class).keySet());
+    }
+  }
+
+  @Test
+  void sortKeyWithAnAskedForFieldInsideItIsRejected() {
+    addMeta();
+    when(ctx.queryParam(FieldProjection.FIELDS_KEY)).thenReturn("meta.x");
+    when(ctx.queryParam(KeysetPagination.LIMIT_KEY)).thenReturn("1");
+
+    assertThrows(BadRequestResponse.class,
+        () -> KeysetPagination.send(ctx, collections.hunts(), db, new Document(), "meta"));
+  }
+}
@@ -0,0 +1,74 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests that the histogram's percentiles are within a bucket of the real ones.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class LatencyHistogramSpec {
+
+  @Test
+  void emptyHistogramReportsZero() {
+    LatencyHistogram histogram = new LatencyHistogram(1_000_000);
+
+    assertEquals(0, histogram.count());
+    assertEquals(0, histogram.valueAtPercentile(99));
+    assertEquals(0, histogram.max());
+  }
+
+  @Test
+  void smallValuesAreExact() {
+    LatencyHistogram histogram = new LatencyHistogram(1_000_000);
+    for (int value = 1; value <= 100; value++) {
+      histogram.record(value);
+    }
+
+    assertEquals(100, histogram.count());
+    assertEquals(5050, histogram.sum());
+    assertEquals(50, histogram.valueAtPercentile(50));
+    assertEquals(95, histogram.valueAtPercentile(95));
+    assertEquals(99, histogram.valueAtPercentile(99));
+    assertEquals(100, histogram.valueAtPercentile(100));
+    assertEquals(100, histogram.max());
+  }
+
+  @Test
+  void largeValuesAreWithinTheirBucket() {
+    LatencyHistogram histogram = new LatencyHistogram(10_000_000);
+    for (int value = 1; value <= 10_000; value++) {
+      histogram.record(value * 100L);
+    }
+
+    long p99 = histogram.valueAtPercentile(99);
+    assertTrue(p99 >= 990_000 && p99 <= 990_000 * 65 / 64, "p99 was " + p99);
+    long p50 = histogram.valueAtPercentile(50);
+    assertTrue(p50 >= 500_000 && p50 <= 500_000 * 65 / 64, "p50 was " + p50);
+    assertEquals(1_000_000, histogram.valueAtPercentile(100));
+  }
+
+  @Test
+  void valuesPastTheTopStillShowInTheMax() {
+    LatencyHistogram histogram = new LatencyHistogram(1000);
+    histogram.record(5);
+    histogram.record(50_000);
+    histogram.record(-3);
+
+    assertEquals(3, histogram.count());
+    assertEquals(50_000, histogram.max());
+    assertEquals(50_000, histogram.valueAtPercentile(100));
+    assertEquals(5, histogram.valueAtPercentile(50));
+  }
+
+  @Test
+  void everyValueIsInsideItsBucket() {
+    for (long value = 0; value < 100_000; value += 7) {
+      int bucket = LatencyHistogram.bucketOf(value);
+      assertTrue(value <= LatencyHistogram.highestValueIn(bucket));
+      assertTrue(bucket == 0 || value > LatencyHistogram.highestValueIn(bucket - 1));
+    }
+  }
+}
@@ -0,0 +1,86 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoCompressor;
+import com.mongodb.ReadConcern;
+import com.mongodb.WriteConcern;
+
+/**
+ * Tests that the Mongo client settings are read from the environment, and
+ * that bad ones stop the server before it starts.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class MongoConfigSpec {
+
+  @Test
+  void defaultsAreTheDrivers() {
+    MongoClientSettings settings = settings(Map.of());
+
+    assertEquals(100, settings.getConnectionPoolSettings().getMaxSize());
+    assertEquals(0, settings.getConnectionPoolSettings().getMinSize());
+    assertEquals(2, settings.getConnectionPoolSettings().getMaxConnecting());
+    assertEquals(120_000, settings.getConnectionPoolSettings().getMaxWaitTime(TimeUnit.MILLISECONDS));
+    assertEquals(10_000, settings.getSocketSettings().getConnectTimeout(TimeUnit.MILLISECONDS));
+    assertEquals(0, settings.getSocketSettings().getReadTimeout(TimeUnit.MILLISECONDS));
+    assertTrue(settings.getCompressorList().isEmpty());
+    assertEquals(ReadConcern.DEFAULT, settings.getReadConcern());
+    assertEquals(WriteConcern.ACKNOWLEDGED, settings.getWriteConcern());
+  }
+
+  @Test
+  void settingsComeFromTheEnvironment() {
+    Map<String, String> env = Map.of(
+        "MONGO_POOL_MIN", "10",
+        "MONGO_POOL_MAX", " 400 ",
+        "MONGO_POOL_MAX_CONNECTING", "8",
+        "MONGO_POOL_MAX_WAIT_MS", "2000",
+        "MONGO_SOCKET_TIMEOUT_MS", "15000",
+        "MONGO_COMPRESSORS", "zlib",
+        "MONGO_READ_CONCERN", "Majority",
+        "MONGO_WRITE_CONCERN", "2");
+
+    MongoClientSettings settings = settings(env);
+
+    assertEquals(10, settings.getConnectionPoolSettings().getMinSize());
+    assertEquals(400, settings.getConnectionPoolSettings().getMaxSize());
+    assertEquals(8, settings.getConnectionPoolSettings().getMaxConnecting());
+    assertEquals(2000, settings.getConnectionPoolSettings().getMaxWaitTime(TimeUnit.MILLISECONDS));
+    assertEquals(15_000, settings.getSocketSettings().getReadTimeout(TimeUnit.MILLISECONDS));
+    assertEquals(List.of("zlib"), settings.getCompressorList().stream().map(MongoCompressor::getName).toList());
+    assertEquals(ReadConcern.MAJORITY, settings.getReadConcern());
+    assertEquals(2, settings.getWriteConcern().getWObject());
+    assertEquals("pool 10-400 connections (8 connecting at once, waiting up to 2000ms, idle up to no limit), "
+        + "connect timeout 10000ms, socket timeout 15000ms, server selection timeout 30000ms, "
+        + "compressors zlib, read concern majority, write concern 2", MongoConfig.fromEnv(env).describe());
+  }
+
+  @Test
+  void badSettingsAreRejected() {
+    assertThrows(IllegalArgumentException.class, () -> MongoConfig.fromEnv(Map.of("MONGO_POOL_MAX", "lots")));
+    assertThrows(IllegalArgumentException.class, () -> MongoConfig.fromEnv(Map.of("MONGO_POOL_MAX", "0")));
+    assertThrows(IllegalArgumentException.class, () -> MongoConfig.fromEnv(Map.of("MONGO_POOL_MIN", "-1")));
+    assertThrows(IllegalArgumentException.class,
+        () -> MongoConfig.fromEnv(Map.of("MONGO_POOL_MIN", "20", "MONGO_POOL_MAX", "10")));
+    assertThrows(IllegalArgumentException.class,
+        () -> MongoConfig.fromEnv(Map.of("MONGO_CONNECT_TIMEOUT_MS", "99999999999")));
+    assertThrows(IllegalArgumentException.class, () -> MongoConfig.fromEnv(Map.of("MONGO_COMPRESSORS", "gzip")));
+    assertThrows(IllegalArgumentException.class, () -> MongoConfig.fromEnv(Map.of("MONGO_READ_CONCERN", "most")));
+    assertThrows(IllegalArgumentException.class, () -> MongoConfig.fromEnv(Map.of("MONGO_WRITE_CONCERN", "all")));
+  }
+
+  private static MongoClientSettings settings(Map<String, String> env) {
+    MongoClientSettings.Builder builder = MongoClientSettings.builder();
+    MongoConfig.fromEnv(env).applyTo(builder);
+    return builder.build();
+  }
+}
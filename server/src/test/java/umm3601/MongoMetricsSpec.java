@@ -0,0 +1,98 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+
+/**
+ * Tests that the driver reports its commands and connections to MongoMetrics.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class MongoMetricsSpec {
+
+  private static MongoMetrics mongoMetrics;
+  private static MongoClient mongoClient;
+  private static MongoDatabase db;
+
+  @BeforeAll
+  static void setupAll() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+
+    mongoMetrics = new MongoMetrics();
+    mongoClient = Server.configureDatabase(mongoAddr, MongoConfig.fromEnv(Map.of()), mongoMetrics);
+    db = mongoClient.getDatabase("test");
+  }
+
+  @AfterAll
+  static void teardown() {
+    db.drop();
+    mongoClient.close();
+  }
+
+  @Test
+  void recordsCommandsByCollection() {
+    MongoCollection<Document> metricsTest = db.getCollection("metricsTest");
+    metricsTest.drop();
+    metricsTest.insertMany(List.of(new Document("n", 1), new Document("n", 2), new Document("n", 3)));
+    metricsTest.find().batchSize(2).into(new ArrayList<>());
+
+    List<String> lines = mongoMetrics.prometheus().lines().toList();
+    assertTrue(lines.contains("mongo_commands_seconds_count{command=\"insert\",collection=\"metricsTest\"} 1"));
+    assertTrue(lines.contains("mongo_commands_seconds_count{command=\"find\",collection=\"metricsTest\"} 1"));
+    assertTrue(lines.contains("mongo_commands_seconds_count{command=\"getMore\",collection=\"metricsTest\"} 1"));
+    assertTrue(lines.contains("mongo_documents_returned_total{command=\"find\",collection=\"metricsTest\"} 2"));
+    assertTrue(lines.contains("mongo_documents_returned_total{command=\"getMore\",collection=\"metricsTest\"} 1"));
+    assertTrue(lines.contains("mongo_documents_returned_total{command=\"insert\",collection=\"metricsTest\"} 0"));
+    assertTrue(lines.contains("mongo_command_failures_total{command=\"find\",collection=\"metricsTest\"} 0"));
+  }
+
+  @Test
+  void recordsThePool() {
+    db.getCollection("metricsTest").countDocuments();
+
+    List<String> lines = mongoMetrics.prometheus().lines().toList();
+    assertTrue(lines.stream().anyMatch(line -> line.startsWith("mongo_pool_checkout_seconds_count ")
+        && !line.equals("mongo_pool_checkout_seconds_count 0")));
+    // Every connection has been checked back in
+    assertTrue(lines.contains("mongo_pool_connections_in_use 0"));
+    assertTrue(lines.contains("mongo_pool_waiting 0"));
+    assertTrue(lines.contains("mongo_pool_saturation 0.000000"));
+  }
+
+  @Test
+  void findsTheCollectionOfACommand() {
+    BsonDocument find = new BsonDocument("find", new BsonString("hunts")).append("limit", new BsonInt32(1));
+    BsonDocument getMore = new BsonDocument("getMore", new BsonInt32(7)).append("collection", new BsonString("teams"));
+    BsonDocument ping = new BsonDocument("ping", new BsonInt32(1));
+
+    assertEquals("hunts", MongoMetrics.collectionOf("find", find));
+    assertEquals("teams", MongoMetrics.collectionOf("getMore", getMore));
+    assertEquals(MongoMetrics.NO_COLLECTION, MongoMetrics.collectionOf("ping", ping));
+    assertEquals(MongoMetrics.NO_COLLECTION, MongoMetrics.collectionOf("saslStart", new BsonDocument()));
+  }
+
+  @Test
+  void countsTheDocumentsInABatch() {
+    BsonArray batch = new BsonArray(List.of(new BsonDocument(), new BsonDocument()));
+    BsonDocument reply = new BsonDocument("cursor", new BsonDocument("firstBatch", batch));
+
+    assertEquals(2, MongoMetrics.documentsIn(reply));
+    assertEquals(0, MongoMetrics.documentsIn(new BsonDocument("n", new BsonInt32(3))));
+  }
+}
@@ -0,0 +1,169 @@
+package umm3601;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import io.javalin.http.NotFoundResponse;
+
+/**
+ * Tests that concurrent requests for the same key share one load.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class SingleFlightSpec {
+
+  @Test
+  void concurrentRequestsShareOneLoad() throws Exception {
+    SingleFlight<String> singleFlight = new SingleFlight<>("test");
+    AtomicInteger loads = new AtomicInteger();
+    CountDownLatch finishLoad = new CountDownLatch(1);
+    int waiters = 5;
+    ExecutorService executor = Executors.newFixedThreadPool(waiters + 1);
+
+    try {
+      Future<String> leader = executor.submit(() -> singleFlight.run("hunt", () -> {
+        loads.incrementAndGet();
+        try {
+          finishLoad.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return "result";
+      }));
+      while (singleFlight.inFlight() == 0) {
+        Thread.sleep(1);
+      }
+
+      List<Future<String>> others = new ArrayList<>();
+      for (int i = 0; i < waiters; i++) {
+        others.add(executor.submit(() -> singleFlight.run("hunt", () -> {
+          loads.incrementAndGet();
+          return "not shared";
+        })));
+      }
+      while (singleFlight.collapsed() < waiters) {
+        Thread.sleep(1);
+      }
+      finishLoad.countDown();
+
+      assertEquals("result", leader.get(5, TimeUnit.SECONDS));
+      for (Future<String> other : others) {
+        assertEquals("result", other.get(5, TimeUnit.SECONDS));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertEquals(1, loads.get());
+    assertEquals(waiters + 1, singleFlight.requests());
+    assertEquals(waiters, singleFlight.collapsed());
+    assertEquals(0, singleFlight.inFlight());
+  }
+
+  @Test
+  void laterRequestsLoadAgain() {
+    SingleFlight<Integer> singleFlight = new SingleFlight<>("test");
+    AtomicInteger loads = new AtomicInteger();
+
+    assertEquals(1, singleFlight.run("hunt", loads::incrementAndGet));
+    assertEquals(2, singleFlight.run("hunt", loads::incrementAndGet));
+    assertEquals(0, singleFlight.collapsed());
+  }
+
+  @Test
+  void waitersGetTheSameException() throws Exception {
+    SingleFlight<String> singleFlight = new SingleFlight<>("test");
+    CountDownLatch finishLoad = new CountDownLatch(1);
+    NotFoundResponse notFound = new NotFoundResponse("The requested access code was not found.");
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+
+    try {
+      Future<?> leader = executor.submit(() -> singleFlight.run("hunt", () -> {
+        try {
+          finishLoad.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        throw notFound;
+      }));
+      while (singleFlight.inFlight() == 0) {
+        Thread.sleep(1);
+      }
+      Future<Throwable> waiter = executor.submit(
+          () -> assertThrows(NotFoundResponse.class, () -> singleFlight.run("hunt", () -> "not shared")));
+      while (singleFlight.collapsed() < 1) {
+        Thread.sleep(1);
+      }
+      finishLoad.countDown();
+
+      assertSame(notFound, waiter.get(5, TimeUnit.SECONDS));
+      assertThrows(Exception.class, () -> leader.get(5, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void asyncRequestsShareOneLoad() {
+    SingleFlight<String> singleFlight = new SingleFlight<>("test");
+    CompletableFuture<String> load = new CompletableFuture<>();
+
+    CompletableFuture<String> leader = singleFlight.runAsync("hunt", () -> load);
+    CompletableFuture<String> waiter = singleFlight.runAsync("hunt", () -> CompletableFuture.completedFuture("no"));
+    // A blocking request shares it too; started here so it doesn't block us
+    CompletableFuture<String> blocking = CompletableFuture.supplyAsync(() -> singleFlight.run("hunt", () -> "no"));
+    while (singleFlight.collapsed() < 2) {
+      Thread.onSpinWait();
+    }
+    assertEquals(1, singleFlight.inFlight());
+
+    load.complete("result");
+
+    assertEquals("result", leader.join());
+    assertEquals("result", waiter.join());
+    assertEquals("result", blocking.join());
+    assertEquals(0, singleFlight.inFlight());
+  }
+
+  @Test
+  void asyncWaitersGetTheSameException() {
+    SingleFlight<String> singleFlight = new SingleFlight<>("test");
+    NotFoundResponse notFound = new NotFoundResponse("The requested access code was not found.");
+    CompletableFuture<String> load = new CompletableFuture<>();
+
+    CompletableFuture<String> leader = singleFlight.runAsync("hunt", () -> load);
+    CompletableFuture<String> waiter = singleFlight.runAsync("hunt", () -> CompletableFuture.completedFuture("no"));
+    // As a failed future would be after `thenApply`
+    load.completeExceptionally(new CompletionException(notFound));
+
+    assertSame(notFound, assertThrows(CompletionException.class, leader::join).getCause());
+    assertSame(notFound, assertThrows(CompletionException.class, waiter::join).getCause());
+    assertEquals(0, singleFlight.inFlight());
+  }
+
+  @Test
+  void asyncLoadsThatThrowFail() {
+    SingleFlight<String> singleFlight = new SingleFlight<>("test");
+    NotFoundResponse notFound = new NotFoundResponse("The requested access code was not found.");
+
+    CompletableFuture<String> failed = singleFlight.runAsync("hunt", () -> {
+      throw notFound;
+    });
+
+    assertSame(notFound, assertThrows(CompletionException.class, failed::join).getCause());
+    assertEquals(0, singleFlight.inFlight());
+  }
+}
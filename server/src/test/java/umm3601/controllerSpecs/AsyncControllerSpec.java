@@ -0,0 +1,377 @@
+package umm3601.controllerSpecs;
+
+import static com.mongodb.client.model.Filters.and;
+import static com.mongodb.client.model.Filters.eq;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+import org.bson.Document;
+import org.bson.UuidRepresentation;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoDatabase;
+
+import io.javalin.Javalin;
+import io.javalin.http.BadRequestResponse;
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+import io.javalin.http.NotFoundResponse;
+import io.javalin.http.UploadedFile;
+import umm3601.CollectionRegistry;
+import umm3601.ReactiveCollections;
+import umm3601.SharedServices;
+import umm3601.photos.PhotoStore;
+import umm3601.startedHunts.AsyncStartedHuntController;
+import umm3601.teams.AsyncSubmissionController;
+import umm3601.teams.AsyncTeamController;
+
+/**
+ * Tests the asynchronous controllers against the same database as the
+ * blocking ones, running the future each hands to `ctx.future` to the end.
+ */
+@SuppressWarnings({ "MagicNumber" })
+public class AsyncControllerSpec {
+  private AsyncStartedHuntController startedHuntController;
+  private AsyncTeamController teamController;
+  private AsyncSubmissionController submissionController;
+  private CollectionRegistry collections;
+  private ObjectId startedHuntId;
+
+  private static MongoClient mongoClient;
+  private static com.mongodb.reactivestreams.client.MongoClient reactiveClient;
+  private static MongoDatabase db;
+
+  @Mock
+  private Context ctx;
+
+  @Captor
+  private ArgumentCaptor<Supplier<? extends CompletableFuture<?>>> futureCaptor;
+
+  @Captor
+  private ArgumentCaptor<byte[]> bytesCaptor;
+
+  @Captor
+  private ArgumentCaptor<Map<String, String>> mapCaptor;
+
+  @BeforeAll
+  static void setupAll() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+    MongoClientSettings settings = MongoClientSettings.builder()
+        .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+        .uuidRepresentation(UuidRepresentation.STANDARD)
+        .build();
+
+    mongoClient = MongoClients.create(settings);
+    reactiveClient = com.mongodb.reactivestreams.client.MongoClients.create(settings);
+    db = mongoClient.getDatabase("test");
+  }
+
+  @AfterAll
+  static void teardown() {
+    db.drop();
+    mongoClient.close();
+    reactiveClient.close();
+  }
+
+  @BeforeEach
+  void setupEach() {
+    MockitoAnnotations.openMocks(this);
+
+    db.getCollection("startedHunts").drop();
+    startedHuntId = new ObjectId();
+    db.getCollection("startedHunts").insertMany(List.of(
+        new Document()
+            .append("_id", startedHuntId)
+            .append("accessCode", "123456")
+            .append("completeHunt", new Document()
+                .append("tasks", new ArrayList<Document>())
+                .append("hunt", new Document("name", "Frogs")))
+            .append("status", true)
+            .append("endDate", null)
+            .append("submissionIds", new ArrayList<String>()),
+        new Document()
+            .append("accessCode", "654321")
+            .append("completeHunt", new Document()
+                .append("tasks", new ArrayList<Document>())
+                .append("hunt", new Document()))
+            .append("status", false)
+            .append("endDate", new Date())
+            .append("submissionIds", new ArrayList<String>())));
+
+    db.getCollection("teams").drop();
+    db.getCollection("teams").insertMany(List.of(
+        new Document("teamName", "Team 1").append("startedHuntId", startedHuntId.toHexString()),
+        new Document("teamName", "Team 2").append("startedHuntId", startedHuntId.toHexString()),
+        new Document("teamName", "Team 3").append("startedHuntId", "otherHunt")));
+
+    db.getCollection("submissions").drop();
+    db.getCollection("photoBlobs").drop();
+    db.getCollection("submissions").insertMany(List.of(
+        new Document("taskId", "Task 1").append("teamId", "Team 1").append("photoPath", "one.png"),
+        new Document("taskId", "Task 2").append("teamId", "Team 1").append("photoPath", "two.png"),
+        new Document("taskId", "Task 1").append("teamId", "Team 2").append("photoPath", "three.png")));
+
+    collections = new CollectionRegistry(db);
+    SharedServices services = new SharedServices(collections);
+    ReactiveCollections reactiveCollections = new ReactiveCollections(reactiveClient.getDatabase("test"));
+    startedHuntController = new AsyncStartedHuntController(services, reactiveCollections);
+    teamController = new AsyncTeamController(services, reactiveCollections);
+    submissionController = new AsyncSubmissionController(collections, services, reactiveCollections);
+  }
+
+  @Test
+  void addRoutes() {
+    Javalin mockServer = mock(Javalin.class);
+    startedHuntController.addRoutes(mockServer);
+    teamController.addRoutes(mockServer);
+    submissionController.addRoutes(mockServer);
+    verify(mockServer, Mockito.times(3)).get(any(), any());
+    verify(mockServer).post(any(), any());
+  }
+
+  @Test
+  void getStartedHunt() {
+    when(ctx.pathParam("accessCode")).thenReturn("123456");
+
+    startedHuntController.getStartedHunt(ctx);
+    awaitFuture();
+
+    verify(ctx).status(HttpStatus.OK);
+    Document startedHunt = sentJson();
+    assertEquals("123456", startedHunt.getString("accessCode"));
+    assertEquals(startedHuntId.toHexString(), startedHunt.getString("_id"));
+  }
+
+  @Test
+  void getStartedHuntTwiceUsesTheCache() {
+    when(ctx.pathParam("accessCode")).thenReturn("123456");
+    startedHuntController.getStartedHunt(ctx);
+    awaitFuture();
+
+    // The second join is answered straight away, without a future
+    Context secondCtx = mock(Context.class);
+    when(secondCtx.pathParam("accessCode")).thenReturn("123456");
+    startedHuntController.getStartedHunt(secondCtx);
+
+    verify(secondCtx, Mockito.never()).future(any());
+    verify(secondCtx).result(bytesCaptor.capture());
+    assertEquals("123456", Document.parse(new String(bytesCaptor.getValue(), StandardCharsets.UTF_8))
+        .getString("accessCode"));
+  }
+
+  @Test
+  void getStartedHuntThatIsNotJoinable() {
+    when(ctx.pathParam("accessCode")).thenReturn("654321");
+
+    startedHuntController.getStartedHunt(ctx);
+
+    Throwable failure = awaitFailure();
+    assertInstanceOf(BadRequestResponse.class, failure);
+    assertEquals("The requested hunt is no longer joinable.", failure.getMessage());
+  }
+
+  @Test
+  void getStartedHuntThatDoesNotExist() {
+    when(ctx.pathParam("accessCode")).thenReturn("588935");
+
+    startedHuntController.getStartedHunt(ctx);
+
+    Throwable failure = awaitFailure();
+    assertInstanceOf(NotFoundResponse.class, failure);
+    assertEquals("The requested access code was not found.", failure.getMessage());
+  }
+
+  @Test
+  void getStartedHuntWithABadAccessCode() {
+    when(ctx.pathParam("accessCode")).thenReturn("123abc");
+
+    startedHuntController.getStartedHunt(ctx);
+
+    Throwable failure = awaitFailure();
+    assertInstanceOf(BadRequestResponse.class, failure);
+    assertEquals("The requested access code is not a valid access code.", failure.getMessage());
+  }
+
+  @Test
+  void getAllStartedHuntTeams() {
+    when(ctx.pathParam("startedHuntId")).thenReturn(startedHuntId.toHexString());
+
+    teamController.getAllStartedHuntTeams(ctx);
+    awaitFuture();
+
+    verify(ctx).status(HttpStatus.OK);
+    List<String> names = sentList().stream().map(team -> team.getString("teamName")).sorted().toList();
+    assertEquals(List.of("Team 1", "Team 2"), names);
+  }
+
+  @Test
+  void getSubmissionsByTeam() {
+    when(ctx.pathParam("teamId")).thenReturn("Team 1");
+
+    submissionController.getSubmissionsByTeam(ctx);
+    awaitFuture();
+
+    verify(ctx).status(HttpStatus.OK);
+    List<String> photos = sentList().stream().map(submission -> submission.getString("photoPath")).sorted().toList();
+    assertEquals(List.of("one.png", "two.png"), photos);
+  }
+
+  @Test
+  void addPhotoMakesANewSubmission() {
+    uploadPhotoFor("Team 3", "Task 1");
+
+    submissionController.addPhoto(ctx);
+    awaitFuture();
+
+    verify(ctx).status(HttpStatus.CREATED);
+    verify(ctx).json(mapCaptor.capture());
+    String photoPath = mapCaptor.getValue().get("id");
+    assertTrue(photoPath.matches("[a-f0-9]{64}\\.jpg"));
+
+    Document submission = db.getCollection("submissions")
+        .find(and(eq("taskId", "Task 1"), eq("teamId", "Team 3"))).first();
+    assertNotNull(submission);
+    assertEquals(photoPath, submission.getString("photoPath"));
+    assertNotNull(submission.getDate("submitTime"));
+    // Its ID is an ObjectId, as if the sync driver had made it
+    ObjectId submissionId = submission.getObjectId("_id");
+    assertEquals(List.of(submissionId.toHexString()), submissionIdsOfTheHunt());
+  }
+
+  @Test
+  void addPhotoUpdatesAnExistingSubmission() {
+    uploadPhotoFor("Team 1", "Task 2");
+
+    submissionController.addPhoto(ctx);
+    awaitFuture();
+
+    verify(ctx).json(mapCaptor.capture());
+    String photoPath = mapCaptor.getValue().get("id");
+    List<Document> submissions = db.getCollection("submissions")
+        .find(and(eq("taskId", "Task 2"), eq("teamId", "Team 1"))).into(new ArrayList<>());
+    assertEquals(1, submissions.size());
+    assertEquals(photoPath, submissions.get(0).getString("photoPath"));
+    assertEquals(List.of(submissions.get(0).getObjectId("_id").toHexString()), submissionIdsOfTheHunt());
+  }
+
+  @Test
+  void addPhotoReleasesTheReplacedPhoto() {
+    uploadPhotoFor("Team 1", "Task 2");
+    submissionController.addPhoto(ctx);
+    awaitFuture();
+    verify(ctx).json(mapCaptor.capture());
+    String firstPhoto = mapCaptor.getValue().get("id");
+
+    UploadedFile uploadedFile = mock(UploadedFile.class);
+    when(uploadedFile.content()).thenReturn(new ByteArrayInputStream("another async photo".getBytes()));
+    when(uploadedFile.filename()).thenReturn("another.jpg");
+    when(ctx.uploadedFile("photo")).thenReturn(uploadedFile);
+    submissionController.addPhoto(ctx);
+    verify(ctx, times(2)).future(futureCaptor.capture());
+    futureCaptor.getValue().get().join();
+
+    // Nothing uses the first photo any more, and the submission is still
+    // only listed once on the hunt
+    assertFalse(Files.exists(new PhotoStore(collections).resolve(firstPhoto)));
+    assertEquals(1, db.getCollection("photoBlobs").countDocuments());
+    Document submission = db.getCollection("submissions")
+        .find(and(eq("taskId", "Task 2"), eq("teamId", "Team 1"))).first();
+    assertEquals(List.of(submission.getObjectId("_id").toHexString()), submissionIdsOfTheHunt());
+  }
+
+  @Test
+  void addPhotoWithNoPhoto() {
+    when(ctx.pathParam("startedHuntId")).thenReturn(startedHuntId.toHexString());
+    when(ctx.pathParam("teamId")).thenReturn("Team 1");
+    when(ctx.pathParam("taskId")).thenReturn("Task 3");
+    when(ctx.uploadedFile("photo")).thenReturn(null);
+
+    submissionController.addPhoto(ctx);
+
+    Throwable failure = awaitFailure();
+    assertInstanceOf(BadRequestResponse.class, failure);
+    assertEquals("No photo uploaded", failure.getMessage());
+    assertEquals(0, db.getCollection("submissions").countDocuments(eq("taskId", "Task 3")));
+  }
+
+  private void uploadPhotoFor(String teamId, String taskId) {
+    UploadedFile uploadedFile = mock(UploadedFile.class);
+    when(uploadedFile.content()).thenReturn(new ByteArrayInputStream("async photo content".getBytes()));
+    when(uploadedFile.filename()).thenReturn("async.jpg");
+
+    when(ctx.pathParam("startedHuntId")).thenReturn(startedHuntId.toHexString());
+    when(ctx.pathParam("teamId")).thenReturn(teamId);
+    when(ctx.pathParam("taskId")).thenReturn(taskId);
+    when(ctx.uploadedFile("photo")).thenReturn(uploadedFile);
+  }
+
+  private List<String> submissionIdsOfTheHunt() {
+    return db.getCollection("startedHunts").find(eq("_id", startedHuntId)).first()
+        .getList("submissionIds", String.class);
+  }
+
+  /**
+   * Runs the future the controller handed to `ctx.future`, as Javalin would,
+   * and waits for it.
+   */
+  private void awaitFuture() {
+    verify(ctx).future(futureCaptor.capture());
+    futureCaptor.getValue().get().join();
+  }
+
+  /**
+   * Like `awaitFuture`, for a future that should fail.
+   *
+   * @return What it failed with, which Javalin would turn into the response
+   */
+  private Throwable awaitFailure() {
+    verify(ctx).future(futureCaptor.capture());
+    CompletableFuture<?> future = futureCaptor.getValue().get();
+    return assertThrows(CompletionException.class, future::join).getCause();
+  }
+
+  private Document sentJson() {
+    verify(ctx).result(bytesCaptor.capture());
+    return Document.parse(new String(bytesCaptor.getValue(), StandardCharsets.UTF_8));
+  }
+
+  private List<Document> sentList() {
+    verify(ctx).result(bytesCaptor.capture());
+    String json = new String(bytesCaptor.getValue(), StandardCharsets.UTF_8);
+    return Document.parse("{\"list\": " + json + "}").getList("list", Document.class);
+  }
+}
@@ -1,6 +1,7 @@
 package umm3601.controllerSpecs;
 
 import static com.mongodb.client.model.Filters.eq;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
@@ -17,11 +18,12 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.io.ByteArrayInputStream;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Date;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -31,7 +33,11 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
 import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
@@ -42,16 +48,27 @@ import org.mockito.Captor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
+import org.mongojack.JacksonMongoCollection;
 
 import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoTimeoutException;
 import com.mongodb.ServerAddress;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.result.UpdateResult;
 
 import io.javalin.Javalin;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponse;
 import io.javalin.http.BadRequestResponse;
+import io.javalin.http.ConflictResponse;
+import io.javalin.http.ContentType;
 import io.javalin.http.Context;
 import io.javalin.http.HttpStatus;
 import io.javalin.http.NotFoundResponse;
@@ -60,6 +77,9 @@ import io.javalin.json.JavalinJackson;
 import io.javalin.validation.BodyValidator;
 import io.javalin.validation.ValidationException;
 import io.javalin.validation.Validator;
+import umm3601.CollectionRegistry;
+import umm3601.KeysetPagination;
+import umm3601.SharedServices;
 import umm3601.host.CompleteHunt;
 import umm3601.host.EndedHunt;
 import umm3601.host.FinishedTask;
@@ -67,6 +87,7 @@ import umm3601.host.Host;
 import umm3601.host.HostController;
 import umm3601.host.Hunt;
 import umm3601.host.Task;
+import umm3601.photos.Rendition;
 import umm3601.startedHunts.StartedHunt;
 
 @SuppressWarnings({ "MagicNumber" })
@@ -80,28 +101,21 @@ public class HostControllerSpec {
   private static MongoClient mongoClient;
   private static MongoDatabase db;
   private static JavalinJackson javalinJackson = new JavalinJackson();
+  private CollectionRegistry collections;
+  private SharedServices services;
 
   @Mock
   private Context ctx;
 
-  @Captor
-  private ArgumentCaptor<ArrayList<Hunt>> huntArrayListCaptor;
-
   @Captor
   private ArgumentCaptor<ArrayList<Task>> taskArrayListCaptor;
 
   @Captor
   private ArgumentCaptor<Host> hostCaptor;
 
-  @Captor
-  private ArgumentCaptor<CompleteHunt> completeHuntCaptor;
-
   @Captor
   private ArgumentCaptor<StartedHunt> startedHuntCaptor;
 
-  @Captor
-  private ArgumentCaptor<ArrayList<StartedHunt>> startedHuntArrayListCaptor;
-
   @Captor
   private ArgumentCaptor<EndedHunt> finishedHuntCaptor;
 
@@ -129,6 +143,8 @@ public class HostControllerSpec {
   void setupEach() throws IOException {
     MockitoAnnotations.openMocks(this);
 
+    db.getCollection("photoBlobs").drop();
+
     MongoCollection<Document> hostDocuments = db.getCollection("hosts");
     hostDocuments.drop();
     frysId = new ObjectId();
@@ -269,7 +285,9 @@ public class HostControllerSpec {
     startedHuntsDocuments.insertMany(startedHunts);
     startedHuntsDocuments.insertOne(startedHunt);
 
-    hostController = new HostController(db);
+    collections = new CollectionRegistry(db);
+    services = new SharedServices(collections);
+    hostController = new HostController(collections, services);
   }
 
   @Test
@@ -324,17 +342,74 @@ public class HostControllerSpec {
     when(ctx.queryParamAsClass("hostId", String.class))
         .thenReturn(Validator.create(String.class, "frysId", "hostId"));
 
+    ByteArrayOutputStream body = streamedBody();
+
     hostController.getHunts(ctx);
 
-    verify(ctx).json(huntArrayListCaptor.capture());
     verify(ctx).status(HttpStatus.OK);
 
-    assertEquals(4, huntArrayListCaptor.getValue().size());
-    for (Hunt hunt : huntArrayListCaptor.getValue()) {
-      assertEquals("frysId", hunt.hostId);
+    List<Document> hunts = jsonArray(body);
+    assertEquals(4, hunts.size());
+    for (Document hunt : hunts) {
+      assertEquals("frysId", hunt.getString("hostId"));
     }
   }
 
+  @SuppressWarnings("unchecked")
+  @Test
+  void getHuntsAPageAtATimeSortedByEstimate() throws IOException {
+    Map<String, List<String>> queryParams = new HashMap<>();
+    queryParams.put("hostId", Collections.singletonList("frysId"));
+    when(ctx.queryParamMap()).thenReturn(queryParams);
+    when(ctx.queryParamAsClass("hostId", String.class))
+        .thenReturn(Validator.create(String.class, "frysId", "hostId"));
+    when(ctx.queryParam("sortby")).thenReturn("est");
+    when(ctx.queryParam("limit")).thenReturn("1");
+
+    List<Hunt> hunts = new ArrayList<>();
+    List<String> nextPages = new ArrayList<>();
+    when(ctx.json(any())).thenAnswer(invocation -> {
+      hunts.addAll((List<Hunt>) invocation.getArgument(0));
+      return ctx;
+    });
+    when(ctx.header(Mockito.eq(KeysetPagination.NEXT_PAGE_HEADER), Mockito.anyString())).thenAnswer(invocation -> {
+      nextPages.add(invocation.getArgument(1));
+      return ctx;
+    });
+
+    // Two of Fry's hunts have the same estimate, so this checks that ties
+    // don't get lost or repeated between pages
+    hostController.getHunts(ctx);
+    while (nextPages.size() == hunts.size()) {
+      when(ctx.queryParam("after")).thenReturn(nextPages.get(nextPages.size() - 1));
+      hostController.getHunts(ctx);
+    }
+
+    assertEquals(4, hunts.size());
+    assertEquals(3, nextPages.size());
+    assertEquals(4, hunts.stream().map(hunt -> hunt._id).distinct().count());
+    for (int i = 1; i < hunts.size(); i++) {
+      assertTrue(hunts.get(i - 1).est <= hunts.get(i).est);
+    }
+  }
+
+  @Test
+  void getHuntsWithATokenForAnotherSortOrder() throws IOException {
+    when(ctx.queryParamMap()).thenReturn(new HashMap<>());
+    when(ctx.queryParam("limit")).thenReturn("1");
+    List<String> nextPages = new ArrayList<>();
+    when(ctx.header(Mockito.eq(KeysetPagination.NEXT_PAGE_HEADER), Mockito.anyString())).thenAnswer(invocation -> {
+      nextPages.add(invocation.getArgument(1));
+      return ctx;
+    });
+    hostController.getHunts(ctx);
+
+    when(ctx.queryParam("sortby")).thenReturn("est");
+    when(ctx.queryParam("after")).thenReturn(nextPages.get(0));
+
+    assertThrows(BadRequestResponse.class, () -> hostController.getHunts(ctx));
+  }
+
   @Test
   void getHuntById() throws IOException {
     String id = huntId.toHexString();
@@ -625,6 +700,134 @@ public class HostControllerSpec {
     assertEquals(new ArrayList<String>(), addedTask.get("photos"));
   }
 
+  @SuppressWarnings("unchecked")
+  @Test
+  void importTasksFromJson() throws IOException {
+    when(ctx.pathParam("id")).thenReturn(huntId.toHexString());
+    when(ctx.contentType()).thenReturn("application/json; charset=utf-8");
+    when(ctx.bodyInputStream()).thenReturn(new ByteArrayInputStream("""
+        [
+          {"name": "  Find a tree "},
+          {"name": "Find a rock", "status": false, "huntId": "%s"}
+        ]
+        """.formatted(huntId.toHexString()).getBytes(StandardCharsets.UTF_8)));
+
+    hostController.importTasks(ctx);
+
+    ArgumentCaptor<Map<String, Object>> resultCaptor = ArgumentCaptor.forClass(Map.class);
+    verify(ctx).json(resultCaptor.capture());
+    verify(ctx).status(HttpStatus.CREATED);
+    assertEquals(2, resultCaptor.getValue().get("count"));
+    assertEquals(2, ((List<String>) resultCaptor.getValue().get("ids")).size());
+
+    assertImportedTasks(List.of("Find a tree", "Find a rock"));
+  }
+
+  @Test
+  void importTasksFromJsonLines() throws IOException {
+    when(ctx.pathParam("id")).thenReturn(huntId.toHexString());
+    when(ctx.contentType()).thenReturn("application/x-ndjson");
+    when(ctx.bodyInputStream()).thenReturn(new ByteArrayInputStream("""
+        {"name": "Find a tree"}
+        {"name": "Find a rock"}
+        """.getBytes(StandardCharsets.UTF_8)));
+
+    hostController.importTasks(ctx);
+
+    verify(ctx).status(HttpStatus.CREATED);
+    assertImportedTasks(List.of("Find a tree", "Find a rock"));
+  }
+
+  @Test
+  void importTasksFromCsv() throws IOException {
+    when(ctx.pathParam("id")).thenReturn(huntId.toHexString());
+    when(ctx.contentType()).thenReturn("text/csv");
+    when(ctx.bodyInputStream()).thenReturn(new ByteArrayInputStream("""
+        Notes,Name
+        outside,"Find a tree, a big one"
+        ,"Find a ""rock""\"
+
+        , Find a leaf
+        """.getBytes(StandardCharsets.UTF_8)));
+
+    hostController.importTasks(ctx);
+
+    verify(ctx).status(HttpStatus.CREATED);
+    assertImportedTasks(List.of("Find a tree, a big one", "Find a \"rock\"", "Find a leaf"));
+  }
+
+  @Test
+  void importTasksWithABadTaskAddsNone() throws IOException {
+    when(ctx.pathParam("id")).thenReturn(huntId.toHexString());
+    when(ctx.contentType()).thenReturn("application/json");
+    when(ctx.bodyInputStream()).thenReturn(new ByteArrayInputStream("""
+        [{"name": "Find a tree"}, {"name": ""}]
+        """.getBytes(StandardCharsets.UTF_8)));
+
+    Throwable exception = assertThrows(BadRequestResponse.class, () -> hostController.importTasks(ctx));
+    assertEquals("Task 2: Name must be at least 1 character", exception.getMessage());
+
+    assertImportedTasks(List.of());
+  }
+
+  @Test
+  void importTasksForAnotherHuntAddsNone() throws IOException {
+    String otherHuntId = new ObjectId().toHexString();
+    when(ctx.pathParam("id")).thenReturn(huntId.toHexString());
+    when(ctx.contentType()).thenReturn("application/json");
+    when(ctx.bodyInputStream()).thenReturn(new ByteArrayInputStream("""
+        [{"name": "Find a tree"}, {"name": "Find a rock", "huntId": "%s"}]
+        """.formatted(otherHuntId).getBytes(StandardCharsets.UTF_8)));
+
+    Throwable exception = assertThrows(BadRequestResponse.class, () -> hostController.importTasks(ctx));
+    assertEquals("Task 2: Belongs to hunt " + otherHuntId + ", not " + huntId.toHexString(),
+        exception.getMessage());
+
+    assertImportedTasks(List.of());
+  }
+
+  @Test
+  void importTasksWithBadBodies() throws IOException {
+    when(ctx.pathParam("id")).thenReturn(huntId.toHexString());
+    when(ctx.contentType()).thenReturn("application/json");
+    when(ctx.bodyInputStream()).thenReturn(
+        new ByteArrayInputStream("[{\"name\": ".getBytes(StandardCharsets.UTF_8)),
+        new ByteArrayInputStream("[]".getBytes(StandardCharsets.UTF_8)));
+
+    assertThrows(BadRequestResponse.class, () -> hostController.importTasks(ctx));
+    assertThrows(BadRequestResponse.class, () -> hostController.importTasks(ctx));
+
+    when(ctx.contentType()).thenReturn("text/csv");
+    when(ctx.bodyInputStream()).thenReturn(new ByteArrayInputStream("title\nFind a tree\n".getBytes()));
+    assertThrows(BadRequestResponse.class, () -> hostController.importTasks(ctx));
+
+    assertImportedTasks(List.of());
+  }
+
+  @Test
+  void importTasksIntoAHuntThatDoesNotExist() {
+    when(ctx.pathParam("id")).thenReturn(new ObjectId().toHexString());
+    assertThrows(NotFoundResponse.class, () -> hostController.importTasks(ctx));
+
+    when(ctx.pathParam("id")).thenReturn("notAnId");
+    assertThrows(BadRequestResponse.class, () -> hostController.importTasks(ctx));
+  }
+
+  /**
+   * Checks that the hunt got exactly these new tasks, in order, and that its
+   * task count went up by that many.
+   */
+  private void assertImportedTasks(List<String> names) {
+    List<String> added = db.getCollection("tasks")
+        .find(eq("huntId", huntId.toHexString()))
+        .sort(Sorts.ascending("_id"))
+        .map(task -> task.getString("name"))
+        .into(new ArrayList<>());
+    assertEquals(names, added.subList(added.size() - names.size(), added.size()));
+    Document hunt = db.getCollection("hunts").find(eq("_id", huntId)).first();
+    assertEquals(3 + names.size(), hunt.getInteger("numberOfTasks"));
+  }
+
   @Test
   void addInvalidHuntIdTask() throws IOException {
     String testNewTask = """
@@ -779,15 +982,20 @@ public class HostControllerSpec {
 
     hostController.getCompleteHunt(ctx);
 
-    verify(ctx).json(completeHuntCaptor.capture());
+    ArgumentCaptor<byte[]> jsonCaptor = ArgumentCaptor.forClass(byte[].class);
+    verify(ctx).result(jsonCaptor.capture());
+    verify(ctx).contentType(ContentType.APPLICATION_JSON);
     verify(ctx).status(HttpStatus.OK);
 
-    assertEquals("Best Hunt", completeHuntCaptor.getValue().hunt.name);
-    assertEquals(huntId.toHexString(), completeHuntCaptor.getValue().hunt._id);
+    Document completeHunt = Document.parse(new String(jsonCaptor.getValue(), StandardCharsets.UTF_8));
+    Document hunt = completeHunt.get("hunt", Document.class);
+    assertEquals("Best Hunt", hunt.getString("name"));
+    assertEquals(huntId.toHexString(), hunt.get("_id").toString());
 
-    assertEquals(3, completeHuntCaptor.getValue().tasks.size());
-    for (Task task : completeHuntCaptor.getValue().tasks) {
-      assertEquals(huntId.toHexString(), task.huntId);
+    List<Document> tasks = completeHunt.getList("tasks", Document.class);
+    assertEquals(3, tasks.size());
+    for (Document task : tasks) {
+      assertEquals(huntId.toHexString(), task.getString("huntId"));
     }
   }
 
@@ -802,6 +1010,57 @@ public class HostControllerSpec {
     assertEquals("The requested hunt id wasn't a legal Mongo Object ID.", exception.getMessage());
   }
 
+  @Test
+  void getCompleteHuntSortsTasksLikeGetTasks() throws IOException {
+    when(ctx.pathParam("id")).thenReturn(huntId.toHexString());
+    when(ctx.queryParam("sortby")).thenReturn("status");
+
+    CompleteHunt completeHunt = hostController.loadCompleteHunt(ctx);
+    List<Task> tasks = hostController.getTasks(ctx);
+
+    assertEquals(tasks.size(), completeHunt.tasks.size());
+    for (int i = 0; i < tasks.size(); i++) {
+      assertEquals(tasks.get(i).status, completeHunt.tasks.get(i).status);
+    }
+    assertEquals(hostController.getHunt(ctx).numberOfTasks, completeHunt.hunt.numberOfTasks);
+  }
+
+  @Test
+  void onlyAnOldDatabaseTurnsOffTheCompleteHuntAggregation() {
+    // A $lookup with both localField and a pipeline, before Mongo 5.0
+    assertTrue(HostController.isUnsupportedPipeline(new MongoCommandException(
+        new BsonDocument("code", new BsonInt32(9))
+            .append("errmsg", new BsonString("$lookup with 'pipeline' may not specify 'localField'")),
+        new ServerAddress())));
+    assertFalse(HostController.isUnsupportedPipeline(new MongoCommandException(
+        new BsonDocument("code", new BsonInt32(189)).append("errmsg", new BsonString("PrimarySteppedDown")),
+        new ServerAddress())));
+    assertFalse(HostController.isUnsupportedPipeline(new MongoTimeoutException("Timed out waiting for a server")));
+  }
+
+  @Test
+  void getCompleteHuntWithNoTasks() throws IOException {
+    Document hunt = new Document("hostId", "frysId").append("name", "Empty Hunt").append("numberOfTasks", 0);
+    db.getCollection("hunts").insertOne(hunt);
+    when(ctx.pathParam("id")).thenReturn(hunt.getObjectId("_id").toHexString());
+
+    CompleteHunt completeHunt = hostController.loadCompleteHunt(ctx);
+
+    assertEquals("Empty Hunt", completeHunt.hunt.name);
+    assertEquals(0, completeHunt.tasks.size());
+  }
+
+  @Test
+  void getCompleteHuntThatDoesNotExist() throws IOException {
+    when(ctx.pathParam("id")).thenReturn(new ObjectId().toHexString());
+
+    Throwable exception = assertThrows(NotFoundResponse.class, () -> {
+      hostController.getCompleteHunt(ctx);
+    });
+
+    assertEquals("The requested hunt was not found", exception.getMessage());
+  }
+
   @Test
   void deleteTasksWithHunt() throws IOException {
     String testID = huntId.toHexString();
@@ -912,13 +1171,14 @@ public class HostControllerSpec {
 
   @Test
   void getEndedHunts() throws IOException {
-    hostController.getEndedHunts(ctx);
+    ByteArrayOutputStream body = streamedBody();
 
-    verify(ctx).json(startedHuntArrayListCaptor.capture());
+    hostController.getEndedHunts(ctx);
 
-    assertEquals(1, startedHuntArrayListCaptor.getValue().size());
-    for (StartedHunt startedHunt : startedHuntArrayListCaptor.getValue()) {
-      assertEquals(false, startedHunt.status);
+    List<Document> endedHunts = jsonArray(body);
+    assertEquals(1, endedHunts.size());
+    for (Document startedHunt : endedHunts) {
+      assertEquals(false, startedHunt.getBoolean("status"));
     }
   }
 
@@ -938,12 +1198,13 @@ public class HostControllerSpec {
     verify(ctx, times(2)).status(HttpStatus.OK);
 
     // Check the status and endDate after ending the hunt
+    ByteArrayOutputStream body = streamedBody();
     hostController.getEndedHunts(ctx);
-    verify(ctx).json(startedHuntArrayListCaptor.capture());
-    for (StartedHunt startedHunt : startedHuntArrayListCaptor.getValue()) {
-      if (startedHunt._id.equals("123456")) {
-        assertEquals(false, startedHunt.status);
-      }
+    List<Document> endedHunts = jsonArray(body);
+    assertTrue(endedHunts.stream()
+        .anyMatch(startedHunt -> startedHuntId.toHexString().equals(String.valueOf(startedHunt.get("_id")))));
+    for (Document startedHunt : endedHunts) {
+      assertEquals(false, startedHunt.getBoolean("status"));
     }
   }
 
@@ -1052,6 +1313,33 @@ public class HostControllerSpec {
     hostController.deletePhoto(id, ctx);
   }
 
+  @Test
+  void testUploadSamePhotoTwiceIsStoredOnce() throws IOException {
+    UploadedFile uploadedFile = mock(UploadedFile.class);
+
+    when(ctx.uploadedFile("photo")).thenReturn(uploadedFile);
+    when(uploadedFile.content()).thenReturn(
+        new ByteArrayInputStream("the same photo".getBytes()),
+        new ByteArrayInputStream("the same photo".getBytes()));
+    when(uploadedFile.filename()).thenReturn("first.JPG", "second.png");
+    when(ctx.status(anyInt())).thenReturn(ctx);
+
+    String firstId = hostController.uploadPhoto(ctx);
+    String secondId = hostController.uploadPhoto(ctx);
+
+    assertTrue(firstId.matches("[a-f0-9]{64}\\.jpg"));
+    assertEquals(firstId, secondId);
+    assertEquals(1, db.getCollection("photoBlobs").countDocuments());
+
+    // The photo is only deleted once nothing refers to it any more
+    Path photo = services.photoStore().resolve(firstId);
+    hostController.deletePhoto(firstId, ctx);
+    assertTrue(Files.exists(photo));
+    hostController.deletePhoto(secondId, ctx);
+    assertFalse(Files.exists(photo));
+    assertEquals(0, db.getCollection("photoBlobs").countDocuments());
+  }
+
   @Test
   void testUploadPhotoWithoutPhoto() {
 
@@ -1133,6 +1421,39 @@ public class HostControllerSpec {
     assertEquals(1, updatedTask.get("photos", List.class).size());
   }
 
+  @SuppressWarnings("unchecked")
+  @Test
+  void testAddPhotoPathToTaskConcurrentlyKeepsEveryPhoto() throws InterruptedException {
+    Document startedHunt = db.getCollection("startedHunts")
+        .find(eq("_id", new ObjectId(startedHuntId.toHexString()))).first();
+    Document task = db.getCollection("tasks").find(eq("_id", new ObjectId(taskId.toHexString()))).first();
+    startedHunt.get("completeHunt", Document.class).get("tasks", List.class).add(task);
+    db.getCollection("startedHunts").replaceOne(eq("_id", new ObjectId(startedHuntId.toHexString())), startedHunt);
+
+    when(ctx.pathParam("taskId")).thenReturn(taskId.toHexString());
+    when(ctx.pathParam("startedHuntId")).thenReturn(startedHuntId.toHexString());
+
+    int uploads = 8;
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < uploads; i++) {
+      String photoPath = "photo" + i + ".jpg";
+      threads.add(new Thread(() -> hostController.addPhotoPathToTask(ctx, photoPath)));
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    Document updatedHunt = db.getCollection("startedHunts")
+        .find(eq("_id", new ObjectId(startedHuntId.toHexString()))).first();
+    List<Document> tasks = updatedHunt.get("completeHunt", Document.class).get("tasks", List.class);
+    assertEquals(uploads, tasks.get(3).get("photos", List.class).size());
+    // The other tasks are left alone
+    assertEquals(0, tasks.get(0).get("photos", List.class).size());
+  }
+
   @Test
   void testAddPhotoPathToTaskBadTaskId() {
     String id = "588935f56536a3daea54de8c";
@@ -1194,7 +1515,7 @@ public class HostControllerSpec {
     task.photos = Arrays.asList("photo1.jpg", "photo2.jpg");
 
     // Create the HostController instance
-    HostController mockHostController = new HostController(db);
+    HostController mockHostController = new HostController(collections, services);
 
     // Call the method with the task
     List<String> photoUrls = mockHostController.getPhotosFromTask(task);
@@ -1204,6 +1525,17 @@ public class HostControllerSpec {
     assertEquals("http://localhost:4567/photos/photo2.jpg", photoUrls.get(1));
   }
 
+  @Test
+  void testGetPhotosFromTaskWithRendition() {
+    Task task = new Task();
+    task.photos = Arrays.asList("photo1.jpg", "photo2.jpg");
+
+    List<String> photoUrls = hostController.getPhotosFromTask(task, Rendition.THUMBNAIL);
+
+    assertEquals("http://localhost:4567/photos/photo1.jpg?size=thumb", photoUrls.get(0));
+    assertEquals("http://localhost:4567/photos/photo2.jpg?size=thumb", photoUrls.get(1));
+  }
+
   @SuppressWarnings("unchecked")
   @Test
   void testRemovePhotoPathFromTask() {
@@ -1231,6 +1563,38 @@ public class HostControllerSpec {
     assertEquals(0, updatedTask.get("photos", List.class).size());
   }
 
+  @Test
+  @SuppressWarnings("unchecked")
+  void testRemovePhotoPathFromTaskThatKeepsChanging() {
+    String photoPath = "test.jpg";
+    Document startedHunt = db.getCollection("startedHunts").find(eq("_id", new ObjectId(startedHuntId.toHexString())))
+        .first();
+    Document task = db.getCollection("tasks").find(eq("_id", new ObjectId(taskId.toHexString()))).first();
+    startedHunt.get("completeHunt", Document.class).get("tasks", List.class).add(task);
+    db.getCollection("startedHunts").replaceOne(eq("_id", new ObjectId(startedHuntId.toHexString())), startedHunt);
+
+    when(ctx.pathParam("taskId")).thenReturn(taskId.toHexString());
+    when(ctx.pathParam("startedHuntId")).thenReturn(startedHuntId.toHexString());
+    hostController.addPhotoPathToTask(ctx, photoPath);
+
+    // Every write finds the task changed, as if photos kept being added to it
+    CollectionRegistry busyCollections = Mockito.spy(collections);
+    JacksonMongoCollection<StartedHunt> busyStartedHunts = Mockito.spy(collections.startedHunts());
+    Mockito.doReturn(busyStartedHunts).when(busyCollections).startedHunts();
+    Mockito.doReturn(UpdateResult.acknowledged(1, 0L, null))
+        .when(busyStartedHunts).updateOne(any(Bson.class), any(Bson.class), any(UpdateOptions.class));
+    HostController busyHostController = new HostController(busyCollections, services);
+
+    assertThrows(ConflictResponse.class, () -> busyHostController.removePhotoPathFromTask(
+        ctx, taskId.toHexString(), startedHuntId.toHexString(), photoPath));
+    verify(busyStartedHunts, times(5)).updateOne(any(Bson.class), any(Bson.class), any(UpdateOptions.class));
+
+    Document updatedTask = (Document) db.getCollection("startedHunts")
+        .find(eq("_id", new ObjectId(startedHuntId.toHexString())))
+        .first().get("completeHunt", Document.class).get("tasks", List.class).get(3);
+    assertEquals(List.of(photoPath), updatedTask.get("photos", List.class));
+  }
+
   @Test
   void testRemovePhotoPathFromTaskBadTask() {
     String testId = "588935f56536a3daea54de8c";
@@ -1255,7 +1619,6 @@ public class HostControllerSpec {
   @Test
   void testReplacePhoto() {
     UploadedFile uploadedFile = mock(UploadedFile.class);
-    InputStream inputStream = new ByteArrayInputStream(new byte[0]);
 
     Document startedHunt = db.getCollection("startedHunts").find(eq("_id", new ObjectId(startedHuntId.toHexString())))
         .first();
@@ -1264,7 +1627,10 @@ public class HostControllerSpec {
     db.getCollection("startedHunts").replaceOne(eq("_id", new ObjectId(startedHuntId.toHexString())), startedHunt);
 
     when(ctx.uploadedFile("photo")).thenReturn(uploadedFile);
-    when(uploadedFile.content()).thenReturn(inputStream);
+    // Photos are named after their contents, so the replacement has to be a different photo
+    when(uploadedFile.content()).thenReturn(
+        new ByteArrayInputStream("first photo".getBytes()),
+        new ByteArrayInputStream("second photo".getBytes()));
     when(uploadedFile.filename()).thenReturn("test1.jpg");
     when(ctx.status(anyInt())).thenReturn(ctx);
     when(ctx.pathParam("taskId")).thenReturn(taskId.toHexString());
@@ -1287,6 +1653,73 @@ public class HostControllerSpec {
     hostController.deletePhoto(photoId, ctx);
   }
 
+  @SuppressWarnings("unchecked")
+  @Test
+  void testReplaceOneOfTwoCopiesOfAPhoto() {
+    UploadedFile uploadedFile = mock(UploadedFile.class);
+
+    Document startedHunt = db.getCollection("startedHunts").find(eq("_id", new ObjectId(startedHuntId.toHexString())))
+        .first();
+    Document task = db.getCollection("tasks").find(eq("_id", new ObjectId(taskId.toHexString()))).first();
+    startedHunt.get("completeHunt", Document.class).get("tasks", List.class).add(task);
+    db.getCollection("startedHunts").replaceOne(eq("_id", new ObjectId(startedHuntId.toHexString())), startedHunt);
+
+    when(ctx.uploadedFile("photo")).thenReturn(uploadedFile);
+    // The same picture uploaded twice, then replaced by a different one
+    when(uploadedFile.content()).thenReturn(
+        new ByteArrayInputStream("same photo".getBytes()),
+        new ByteArrayInputStream("same photo".getBytes()),
+        new ByteArrayInputStream("other photo".getBytes()));
+    when(uploadedFile.filename()).thenReturn("test1.jpg");
+    when(ctx.status(anyInt())).thenReturn(ctx);
+    when(ctx.pathParam("taskId")).thenReturn(taskId.toHexString());
+    when(ctx.pathParam("startedHuntId")).thenReturn(startedHuntId.toHexString());
+
+    hostController.addPhoto(ctx);
+    hostController.addPhoto(ctx);
+    Document updatedTask = (Document) db.getCollection("startedHunts")
+        .find(eq("_id", new ObjectId(startedHuntId.toHexString())))
+        .first().get("completeHunt", Document.class).get("tasks", List.class).get(3);
+    List<String> photos = updatedTask.get("photos", List.class);
+    assertEquals(2, photos.size());
+    String photoId = photos.get(0);
+    assertEquals(photoId, photos.get(1));
+    assertEquals(2, db.getCollection("photoBlobs").find().first().getInteger("refCount"));
+
+    when(ctx.pathParam("photoId")).thenReturn(photoId);
+    hostController.replacePhoto(ctx);
+
+    // Only one copy is replaced, and only its reference is given up
+    updatedTask = (Document) db.getCollection("startedHunts").find(eq("_id", new ObjectId(startedHuntId.toHexString())))
+        .first().get("completeHunt", Document.class).get("tasks", List.class).get(3);
+    photos = updatedTask.get("photos", List.class);
+    assertEquals(2, photos.size());
+    assertEquals(1, photos.stream().filter(photoId::equals).count());
+    Path photo = services.photoStore().resolve(photoId);
+    String hash = photoId.substring(0, photoId.indexOf('.'));
+    assertEquals(1, db.getCollection("photoBlobs").find(eq("_id", hash)).first().getInteger("refCount"));
+    assertTrue(Files.exists(photo));
+
+    // Deleting the other copy deletes the file
+    hostController.deletePhoto(ctx);
+    assertNull(db.getCollection("photoBlobs").find(eq("_id", hash)).first());
+    assertFalse(Files.exists(photo));
+
+    String otherId = photos.stream().filter(id -> !id.equals(photoId)).findFirst().get();
+    hostController.deletePhoto(otherId, ctx);
+  }
+
+  @Test
+  void testDeletePhotoNotOnTask() {
+    when(ctx.status(anyInt())).thenReturn(ctx);
+    when(ctx.pathParam("taskId")).thenReturn(taskId.toHexString());
+    when(ctx.pathParam("startedHuntId")).thenReturn(startedHuntId.toHexString());
+    when(ctx.pathParam("photoId")).thenReturn("test.jpg");
+
+    assertThrows(BadRequestResponse.class, () -> hostController.deletePhoto(ctx));
+    verify(ctx).status(HttpStatus.NOT_FOUND);
+  }
+
   @Test
   void testGetStartedHuntByIdValidId() {
     when(ctx.pathParam("id")).thenReturn(startedHuntId.toHexString());
@@ -1357,17 +1790,161 @@ public class HostControllerSpec {
   }
 
   @Test
-  void testGetPhotoFileExists() throws FileNotFoundException {
+  void testGetPhotoFileExists() throws IOException {
     String photoPath = "test.png";
-    File file = mock(File.class);
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    HttpServletResponse res = mock(HttpServletResponse.class);
 
     when(ctx.pathParam("photoPath")).thenReturn(photoPath);
+    when(ctx.res()).thenReturn(res);
+    when(res.getOutputStream()).thenReturn(capturingOutputStream(body));
+
+    hostController.getPhoto(ctx);
+
+    byte[] expected = Files.readAllBytes(Path.of("photos", photoPath));
+    verify(ctx).status(HttpStatus.OK);
+    verify(ctx).contentType("image/png");
+    verify(res).setContentLengthLong(expected.length);
+    assertArrayEquals(expected, body.toByteArray());
+  }
+
+  @Test
+  void testGetPhotoSetsCachingHeaders() throws IOException {
+    HttpServletResponse res = mock(HttpServletResponse.class);
+
+    when(ctx.pathParam("photoPath")).thenReturn("test.png");
+    when(ctx.res()).thenReturn(res);
+    when(res.getOutputStream()).thenReturn(capturingOutputStream(new ByteArrayOutputStream()));
+
+    hostController.getPhoto(ctx);
+
+    verify(ctx).header("ETag", "\"test.png\"");
+    verify(ctx).header("Cache-Control", "public, max-age=31536000, immutable");
+    verify(ctx).header("Accept-Ranges", "bytes");
+  }
+
+  @Test
+  void testGetPhotoRenditionNotReadySendsOriginal() throws IOException {
+    HttpServletResponse res = mock(HttpServletResponse.class);
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+    when(ctx.pathParam("photoPath")).thenReturn("test.png");
+    when(ctx.queryParam("size")).thenReturn("thumb");
+    when(ctx.res()).thenReturn(res);
+    when(res.getOutputStream()).thenReturn(capturingOutputStream(body));
+
+    hostController.getPhoto(ctx);
+
+    // The original can't be cached forever as the thumbnail
+    verify(ctx).header("Cache-Control", "no-cache");
+    verify(ctx).status(HttpStatus.OK);
+    assertArrayEquals(Files.readAllBytes(Path.of("photos", "test.png")), body.toByteArray());
+  }
+
+  @Test
+  void testGetPhotoUnknownSize() {
+    when(ctx.pathParam("photoPath")).thenReturn("test.png");
+    when(ctx.queryParam("size")).thenReturn("huge");
+
+    assertThrows(BadRequestResponse.class, () -> hostController.getPhoto(ctx));
+  }
+
+  @Test
+  void testGetPhotoNotModified() throws IOException {
+    HttpServletResponse res = mock(HttpServletResponse.class);
+
+    when(ctx.pathParam("photoPath")).thenReturn("test.png");
+    when(ctx.header("If-None-Match")).thenReturn("\"other.png\", \"test.png\"");
+    when(ctx.res()).thenReturn(res);
+
+    hostController.getPhoto(ctx);
+
+    verify(ctx).status(HttpStatus.NOT_MODIFIED);
+    verify(res, Mockito.never()).getOutputStream();
+  }
+
+  @Test
+  void testGetPhotoRange() throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    HttpServletResponse res = mock(HttpServletResponse.class);
+
+    when(ctx.pathParam("photoPath")).thenReturn("test.png");
+    when(ctx.header("Range")).thenReturn("bytes=2-5");
+    when(ctx.res()).thenReturn(res);
+    when(res.getOutputStream()).thenReturn(capturingOutputStream(body));
+
+    hostController.getPhoto(ctx);
+
+    byte[] photo = Files.readAllBytes(Path.of("photos", "test.png"));
+    verify(ctx).status(HttpStatus.PARTIAL_CONTENT);
+    verify(ctx).header("Content-Range", "bytes 2-5/" + photo.length);
+    verify(res).setContentLengthLong(4);
+    assertArrayEquals(Arrays.copyOfRange(photo, 2, 6), body.toByteArray());
+  }
+
+  @Test
+  void testGetPhotoSuffixRange() throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    HttpServletResponse res = mock(HttpServletResponse.class);
+
+    when(ctx.pathParam("photoPath")).thenReturn("test.png");
+    when(ctx.header("Range")).thenReturn("bytes=-3");
+    when(ctx.res()).thenReturn(res);
+    when(res.getOutputStream()).thenReturn(capturingOutputStream(body));
+
+    hostController.getPhoto(ctx);
+
+    byte[] photo = Files.readAllBytes(Path.of("photos", "test.png"));
+    verify(ctx).status(HttpStatus.PARTIAL_CONTENT);
+    assertArrayEquals(Arrays.copyOfRange(photo, photo.length - 3, photo.length), body.toByteArray());
+  }
+
+  @Test
+  void testGetPhotoUnsatisfiableRange() throws IOException {
+    HttpServletResponse res = mock(HttpServletResponse.class);
+
+    when(ctx.pathParam("photoPath")).thenReturn("test.png");
+    when(ctx.header("Range")).thenReturn("bytes=1000-");
+    when(ctx.res()).thenReturn(res);
+
+    hostController.getPhoto(ctx);
+
+    long size = Files.size(Path.of("photos", "test.png"));
+    verify(ctx).status(HttpStatus.RANGE_NOT_SATISFIABLE);
+    verify(ctx).header("Content-Range", "bytes */" + size);
+    verify(res, Mockito.never()).getOutputStream();
+  }
+
+  @Test
+  void testGetPhotoIfRangeMismatchSendsWholePhoto() throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    HttpServletResponse res = mock(HttpServletResponse.class);
+
+    when(ctx.pathParam("photoPath")).thenReturn("test.png");
+    when(ctx.header("Range")).thenReturn("bytes=2-5");
+    when(ctx.header("If-Range")).thenReturn("\"some-older-photo.png\"");
+    when(ctx.res()).thenReturn(res);
+    when(res.getOutputStream()).thenReturn(capturingOutputStream(body));
+
+    hostController.getPhoto(ctx);
+
+    verify(ctx).status(HttpStatus.OK);
+    assertArrayEquals(Files.readAllBytes(Path.of("photos", "test.png")), body.toByteArray());
+  }
+
+  @Test
+  void testGetPhotoReadError() throws IOException {
+    HttpServletResponse res = mock(HttpServletResponse.class);
+
+    when(ctx.pathParam("photoPath")).thenReturn("test.png");
+    when(ctx.res()).thenReturn(res);
     when(ctx.status(any(HttpStatus.class))).thenReturn(ctx);
-    when(file.exists()).thenReturn(true);
+    when(res.getOutputStream()).thenThrow(new IOException("Broken pipe"));
 
     hostController.getPhoto(ctx);
 
-    verify(ctx).result(any(FileInputStream.class));
+    verify(ctx).status(HttpStatus.INTERNAL_SERVER_ERROR);
+    verify(ctx).result("Error reading file: Broken pipe");
   }
 
   @Test
@@ -1382,4 +1959,37 @@ public class HostControllerSpec {
     verify(ctx).status(HttpStatus.NOT_FOUND);
     verify(ctx).result("Photo not found");
   }
+
+  private ByteArrayOutputStream streamedBody() {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    when(ctx.outputStream()).thenReturn(capturingOutputStream(body));
+    return body;
+  }
+
+  private static List<Document> jsonArray(ByteArrayOutputStream body) {
+    return Document.parse("{\"list\": " + body.toString(StandardCharsets.UTF_8) + "}").getList("list", Document.class);
+  }
+
+  /**
+   * A servlet output stream that collects everything written to it,
+   * so we can check what a handler sent as the response body.
+   */
+  private static ServletOutputStream capturingOutputStream(ByteArrayOutputStream body) {
+    return new ServletOutputStream() {
+      @Override
+      public void write(int b) {
+        body.write(b);
+      }
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setWriteListener(WriteListener writeListener) {
+        // Writes are always synchronous in these tests
+      }
+    };
+  }
 }
@@ -0,0 +1,142 @@
+package umm3601.controllerSpecs;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoDatabase;
+
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+import io.javalin.http.HttpStatus;
+import umm3601.CollectionRegistry;
+import umm3601.MetricsController;
+import umm3601.RouteMetrics;
+import umm3601.SharedServices;
+
+@SuppressWarnings({ "MagicNumber" })
+class MetricsControllerSpec {
+
+  private static MongoClient mongoClient;
+  private static MongoDatabase db;
+
+  private SharedServices services;
+  private MetricsController metricsController;
+
+  @Mock
+  private Context ctx;
+
+  @Captor
+  private ArgumentCaptor<List<Map<String, Object>>> metricsCaptor;
+
+  @Captor
+  private ArgumentCaptor<String> textCaptor;
+
+  @BeforeAll
+  static void setupAll() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+
+    mongoClient = MongoClients.create(
+        MongoClientSettings.builder()
+            .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+            .build());
+    db = mongoClient.getDatabase("test");
+  }
+
+  @AfterAll
+  static void teardown() {
+    db.drop();
+    mongoClient.close();
+  }
+
+  @BeforeEach
+  void setupEach() {
+    MockitoAnnotations.openMocks(this);
+    services = new SharedServices(new CollectionRegistry(db));
+    metricsController = new MetricsController(services);
+  }
+
+  @Test
+  void getSingleFlightMetrics() {
+    services.singleFlight("getStartedHunt").run("123456", () -> new byte[0]);
+    services.singleFlight("getCompleteHunt");
+
+    metricsController.getSingleFlightMetrics(ctx);
+
+    verify(ctx).json(metricsCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    List<Map<String, Object>> metrics = metricsCaptor.getValue();
+    assertEquals(2, metrics.size());
+    assertEquals("getCompleteHunt", metrics.get(0).get("name"));
+    assertEquals(0L, metrics.get(0).get("requests"));
+    assertEquals("getStartedHunt", metrics.get(1).get("name"));
+    assertEquals(1L, metrics.get(1).get("requests"));
+    assertEquals(0L, metrics.get(1).get("collapsed"));
+    assertEquals(0, metrics.get(1).get("inFlight"));
+  }
+
+  @Test
+  void getRouteMetrics() {
+    RouteMetrics routeMetrics = services.routeMetrics();
+    routeMetrics.record("GET", "/api/hunts/{id}", 200, 1500, 2048);
+    routeMetrics.record("GET", "/api/hunts/{id}", 500, 3000, 10);
+    routeMetrics.record("POST", "/api/hunts", 201, 40, -1);
+
+    metricsController.getRouteMetrics(ctx);
+
+    verify(ctx).contentType("text/plain; version=0.0.4; charset=utf-8");
+    verify(ctx).result(textCaptor.capture());
+    verify(ctx).status(HttpStatus.OK);
+    List<String> lines = textCaptor.getValue().lines().toList();
+    String hunt = "{method=\"GET\",route=\"/api/hunts/{id}\"}";
+    assertTrue(lines.contains("# TYPE http_server_requests_seconds summary"));
+    assertTrue(lines.contains("http_server_requests_seconds_count" + hunt + " 2"));
+    assertTrue(lines.contains("http_server_requests_seconds_sum" + hunt + " 0.004500"));
+    assertTrue(lines.contains("http_server_requests_seconds_max" + hunt + " 0.003000"));
+    assertTrue(lines.contains("http_server_errors_total" + hunt + " 1"));
+    assertTrue(lines.contains("http_server_response_size_bytes_count" + hunt + " 2"));
+    assertTrue(lines.contains("http_server_response_size_bytes_sum" + hunt + " 2058"));
+    assertTrue(lines.contains(
+        "http_server_requests_seconds{method=\"POST\",route=\"/api/hunts\",quantile=\"0.99\"} 0.000040"));
+    assertTrue(lines.contains("http_server_response_size_bytes_count{method=\"POST\",route=\"/api/hunts\"} 0"));
+  }
+
+  @Test
+  void recordRequestsByTheirRoute() {
+    RouteMetrics routeMetrics = services.routeMetrics();
+    when(ctx.method()).thenReturn(HandlerType.GET);
+    when(ctx.endpointHandlerPath()).thenReturn("/api/hosts/{id}");
+    when(ctx.statusCode()).thenReturn(404);
+    routeMetrics.record(ctx, 2.5f);
+
+    Context unmatched = mock(Context.class);
+    when(unmatched.method()).thenReturn(HandlerType.GET);
+    when(unmatched.endpointHandlerPath()).thenThrow(new IllegalStateException("Still in a before handler"));
+    when(unmatched.statusCode()).thenReturn(401);
+    routeMetrics.record(unmatched, 1f);
+
+    List<String> lines = routeMetrics.prometheus().lines().toList();
+    assertTrue(lines.contains("http_server_requests_seconds_max{method=\"GET\",route=\"/api/hosts/{id}\"} 0.002500"));
+    assertTrue(lines.contains("http_server_errors_total{method=\"GET\",route=\"/api/hosts/{id}\"} 0"));
+    assertTrue(lines.contains("http_server_requests_seconds_count{method=\"GET\",route=\"unmatched\"} 1"));
+  }
+}
@@ -1,5 +1,6 @@
 package umm3601.controllerSpecs;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
@@ -13,11 +14,21 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 import org.bson.Document;
 import org.bson.types.ObjectId;
@@ -40,9 +51,17 @@ import com.mongodb.client.MongoDatabase;
 
 import io.javalin.Javalin;
 import io.javalin.http.BadRequestResponse;
+import io.javalin.http.ContentType;
 import io.javalin.http.Context;
 import io.javalin.http.HttpStatus;
 import io.javalin.http.NotFoundResponse;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponse;
+import umm3601.CollectionRegistry;
+import umm3601.FieldProjection;
+import umm3601.KeysetPagination;
+import umm3601.SharedServices;
 import umm3601.startedHunts.StartedHunt;
 import umm3601.startedHunts.StartedHuntController;
 
@@ -57,6 +76,8 @@ public class StartedHuntControllerSpec {
 
   private static MongoClient mongoClient;
   private static MongoDatabase db;
+  private CollectionRegistry collections;
+  private SharedServices services;
 
   @Mock
   private Context ctx;
@@ -67,9 +88,6 @@ public class StartedHuntControllerSpec {
   @Captor
   private ArgumentCaptor<StartedHunt> startedHuntCaptor;
 
-  @Captor
-  private ArgumentCaptor<ArrayList<StartedHunt>> startedHuntArrayListCaptor;
-
   @BeforeAll
   static void setupAll() {
     String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
@@ -232,7 +250,9 @@ public class StartedHuntControllerSpec {
     teamDocuments.insertMany(testTeams);
     teamDocuments.insertOne(team);
 
-    startedHuntController = new StartedHuntController(db);
+    collections = new CollectionRegistry(db);
+    services = new SharedServices(collections);
+    startedHuntController = new StartedHuntController(collections, services);
   }
 
   @Test
@@ -287,11 +307,45 @@ public class StartedHuntControllerSpec {
 
     startedHuntController.getStartedHunt(ctx);
 
-    verify(ctx).json(startedHuntCaptor.capture());
+    verify(ctx).contentType(ContentType.APPLICATION_JSON);
     verify(ctx).status(HttpStatus.OK);
 
-    assertEquals("123456", startedHuntCaptor.getValue().accessCode);
-    assertEquals(true, startedHuntCaptor.getValue().status);
+    Document startedHunt = sentJson();
+    assertEquals("123456", startedHunt.getString("accessCode"));
+    assertEquals(true, startedHunt.getBoolean("status"));
+  }
+
+  @Test
+  void getStartedHuntIsCachedUntilItChanges() throws IOException {
+    when(ctx.pathParam("accessCode")).thenReturn("232323");
+    when(ctx.pathParam("id")).thenReturn(startedHuntId.toHexString());
+
+    startedHuntController.getStartedHunt(ctx);
+    byte[] first = sentBytes();
+
+    // A change made behind the controller's back isn't seen...
+    db.getCollection("startedHunts").updateOne(eq("_id", startedHuntId),
+        new Document("$set", new Document("completeHunt.hunt.name", "Renamed")));
+    startedHuntController.getStartedHunt(ctx);
+    assertArrayEquals(first, sentBytes());
+
+    // ...but ending the hunt clears it from the cache
+    startedHuntController.endStartedHunt(ctx);
+    when(ctx.pathParam("accessCode")).thenReturn("232323");
+    Throwable exception = assertThrows(NotFoundResponse.class, () -> {
+      startedHuntController.getStartedHunt(ctx);
+    });
+    assertEquals("The requested access code was not found.", exception.getMessage());
+  }
+
+  private byte[] sentBytes() {
+    ArgumentCaptor<byte[]> bytesCaptor = ArgumentCaptor.forClass(byte[].class);
+    verify(ctx, Mockito.atLeastOnce()).result(bytesCaptor.capture());
+    return bytesCaptor.getValue();
+  }
+
+  private Document sentJson() {
+    return Document.parse(new String(sentBytes(), StandardCharsets.UTF_8));
   }
 
   @Test
@@ -340,13 +394,14 @@ public class StartedHuntControllerSpec {
 
   @Test
   void getEndedHunts() throws IOException {
-    startedHuntController.getEndedHunts(ctx);
+    ByteArrayOutputStream body = streamedBody();
 
-    verify(ctx).json(startedHuntArrayListCaptor.capture());
+    startedHuntController.getEndedHunts(ctx);
 
-    assertEquals(1, startedHuntArrayListCaptor.getValue().size());
-    for (StartedHunt startedHunt : startedHuntArrayListCaptor.getValue()) {
-      assertEquals(false, startedHunt.status);
+    List<Document> endedHunts = jsonArray(body);
+    assertEquals(1, endedHunts.size());
+    for (Document startedHunt : endedHunts) {
+      assertEquals(false, startedHunt.getBoolean("status"));
     }
   }
 
@@ -357,21 +412,22 @@ public class StartedHuntControllerSpec {
 
     // Check the initial status
     startedHuntController.getStartedHunt(ctx);
-    verify(ctx).json(startedHuntCaptor.capture());
-    assertEquals(true, startedHuntCaptor.getValue().status);
-    assertNull(startedHuntCaptor.getValue().endDate); // Check that the endDate is null
+    Document joined = sentJson();
+    assertEquals(true, joined.getBoolean("status"));
+    assertNull(joined.get("endDate")); // Check that the endDate is null
 
     // End the hunt
     startedHuntController.endStartedHunt(ctx);
     verify(ctx, times(2)).status(HttpStatus.OK);
 
     // Check the status and endDate after ending the hunt
+    ByteArrayOutputStream body = streamedBody();
     startedHuntController.getEndedHunts(ctx);
-    verify(ctx).json(startedHuntArrayListCaptor.capture());
-    for (StartedHunt startedHunt : startedHuntArrayListCaptor.getValue()) {
-      if (startedHunt._id.equals("123456")) {
-        assertEquals(false, startedHunt.status);
-      }
+    List<Document> endedHunts = jsonArray(body);
+    assertTrue(endedHunts.stream()
+        .anyMatch(startedHunt -> startedHuntId.toHexString().equals(String.valueOf(startedHunt.get("_id")))));
+    for (Document startedHunt : endedHunts) {
+      assertEquals(false, startedHunt.getBoolean("status"));
     }
   }
 
@@ -452,19 +508,72 @@ public class StartedHuntControllerSpec {
   @Test
   void testGetStartedHuntsByHostId() throws IOException {
     when(ctx.pathParam("hostId")).thenReturn(frysId.toHexString());
+    ByteArrayOutputStream body = streamedBody();
 
     startedHuntController.getStartedHuntsByHostId(ctx);
 
-    verify(ctx).json(startedHuntArrayListCaptor.capture());
-    assertEquals(2, startedHuntArrayListCaptor.getValue().size());
+    List<Document> startedHunts = jsonArray(body);
+    assertEquals(2, startedHunts.size());
 
     List<String> expectedAccessCodes = Arrays.asList("123456", "232323");
-    for (StartedHunt startedHunt : startedHuntArrayListCaptor.getValue()) {
-      assertTrue(expectedAccessCodes.contains(startedHunt.accessCode));
-      assertEquals(true, startedHunt.status);
+    for (Document startedHunt : startedHunts) {
+      assertTrue(expectedAccessCodes.contains(startedHunt.getString("accessCode")));
+      assertEquals(true, startedHunt.getBoolean("status"));
     }
   }
 
+  @Test
+  void testGetStartedHuntsByHostIdWithFields() throws IOException {
+    when(ctx.pathParam("hostId")).thenReturn(frysId.toHexString());
+    when(ctx.queryParam(FieldProjection.FIELDS_KEY)).thenReturn("completeHunt.hunt._id,completeHunt.hunt.name,status");
+    ByteArrayOutputStream body = streamedBody();
+
+    startedHuntController.getStartedHuntsByHostId(ctx);
+
+    List<Document> startedHunts = jsonArray(body);
+    assertEquals(2, startedHunts.size());
+    for (Document startedHunt : startedHunts) {
+      // Only what was asked for, and the ID
+      assertEquals(Set.of("_id", "completeHunt", "status"), startedHunt.keySet());
+      assertEquals(Set.of("hunt"), startedHunt.get("completeHunt", Document.class).keySet());
+      Document hunt = startedHunt.getEmbedded(List.of("completeHunt", "hunt"), Document.class);
+      assertEquals(huntId.toHexString(), hunt.getString("_id"));
+      assertEquals("Best Hunt", hunt.getString("name"));
+      assertEquals(true, startedHunt.getBoolean("status"));
+    }
+    assertTrue(startedHunts.stream()
+        .anyMatch(startedHunt -> startedHuntId.toHexString().equals(startedHunt.get("_id"))));
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  void testGetEndedHuntsAPageAtATimeWithFields() throws IOException {
+    when(ctx.queryParam(FieldProjection.FIELDS_KEY)).thenReturn("endDate, status");
+    when(ctx.queryParam(KeysetPagination.LIMIT_KEY)).thenReturn("1");
+
+    startedHuntController.getEndedHunts(ctx);
+
+    ArgumentCaptor<List<Document>> pageCaptor = ArgumentCaptor.forClass(List.class);
+    verify(ctx).json(pageCaptor.capture());
+    List<Document> page = pageCaptor.getValue();
+    assertEquals(1, page.size());
+    assertEquals(Set.of("_id", "endDate", "status"), page.get(0).keySet());
+    assertTrue(page.get(0).get("_id") instanceof String);
+    assertEquals(false, page.get(0).getBoolean("status"));
+  }
+
+  @Test
+  void testGetEndedHuntsWithBadFields() {
+    when(ctx.queryParam(FieldProjection.FIELDS_KEY)).thenReturn("completeHunt,completeHunt.tasks");
+    assertThrows(BadRequestResponse.class, () -> startedHuntController.getEndedHunts(ctx));
+
+    when(ctx.queryParam(FieldProjection.FIELDS_KEY)).thenReturn("$where");
+    assertThrows(BadRequestResponse.class, () -> startedHuntController.getEndedHunts(ctx));
+
+    when(ctx.queryParam(FieldProjection.FIELDS_KEY)).thenReturn("");
+    assertThrows(BadRequestResponse.class, () -> startedHuntController.getEndedHunts(ctx));
+  }
+
   @Test
   public void testDeleteStartedHuntDeletesSubmission() {
     when(ctx.pathParam("id")).thenReturn(startedHuntId.toHexString());
@@ -489,4 +598,94 @@ public class StartedHuntControllerSpec {
       assertNull(submission);
     }
   }
+
+  @Test
+  void exportPhotosZipsPhotosByTaskAndTeam() throws IOException {
+    ObjectId exportTaskId = new ObjectId();
+    ObjectId exportSubmissionId = new ObjectId();
+    db.getCollection("submissions").insertOne(new Document()
+        .append("_id", exportSubmissionId)
+        .append("taskId", exportTaskId.toHexString())
+        .append("teamId", teamId.toHexString())
+        .append("photoPath", "test.jpeg")
+        .append("submitTime", new Date()));
+    db.getCollection("startedHunts").updateOne(eq("_id", startedHuntId), new Document("$set", new Document()
+        .append("completeHunt.tasks", Arrays.asList(new Document()
+            .append("_id", exportTaskId)
+            .append("name", "Find a tree")
+            .append("photos", Arrays.asList("test.png", "missing.png"))))
+        .append("submissionIds", Arrays.asList(exportSubmissionId.toHexString()))));
+    db.getCollection("teams").updateOne(eq("_id", teamId),
+        new Document("$set", new Document("startedHuntId", startedHuntId.toHexString())));
+
+    HttpServletResponse res = mock(HttpServletResponse.class);
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    when(ctx.pathParam("id")).thenReturn(startedHuntId.toHexString());
+    when(ctx.res()).thenReturn(res);
+    when(res.getOutputStream()).thenReturn(capturingOutputStream(body));
+
+    startedHuntController.exportPhotos(ctx);
+
+    verify(ctx).status(HttpStatus.OK);
+    verify(ctx).contentType("application/zip");
+
+    // The missing photo is left out, and everything else is stored uncompressed
+    Map<String, byte[]> entries = new HashMap<>();
+    try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(body.toByteArray()))) {
+      for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+        assertEquals(ZipEntry.STORED, entry.getMethod());
+        entries.put(entry.getName(), zip.readAllBytes());
+      }
+    }
+    assertEquals(2, entries.size());
+    assertArrayEquals(Files.readAllBytes(Path.of("photos", "test.png")), entries.get("Find a tree/test.png"));
+    assertArrayEquals(Files.readAllBytes(Path.of("photos", "test.jpeg")), entries.get("Find a tree/Team 4/test.jpeg"));
+  }
+
+  @Test
+  void exportPhotosForMissingHunt() {
+    when(ctx.pathParam("id")).thenReturn(new ObjectId().toHexString());
+
+    assertThrows(NotFoundResponse.class, () -> startedHuntController.exportPhotos(ctx));
+  }
+
+  @Test
+  void exportPhotosForIllegalId() {
+    when(ctx.pathParam("id")).thenReturn("not an id");
+
+    assertThrows(BadRequestResponse.class, () -> startedHuntController.exportPhotos(ctx));
+  }
+
+  private ByteArrayOutputStream streamedBody() {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    when(ctx.outputStream()).thenReturn(capturingOutputStream(body));
+    return body;
+  }
+
+  private static List<Document> jsonArray(ByteArrayOutputStream body) {
+    return Document.parse("{\"list\": " + body.toString(StandardCharsets.UTF_8) + "}").getList("list", Document.class);
+  }
+
+  /**
+   * A servlet output stream that collects everything written to it,
+   * so we can check what a handler sent as the response body.
+   */
+  private static ServletOutputStream capturingOutputStream(ByteArrayOutputStream body) {
+    return new ServletOutputStream() {
+      @Override
+      public void write(int b) {
+        body.write(b);
+      }
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setWriteListener(WriteListener writeListener) {
+        // Writes are always synchronous in these tests
+      }
+    };
+  }
 }
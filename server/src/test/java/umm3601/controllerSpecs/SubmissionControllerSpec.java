@@ -6,6 +6,7 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static com.mongodb.client.model.Filters.and;
 import static com.mongodb.client.model.Filters.eq;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
@@ -15,15 +16,20 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Base64;
 import java.util.Date;
 import java.util.List;
 
 import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
@@ -47,10 +53,17 @@ import io.javalin.http.Context;
 import io.javalin.http.HttpStatus;
 import io.javalin.http.NotFoundResponse;
 import io.javalin.http.UploadedFile;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponse;
+import umm3601.CollectionRegistry;
+import umm3601.SharedServices;
+import umm3601.photos.PhotoStore;
 import umm3601.startedHunts.StartedHunt;
 import umm3601.teams.Submission;
 import umm3601.teams.SubmissionController;
 
+@SuppressWarnings({ "MagicNumber" })
 public class SubmissionControllerSpec {
   private SubmissionController submissionController;
   private ObjectId startedHuntId;
@@ -65,6 +78,8 @@ public class SubmissionControllerSpec {
 
   private static MongoClient mongoClient;
   private static MongoDatabase db;
+  private CollectionRegistry collections;
+  private SharedServices services;
 
   @Mock
   private Context ctx;
@@ -99,6 +114,8 @@ public class SubmissionControllerSpec {
   void setupEach() throws IOException {
     MockitoAnnotations.openMocks(this);
 
+    db.getCollection("photoBlobs").drop();
+
     MongoCollection<Document> submissionDocuments = db.getCollection("submissions");
     submissionDocuments.drop();
     List<Document> testSubmissions = new ArrayList<>();
@@ -209,7 +226,9 @@ public class SubmissionControllerSpec {
 
     teamDocuments.insertMany(testTeams);
     teamDocuments.insertOne(team);
-    submissionController = new SubmissionController(db);
+    collections = new CollectionRegistry(db);
+    services = new SharedServices(collections);
+    submissionController = new SubmissionController(collections, services);
   }
 
   @BeforeEach
@@ -305,7 +324,7 @@ public class SubmissionControllerSpec {
 
   @Test
   public void testCreateSubmission() {
-    SubmissionController mockSubmissionController = new SubmissionController(db);
+    SubmissionController mockSubmissionController = new SubmissionController(collections, services);
 
     String taskId2 = "task1";
     String teamId2 = "team1";
@@ -335,48 +354,48 @@ public class SubmissionControllerSpec {
   @Test
   public void testGetSubmissionsByTeam() {
     when(ctx.pathParam("teamId")).thenReturn("Team 1");
+    ByteArrayOutputStream body = streamedBody();
     submissionController.getSubmissionsByTeam(ctx);
 
-    verify(ctx).json(submissionListCaptor.capture());
     verify(ctx).status(HttpStatus.OK);
 
-    List<Submission> submissions = submissionListCaptor.getValue();
+    List<Document> submissions = jsonArray(body);
     assertFalse(submissions.isEmpty());
   }
 
   @Test
   void testGetSubmissionsByTask() {
     when(ctx.pathParam("taskId")).thenReturn("Task 1");
+    ByteArrayOutputStream body = streamedBody();
     submissionController.getSubmissionsByTask(ctx);
 
-    verify(ctx).json(submissionListCaptor.capture());
     verify(ctx).status(HttpStatus.OK);
 
-    List<Submission> submissions = submissionListCaptor.getValue();
+    List<Document> submissions = jsonArray(body);
     assertFalse(submissions.isEmpty());
   }
 
   @Test
   void testGetSubmissionsByTaskNoSubmissions() {
     when(ctx.pathParam("taskId")).thenReturn("Task 5");
+    ByteArrayOutputStream body = streamedBody();
     submissionController.getSubmissionsByTask(ctx);
 
-    verify(ctx).json(submissionListCaptor.capture());
     verify(ctx).status(HttpStatus.OK);
 
-    List<Submission> submissions = submissionListCaptor.getValue();
+    List<Document> submissions = jsonArray(body);
     assertTrue(submissions.isEmpty());
   }
 
   @Test
   void testGetSubmissionsByTeamNoSubmissions() {
     when(ctx.pathParam("teamId")).thenReturn("Team 5");
+    ByteArrayOutputStream body = streamedBody();
     submissionController.getSubmissionsByTeam(ctx);
 
-    verify(ctx).json(submissionListCaptor.capture());
     verify(ctx).status(HttpStatus.OK);
 
-    List<Submission> submissions = submissionListCaptor.getValue();
+    List<Document> submissions = jsonArray(body);
     assertTrue(submissions.isEmpty());
   }
 
@@ -398,12 +417,12 @@ public class SubmissionControllerSpec {
   @Test
   void testGetSubmissionsByStartedHunt() {
     when(ctx.pathParam("startedHuntId")).thenReturn(startedHuntId.toHexString());
+    ByteArrayOutputStream body = streamedBody();
     submissionController.getSubmissionsByStartedHunt(ctx);
 
-    verify(ctx).json(submissionListCaptor.capture());
     verify(ctx).status(HttpStatus.OK);
 
-    List<Submission> submissions = submissionListCaptor.getValue();
+    List<Document> submissions = jsonArray(body);
     assertFalse(submissions.isEmpty());
   }
 
@@ -421,7 +440,7 @@ public class SubmissionControllerSpec {
 
   @Test
   void testGetSubmissionsByStartedHuntInvalidId() {
-    SubmissionController testSubmissionController = new SubmissionController(db);
+    SubmissionController testSubmissionController = new SubmissionController(collections, services);
     when(ctx.pathParam("startedHuntId")).thenReturn("invalidId");
 
     assertThrows(IllegalArgumentException.class, () -> {
@@ -430,18 +449,76 @@ public class SubmissionControllerSpec {
   }
 
   @Test
-  void testGetPhotoFromSubmission() {
+  void testGetPhotoFromSubmission() throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    HttpServletResponse res = mock(HttpServletResponse.class);
     when(ctx.pathParam("id")).thenReturn(submissionId.toHexString());
+    when(ctx.res()).thenReturn(res);
+    when(res.getOutputStream()).thenReturn(capturingOutputStream(body));
 
-    // Mock the photo file
-    File photo = mock(File.class);
-    when(photo.exists()).thenReturn(true);
+    submissionController.getPhotoFromSubmission(ctx);
+
+    String expected = Base64.getEncoder().encodeToString(Files.readAllBytes(Path.of("photos", "test.png")));
+    verify(ctx).status(HttpStatus.OK);
+    verify(ctx).contentType("text/plain");
+    verify(res).setContentLengthLong(expected.length());
+    assertEquals(expected, body.toString(StandardCharsets.US_ASCII));
+  }
+
+  @Test
+  void testGetPhotoFromSubmissionMissingPhoto() {
+    when(ctx.pathParam("id")).thenReturn(newSubmissionId.toHexString());
 
     submissionController.getPhotoFromSubmission(ctx);
 
+    verify(ctx).result("");
     verify(ctx).status(HttpStatus.OK);
   }
 
+  @Test
+  void testGetPhotoFromNonexistentSubmission() {
+    when(ctx.pathParam("id")).thenReturn(new ObjectId().toHexString());
+
+    assertThrows(BadRequestResponse.class, () -> submissionController.getPhotoFromSubmission(ctx));
+  }
+
+  @Test
+  void testGetRawPhotoFromSubmission() throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    HttpServletResponse res = mock(HttpServletResponse.class);
+    when(ctx.pathParam("id")).thenReturn(submissionId.toHexString());
+    when(ctx.res()).thenReturn(res);
+    when(res.getOutputStream()).thenReturn(capturingOutputStream(body));
+
+    submissionController.getRawPhotoFromSubmission(ctx);
+
+    byte[] expected = Files.readAllBytes(Path.of("photos", "test.png"));
+    verify(ctx).status(HttpStatus.OK);
+    verify(ctx).contentType("image/png");
+    verify(ctx).header("Cache-Control", "no-cache");
+    verify(res).setContentLengthLong(expected.length);
+    assertArrayEquals(expected, body.toByteArray());
+  }
+
+  @Test
+  void testGetRawPhotoFromSubmissionMissingPhoto() {
+    when(ctx.pathParam("id")).thenReturn(newSubmissionId.toHexString());
+
+    assertThrows(NotFoundResponse.class, () -> submissionController.getRawPhotoFromSubmission(ctx));
+  }
+
+  @Test
+  void testGetPhotoFromSubmissionNotModified() {
+    when(ctx.pathParam("id")).thenReturn(submissionId.toHexString());
+    when(ctx.header("If-None-Match")).thenReturn("\"test.png.base64\"");
+
+    submissionController.getPhotoFromSubmission(ctx);
+
+    verify(ctx).header("ETag", "\"test.png.base64\"");
+    verify(ctx).status(HttpStatus.NOT_MODIFIED);
+    verify(ctx, Mockito.never()).result(any(String.class));
+  }
+
   @Test
   void testGetSubmissionByTeamAndTaskNoSubmissionFound() {
     when(ctx.pathParam("teamId")).thenReturn("NonExistentTeam");
@@ -474,9 +551,11 @@ public class SubmissionControllerSpec {
   }
 
   @Test
-  void testDeleteSubmissions() {
+  void testDeleteSubmissions() throws IOException {
     ArrayList<String> submissionIdsList = new ArrayList<>();
     submissionIdsList.add(submissionId.toHexString());
+    // Deleting a submission releases its photo
+    Path photo = givePhotoCopy(eq("_id", submissionId));
 
     submissionController.deleteSubmissions(submissionIdsList);
 
@@ -484,12 +563,45 @@ public class SubmissionControllerSpec {
     assertEquals(
         0, db.getCollection(
             "submissions").countDocuments(new Document("_id", submissionId)));
+    assertFalse(Files.exists(photo));
+  }
+
+  @Test
+  void testDeleteSubmissionsReleasesTheirPhotos() throws IOException {
+    PhotoStore photoStore = services.photoStore();
+    // One photo only the deleted submissions use, and one another submission
+    // uses too
+    String onlyDeleted = photoStore.store(new ByteArrayInputStream("only deleted".getBytes()), "jpg");
+    photoStore.store(new ByteArrayInputStream("only deleted".getBytes()), "jpg");
+    String shared = photoStore.store(new ByteArrayInputStream("shared".getBytes()), "jpg");
+    photoStore.store(new ByteArrayInputStream("shared".getBytes()), "jpg");
+
+    List<Document> submissions = new ArrayList<>();
+    for (String photo : List.of(onlyDeleted, onlyDeleted, shared, shared)) {
+      submissions.add(new Document()
+          .append("_id", new ObjectId())
+          .append("taskId", "Bulk task")
+          .append("teamId", "Bulk team")
+          .append("photoPath", photo));
+    }
+    db.getCollection("submissions").insertMany(submissions);
+    List<String> toDelete = submissions.subList(0, 3).stream()
+        .map(submission -> submission.getObjectId("_id").toHexString())
+        .toList();
 
+    assertEquals(3, submissionController.deleteSubmissions(toDelete));
+
+    assertEquals(1, db.getCollection("submissions").countDocuments(eq("teamId", "Bulk team")));
+    assertFalse(Files.exists(photoStore.resolve(onlyDeleted)));
+    assertTrue(Files.exists(photoStore.resolve(shared)));
+    assertEquals(1, db.getCollection("photoBlobs").countDocuments());
+
+    photoStore.release(shared);
   }
 
   @Test
   void testGetFileExtension() {
-    SubmissionController testSubmissionController = new SubmissionController(db);
+    SubmissionController testSubmissionController = new SubmissionController(collections, services);
 
     String filename1 = "test.jpg";
     String filename2 = "document.pdf";
@@ -515,14 +627,12 @@ public class SubmissionControllerSpec {
 
     // Verify the behavior and assertions
     assertNotNull(result);
-    assertTrue(result.matches("[a-f0-9]{8}-[a-f0-9]{4}-[a-f0-9]{4}-[a-f0-9]{4}-[a-f0-9]{12}\\.jpg"));
+    assertTrue(result.matches("[a-f0-9]{64}\\.jpg"));
 
-    // Verify that the file was saved
-    String id = result.substring(0, result.lastIndexOf('.'));
-    String extension = result.substring(result.lastIndexOf('.') + 1);
-    File savedFile = new File("photos", id + "." + extension);
-    assertTrue(savedFile.exists());
-    assertEquals("test photo content", Files.readString(savedFile.toPath()));
+    // Verify that the file was saved, in its shard directory
+    Path savedFile = services.photoStore().resolve(result);
+    assertEquals(Path.of("photos", result.substring(0, 2), result.substring(2, 4), result), savedFile);
+    assertEquals("test photo content", Files.readString(savedFile));
 
     // Verify the context status
     verify(ctx).status(HttpStatus.OK);
@@ -594,7 +704,11 @@ public class SubmissionControllerSpec {
       System.out.println("New submission created: " + newSubmission);
     }
 
+    // The old photo is released when it's replaced
+    Path oldPhoto = givePhotoCopy(and(eq("taskId", taskId4), eq("teamId", teamId4)));
+
     submissionController.addPhotoPathToSubmission(ctx, photoPath);
+    assertFalse(Files.exists(oldPhoto));
 
     Document updatedSubmission = db.getCollection("submissions")
         .find(and(eq("taskId", taskId4), eq("teamId", teamId4))).first();
@@ -605,6 +719,45 @@ public class SubmissionControllerSpec {
     assertEquals(photoPath, updatedSubmission.get("photoPath"));
   }
 
+  @Test
+  void testResubmittingReleasesTheOldPhoto() throws IOException {
+    UploadedFile uploadedFile = Mockito.mock(UploadedFile.class);
+    when(uploadedFile.content()).thenReturn(
+        new ByteArrayInputStream("first try".getBytes()),
+        new ByteArrayInputStream("second try".getBytes()),
+        new ByteArrayInputStream("second try".getBytes()));
+    when(uploadedFile.filename()).thenReturn("test.jpg");
+    when(ctx.uploadedFile("photo")).thenReturn(uploadedFile);
+    when(ctx.pathParam("taskId")).thenReturn("Task 5");
+    when(ctx.pathParam("teamId")).thenReturn("Team 5");
+    when(ctx.pathParam("startedHuntId")).thenReturn(startedHuntId.toHexString());
+
+    String firstPhoto = submissionController.uploadPhoto(ctx);
+    submissionController.addPhotoPathToSubmission(ctx, firstPhoto);
+    String secondPhoto = submissionController.uploadPhoto(ctx);
+    submissionController.addPhotoPathToSubmission(ctx, secondPhoto);
+
+    // Nothing uses the first photo any more
+    PhotoStore photoStore = services.photoStore();
+    assertFalse(Files.exists(photoStore.resolve(firstPhoto)));
+    assertEquals(1, db.getCollection("photoBlobs").countDocuments());
+
+    // Submitting the same photo again keeps one reference to it
+    submissionController.addPhotoPathToSubmission(ctx, submissionController.uploadPhoto(ctx));
+    Document blob = db.getCollection("photoBlobs").find().first();
+    assertEquals(1, blob.getInteger("refCount"));
+    assertTrue(Files.exists(photoStore.resolve(secondPhoto)));
+
+    // And the submission is only listed once on the hunt
+    Document submission = db.getCollection("submissions")
+        .find(and(eq("taskId", "Task 5"), eq("teamId", "Team 5"))).first();
+    List<String> submissionIds = db.getCollection("startedHunts").find(eq("_id", startedHuntId)).first()
+        .getList("submissionIds", String.class);
+    assertEquals(1, submissionIds.stream().filter(submission.getObjectId("_id").toHexString()::equals).count());
+
+    photoStore.release(secondPhoto);
+  }
+
   @Test
   void testReplacePhotoWithContext() throws IOException {
     SubmissionController testSubmissionController = Mockito.mock(SubmissionController.class);
@@ -672,4 +825,51 @@ public class SubmissionControllerSpec {
     // ** THIS ACTUALLY DELETES THE TEST.JPG FILE ** it will fail if ran twice
   }
 
+
+  /**
+   * Points a submission at a copy of test.png, for tests that release the
+   * submission's photo, so the other tests still have the original.
+   *
+   * @return The copy
+   */
+  private Path givePhotoCopy(Bson submission) throws IOException {
+    Path copy = Path.of("photos", new ObjectId().toHexString() + ".png");
+    Files.copy(Path.of("photos", "test.png"), copy);
+    db.getCollection("submissions").updateOne(submission,
+        new Document("$set", new Document("photoPath", copy.getFileName().toString())));
+    return copy;
+  }
+
+  private ByteArrayOutputStream streamedBody() {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    when(ctx.outputStream()).thenReturn(capturingOutputStream(body));
+    return body;
+  }
+
+  private static List<Document> jsonArray(ByteArrayOutputStream body) {
+    return Document.parse("{\"list\": " + body.toString(StandardCharsets.UTF_8) + "}").getList("list", Document.class);
+  }
+
+  /**
+   * A servlet output stream that collects everything written to it,
+   * so we can check what a handler sent as the response body.
+   */
+  private static ServletOutputStream capturingOutputStream(ByteArrayOutputStream body) {
+    return new ServletOutputStream() {
+      @Override
+      public void write(int b) {
+        body.write(b);
+      }
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setWriteListener(WriteListener writeListener) {
+        // Writes are always synchronous in these tests
+      }
+    };
+  }
 }
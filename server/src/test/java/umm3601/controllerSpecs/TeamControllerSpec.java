@@ -12,7 +12,9 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -45,6 +47,11 @@ import io.javalin.http.NotFoundResponse;
 import io.javalin.json.JavalinJackson;
 import io.javalin.validation.BodyValidator;
 import io.javalin.validation.ValidationException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import umm3601.CollectionRegistry;
+import umm3601.KeysetPagination;
+import umm3601.SharedServices;
 import umm3601.teams.Team;
 import umm3601.teams.TeamController;
 
@@ -56,6 +63,8 @@ public class TeamControllerSpec {
   private static MongoClient mongoClient;
   private static MongoDatabase db;
   private static JavalinJackson javalinJackson = new JavalinJackson();
+  private CollectionRegistry collections;
+  private SharedServices services;
 
   @Mock
   private Context ctx;
@@ -115,7 +124,9 @@ public class TeamControllerSpec {
     teamDocuments.insertMany(testTeams);
     teamDocuments.insertOne(team);
 
-    teamController = new TeamController(db);
+    collections = new CollectionRegistry(db);
+    services = new SharedServices(collections);
+    teamController = new TeamController(collections, services);
   }
 
   @Test
@@ -221,9 +232,54 @@ public class TeamControllerSpec {
 
   @Test
   void testGetTeams() throws IOException {
+    ByteArrayOutputStream body = streamedBody();
     teamController.getTeams(ctx);
-    verify(ctx).json(any());
     verify(ctx).status(HttpStatus.OK);
+    assertEquals(db.getCollection("teams").countDocuments(), jsonArray(body).size());
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  void testGetTeamsAPageAtATime() throws IOException {
+    List<List<Team>> pages = new ArrayList<>();
+    List<String> nextPages = new ArrayList<>();
+    when(ctx.json(any())).thenAnswer(invocation -> {
+      pages.add((List<Team>) invocation.getArgument(0));
+      return ctx;
+    });
+    when(ctx.header(Mockito.eq(KeysetPagination.NEXT_PAGE_HEADER), Mockito.anyString())).thenAnswer(invocation -> {
+      nextPages.add(invocation.getArgument(1));
+      return ctx;
+    });
+    when(ctx.queryParam("limit")).thenReturn("3");
+
+    teamController.getTeams(ctx);
+    assertEquals(1, nextPages.size());
+    when(ctx.queryParam("after")).thenReturn(nextPages.get(0));
+    teamController.getTeams(ctx);
+
+    // No more pages after the second
+    assertEquals(1, nextPages.size());
+    assertEquals(3, pages.get(0).size());
+    assertEquals(1, pages.get(1).size());
+    List<String> ids = new ArrayList<>();
+    for (List<Team> page : pages) {
+      for (Team team : page) {
+        ids.add(team._id);
+      }
+    }
+    assertEquals(4, ids.stream().distinct().count());
+    assertEquals(ids.stream().sorted().toList(), ids);
+  }
+
+  @Test
+  void testGetTeamsWithBadPageParameters() throws IOException {
+    when(ctx.queryParam("limit")).thenReturn("0");
+    assertThrows(BadRequestResponse.class, () -> teamController.getTeams(ctx));
+
+    when(ctx.queryParam("limit")).thenReturn(null);
+    when(ctx.queryParam("after")).thenReturn("not a token");
+    assertThrows(BadRequestResponse.class, () -> teamController.getTeams(ctx));
   }
 
   @Test
@@ -306,13 +362,13 @@ public class TeamControllerSpec {
 
     teamController.getAllStartedHuntTeams(ctx);
 
-    verify(ctx).json(any());
+    verify(ctx).result(any(byte[].class));
     verify(ctx).status(HttpStatus.OK);
   }
 
   @Test
   void testGetTeamsByStartedHuntId() {
-    TeamController mockTeamController = new TeamController(db);
+    TeamController mockTeamController = new TeamController(collections, services);
     String startedHuntId = "startedHunt1";
 
     ArrayList<Team> teams = mockTeamController.getTeamsByStartedHuntId(startedHuntId);
@@ -325,7 +381,7 @@ public class TeamControllerSpec {
 
   @Test
   void testCountTeams() {
-    TeamController mockTeamController = new TeamController(db);
+    TeamController mockTeamController = new TeamController(collections, services);
     String startedHuntId = "startedHunt1";
 
     int count = mockTeamController.countTeamsByStartedHuntId(startedHuntId);
@@ -359,4 +415,37 @@ public class TeamControllerSpec {
     assertEquals("Team 4", team6.getString("teamName"));
     assertEquals("startedHunt1", team6.getString("startedHuntId"));
   }
+
+  private ByteArrayOutputStream streamedBody() {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    when(ctx.outputStream()).thenReturn(capturingOutputStream(body));
+    return body;
+  }
+
+  private static List<Document> jsonArray(ByteArrayOutputStream body) {
+    return Document.parse("{\"list\": " + body.toString(StandardCharsets.UTF_8) + "}").getList("list", Document.class);
+  }
+
+  /**
+   * A servlet output stream that collects everything written to it,
+   * so we can check what a handler sent as the response body.
+   */
+  private static ServletOutputStream capturingOutputStream(ByteArrayOutputStream body) {
+    return new ServletOutputStream() {
+      @Override
+      public void write(int b) {
+        body.write(b);
+      }
+
+      @Override
+      public boolean isReady() {
+        return true;
+      }
+
+      @Override
+      public void setWriteListener(WriteListener writeListener) {
+        // Writes are always synchronous in these tests
+      }
+    };
+  }
 }
@@ -0,0 +1,59 @@
+package umm3601.photos;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests for moving photos from the flat photo directory into shards.
+ * These use a temporary directory so they don't touch the real photos.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class PhotoShardMigratorSpec {
+
+  private static final String HASH_NAME = "3fa9c0ffee0000000000000000000000000000000000000000000000000000e1.jpg";
+  private static final String UUID_NAME = "9b2e41d0-7c1a-4c6e-8f0a-2d4e6b8c0a1f.png";
+
+  @TempDir
+  private Path photos;
+
+  @Test
+  void testMigrateMovesPhotosIntoShards() throws IOException {
+    Files.writeString(photos.resolve(HASH_NAME), "hash");
+    Files.writeString(photos.resolve(UUID_NAME), "uuid");
+    Files.writeString(photos.resolve("test.png"), "other");
+
+    assertEquals(3, PhotoShardMigrator.migrate(photos));
+
+    assertEquals("hash", Files.readString(photos.resolve("3f/a9/" + HASH_NAME)));
+    assertEquals("uuid", Files.readString(photos.resolve("9b/2e/" + UUID_NAME)));
+    assertEquals("other", Files.readString(PhotoStore.shardedPath(photos, "test.png")));
+    assertFalse(Files.exists(photos.resolve(HASH_NAME)));
+    assertFalse(Files.exists(photos.resolve(UUID_NAME)));
+    assertFalse(Files.exists(photos.resolve("test.png")));
+  }
+
+  @Test
+  void testMigrateLeavesUploadsInProgressAlone() throws IOException {
+    Path upload = Files.createTempFile(photos, PhotoStore.TEMP_PREFIX, PhotoStore.TEMP_SUFFIX);
+
+    assertEquals(0, PhotoShardMigrator.migrate(photos));
+    assertTrue(Files.exists(upload));
+  }
+
+  @Test
+  void testMigrateTwiceDoesNothingTheSecondTime() throws IOException {
+    Files.writeString(photos.resolve(HASH_NAME), "hash");
+
+    assertEquals(1, PhotoShardMigrator.migrate(photos));
+    assertEquals(0, PhotoShardMigrator.migrate(photos));
+    assertTrue(Files.exists(photos.resolve("3f/a9/" + HASH_NAME)));
+  }
+}
@@ -0,0 +1,99 @@
+package umm3601.photos;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests for making the smaller renditions of photos. These use a temporary
+ * photo directory so they don't touch the real photos.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class RenditionServiceSpec {
+
+  private static final String PHOTO_NAME = "3fa9c0ffee.png";
+
+  @TempDir
+  private Path photos;
+
+  private RenditionService renditions;
+
+  @BeforeEach
+  void setupEach() {
+    renditions = new RenditionService(photos);
+  }
+
+  private void writePhoto(String fileName, int width, int height) throws IOException {
+    Path photo = PhotoStore.shardedPath(photos, fileName);
+    Files.createDirectories(photo.getParent());
+    ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB), "png", photo.toFile());
+  }
+
+  @Test
+  void testGenerateNowMakesEveryRendition() throws IOException {
+    writePhoto(PHOTO_NAME, 3000, 1500);
+
+    assertTrue(renditions.generateNow(PHOTO_NAME));
+
+    BufferedImage thumbnail = ImageIO.read(renditions.pathFor(PHOTO_NAME, Rendition.THUMBNAIL).toFile());
+    assertEquals(256, thumbnail.getWidth());
+    assertEquals(128, thumbnail.getHeight());
+    BufferedImage preview = ImageIO.read(renditions.pathFor(PHOTO_NAME, Rendition.PREVIEW).toFile());
+    assertEquals(1024, preview.getWidth());
+    assertEquals(512, preview.getHeight());
+  }
+
+  @Test
+  void testGenerateNowKeepsSmallPhotosTheirOwnSize() throws IOException {
+    writePhoto(PHOTO_NAME, 100, 200);
+
+    assertTrue(renditions.generateNow(PHOTO_NAME));
+
+    BufferedImage thumbnail = ImageIO.read(renditions.pathFor(PHOTO_NAME, Rendition.THUMBNAIL).toFile());
+    assertEquals(100, thumbnail.getWidth());
+    assertEquals(200, thumbnail.getHeight());
+  }
+
+  @Test
+  void testGenerateNowSkipsPhotosItCantRead() throws IOException {
+    Files.writeString(photos.resolve("notaphoto.heic"), "not really a photo");
+
+    assertFalse(renditions.generateNow("notaphoto.heic"));
+    assertFalse(Files.exists(renditions.pathFor("notaphoto.heic", Rendition.THUMBNAIL)));
+  }
+
+  @Test
+  void testFindAndDelete() throws IOException {
+    writePhoto(PHOTO_NAME, 300, 300);
+
+    assertNull(renditions.find("missing.png", Rendition.PREVIEW));
+
+    renditions.generateNow(PHOTO_NAME);
+    assertEquals(renditions.pathFor(PHOTO_NAME, Rendition.PREVIEW), renditions.find(PHOTO_NAME, Rendition.PREVIEW));
+
+    renditions.delete(PHOTO_NAME);
+    assertFalse(Files.exists(renditions.pathFor(PHOTO_NAME, Rendition.THUMBNAIL)));
+    assertFalse(Files.exists(renditions.pathFor(PHOTO_NAME, Rendition.PREVIEW)));
+  }
+
+  @Test
+  void testFromParam() {
+    assertEquals(Rendition.FULL, Rendition.fromParam(null));
+    assertEquals(Rendition.THUMBNAIL, Rendition.fromParam("thumb"));
+    assertEquals(Rendition.PREVIEW, Rendition.fromParam("preview"));
+    assertEquals(Rendition.FULL, Rendition.fromParam("full"));
+    assertNull(Rendition.fromParam("huge"));
+  }
+}
@@ -0,0 +1,135 @@
+package umm3601.startedHunts;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+
+import io.javalin.http.ServiceUnavailableResponse;
+import umm3601.CollectionRegistry;
+import umm3601.IndexManager;
+import umm3601.SharedServices;
+
+/**
+ * Tests that access codes are handed out without collisions.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class AccessCodeAllocatorSpec {
+
+  private static MongoClient mongoClient;
+  private static MongoDatabase db;
+
+  private MongoCollection<Document> startedHuntDocuments;
+  private SharedServices services;
+
+  @BeforeAll
+  static void setupAll() {
+    String mongoAddr = System.getenv().getOrDefault("MONGO_ADDR", "localhost");
+
+    mongoClient = MongoClients.create(
+        MongoClientSettings.builder()
+            .applyToClusterSettings(builder -> builder.hosts(Arrays.asList(new ServerAddress(mongoAddr))))
+            .build());
+    db = mongoClient.getDatabase("test");
+  }
+
+  @AfterAll
+  static void teardown() {
+    db.drop();
+    mongoClient.close();
+  }
+
+  @BeforeEach
+  void setupEach() {
+    startedHuntDocuments = db.getCollection("startedHunts");
+    startedHuntDocuments.drop();
+    startedHuntDocuments.insertOne(new Document("accessCode", "123456").append("status", true));
+    startedHuntDocuments.insertOne(new Document("accessCode", "1").append("status", false));
+    services = new SharedServices(new CollectionRegistry(db));
+  }
+
+  @Test
+  void loadsTheCodesOfActiveHunts() {
+    AccessCodeAllocator allocator = services.accessCodes();
+
+    assertEquals(1, allocator.activeCount());
+    // The same allocator is shared through the services
+    assertTrue(allocator == services.accessCodes());
+  }
+
+  @Test
+  void allocatedCodesAreSixDigitsAndDifferent() {
+    AccessCodeAllocator allocator = services.accessCodes();
+    Set<String> codes = new HashSet<>();
+
+    for (int i = 0; i < 1000; i++) {
+      String code = allocator.allocate();
+      assertTrue(code.matches("[1-9]\\d{5}"), code);
+      assertNotEquals("123456", code);
+      codes.add(code);
+    }
+
+    assertEquals(1000, codes.size());
+    assertEquals(1001, allocator.activeCount());
+  }
+
+  @Test
+  void releasedCodesCanBeUsedAgain() {
+    AccessCodeAllocator allocator = services.accessCodes();
+
+    allocator.release("123456");
+    allocator.release("1");
+    allocator.release("not a code");
+
+    assertEquals(0, allocator.activeCount());
+  }
+
+  @Test
+  void runningOutOfCodes() {
+    AccessCodeAllocator allocator = services.accessCodes();
+    for (int i = 0; i < AccessCodeAllocator.CODE_RANGE; i++) {
+      allocator.markTaken(Integer.toString(AccessCodeAllocator.CODE_MIN + i));
+    }
+
+    assertThrows(ServiceUnavailableResponse.class, allocator::allocate);
+  }
+
+  @Test
+  void insertSkipsCodesAnotherServerTook() {
+    new IndexManager(db).ensureIndexes();
+    AccessCodeAllocator allocator = services.accessCodes();
+    // Every code is taken, but this server thinks 123456 is free, as it
+    // would if another server had just given it to a hunt
+    for (int i = 0; i < AccessCodeAllocator.CODE_RANGE; i++) {
+      allocator.markTaken(Integer.toString(AccessCodeAllocator.CODE_MIN + i));
+    }
+    allocator.release("123456");
+
+    StartedHunt startedHunt = new StartedHunt();
+    startedHunt.status = true;
+    assertThrows(ServiceUnavailableResponse.class, () -> allocator.insertWithNewCode(startedHunt));
+    // Now it knows 123456 is taken
+    assertEquals(AccessCodeAllocator.CODE_RANGE, allocator.activeCount());
+
+    allocator.release("654321");
+    assertEquals("654321", allocator.insertWithNewCode(startedHunt));
+    assertEquals(1, startedHuntDocuments.countDocuments(new Document("accessCode", "654321")));
+  }
+}
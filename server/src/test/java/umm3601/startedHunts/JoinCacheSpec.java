@@ -0,0 +1,137 @@
+package umm3601.startedHunts;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the cache of joinable hunts' JSON.
+ */
+@SuppressWarnings({ "MagicNumber" })
+class JoinCacheSpec {
+
+  private static byte[] json(int size) {
+    return new byte[size];
+  }
+
+  @Test
+  void getReturnsWhatWasPut() {
+    JoinCache cache = new JoinCache();
+    byte[] json = "{\"accessCode\":\"123456\"}".getBytes();
+
+    cache.put("123456", "hunt1", json, cache.generation());
+
+    assertArrayEquals(json, cache.get("123456"));
+    assertNull(cache.get("654321"));
+    assertEquals(json.length, cache.bytes());
+  }
+
+  @Test
+  void invalidateRemovesTheHunt() {
+    JoinCache cache = new JoinCache();
+    cache.put("123456", "hunt1", json(10), cache.generation());
+    cache.put("654321", "hunt2", json(10), cache.generation());
+
+    cache.invalidate("hunt1");
+    cache.invalidate("not cached");
+
+    assertNull(cache.get("123456"));
+    assertEquals(1, cache.size());
+    assertEquals(10, cache.bytes());
+  }
+
+  @Test
+  void putAfterAnInvalidationIsIgnored() {
+    JoinCache cache = new JoinCache();
+    long generation = cache.generation();
+
+    // The hunt changed while we were loading it
+    cache.invalidate("hunt1");
+    cache.put("123456", "hunt1", json(10), generation);
+
+    assertNull(cache.get("123456"));
+  }
+
+  @Test
+  void putAfterAnotherHuntIsInvalidatedIsKept() {
+    JoinCache cache = new JoinCache();
+    long generation = cache.generation();
+
+    // Another team uploaded a photo to another hunt while we were loading
+    cache.invalidate("hunt2");
+    cache.put("123456", "hunt1", json(10), generation);
+
+    assertArrayEquals(json(10), cache.get("123456"));
+  }
+
+  @Test
+  void putAfterAnInvalidationIsIgnoredEvenAfterManyMore() {
+    JoinCache cache = new JoinCache();
+    long generation = cache.generation();
+
+    // More invalidations than the cache remembers hunts for
+    cache.invalidate("hunt1");
+    for (int i = 0; i < 2000; i++) {
+      cache.invalidate("other" + i);
+    }
+    cache.put("123456", "hunt1", json(10), generation);
+    assertNull(cache.get("123456"));
+
+    cache.put("123456", "hunt1", json(10), cache.generation());
+    assertArrayEquals(json(10), cache.get("123456"));
+  }
+
+  @Test
+  void leastRecentlyJoinedHuntsAreEvicted() {
+    JoinCache cache = new JoinCache(25);
+    cache.put("111111", "hunt1", json(10), cache.generation());
+    cache.put("222222", "hunt2", json(10), cache.generation());
+    cache.get("111111");
+
+    cache.put("333333", "hunt3", json(10), cache.generation());
+
+    assertNull(cache.get("222222"));
+    assertEquals(2, cache.size());
+    assertEquals(20, cache.bytes());
+  }
+
+  @Test
+  void huntsBiggerThanTheCacheAreNotCached() {
+    JoinCache cache = new JoinCache(25);
+
+    cache.put("111111", "hunt1", json(30), cache.generation());
+
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  void puttingAHuntAgainReplacesIt() {
+    JoinCache cache = new JoinCache();
+    cache.put("111111", "hunt1", json(10), cache.generation());
+    cache.put("111111", "hunt1", json(5), cache.generation());
+
+    assertEquals(1, cache.size());
+    assertEquals(5, cache.bytes());
+  }
+
+  @Test
+  void huntsExpireAfterTheirTtl() {
+    AtomicLong now = new AtomicLong();
+    JoinCache cache = new JoinCache(JoinCache.DEFAULT_MAX_BYTES, Duration.ofSeconds(5), now::get);
+    cache.put("111111", "hunt1", json(10), cache.generation());
+
+    // Joining the hunt doesn't keep it any longer
+    now.addAndGet(Duration.ofSeconds(4).toNanos());
+    assertArrayEquals(json(10), cache.get("111111"));
+
+    now.addAndGet(Duration.ofSeconds(1).toNanos());
+    assertNull(cache.get("111111"));
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.bytes());
+  }
+}